@@ -10,26 +10,39 @@ import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 
 import edu.purdue.pivotlib.graph.BasicGraph;
 import edu.purdue.pivotlib.graph.Graph;
 
 public class AggGraph {
 
-	/// Property for when the current aggregation hierarchy has changed
+	/// Property for when the current aggregation hierarchy has changed; the old and new
+	/// values are the collections of removed and added aggregates, or null if unknown
 	public static final String PROPERTY_AGGREGATION = "aggregation";
 
 	/// Property for when the current order has changed
 	public static final String PROPERTY_ORDER = "order";
 
+	/// Property for when the layout positions of the items have changed
+	public static final String PROPERTY_POSITIONS = "positions";
+
     private static int nodeCounter = 0;
 
 	public class AggNode extends BasicAggregate<Integer> {
 		
 		private int id;
 		private ArrayList<AggNode> neighbors = new ArrayList<AggNode>();
+		
+		/// Aggregate that was created from this one, if any
+		private AggNode parent = null;
+		
+		/// Cached hull as interleaved x and y coordinates, valid for hullVersion
+		private double[] hull = null;
+		private int hullVersion = -1;
 
 		/**
 		 * Base aggregation node constructor.  Use this for creating the leaf aggregates that only contain items. 
@@ -46,12 +59,22 @@ public class AggGraph {
 		 */
 		public AggNode(Collection<AggNode> nodes) {
 			this.id = nodeCounter++;
-
-			// Step through all nodes that should be aggregated
 			for (AggNode node : nodes) {
-				
-				// Add the aggregate
 				addAggregate(node);
+				node.parent = this;
+			}
+			mergeEdges();
+		}
+		
+		/**
+		 * Takes over the edges of the child nodes, which must be the current
+		 * ones, and redirects the edges of their neighbors to this node.
+		 */
+		private void mergeEdges() { 
+
+			// Step through all nodes that should be aggregated
+			for (int i = 0; i < getAggregateCount(); i++) {
+				AggNode node = (AggNode) getAggregate(i);
 				
 				// Update my neighbor's neighbors
 				for (AggNode neighbor : node.neighbors) {
@@ -96,6 +119,35 @@ public class AggGraph {
 			return neighbors;
 		}
 		
+		/**
+		 * Returns the aggregate that this node was merged into, or 
+		 * <code>null</code> if it has never been aggregated.
+		 */
+		public AggNode getParent() { 
+			return parent;
+		}
+		
+		/**
+		 * Returns the cached hull of this aggregate, if it was computed for
+		 * the given positions.
+		 * @param version position version (see <code>getPositionVersion</code>).
+		 * @return hull vertices as interleaved x and y coordinates, or 
+		 *         <code>null</code> if there is no hull for these positions.
+		 */
+		public double[] getHull(int version) { 
+			return version == hullVersion ? hull : null;
+		}
+		
+		/**
+		 * Stores the hull of this aggregate for the given positions.
+		 * @param hull    hull vertices as interleaved x and y coordinates.
+		 * @param version position version (see <code>getPositionVersion</code>).
+		 */
+		public void setHull(double[] hull, int version) { 
+			this.hull = hull;
+			this.hullVersion = version;
+		}
+		
 		private void rebuildEdges() {
 			
 			// Rebuild edges for all child nodes
@@ -139,8 +191,8 @@ public class AggGraph {
 							Collection<Integer> childItems = childNode.getAllItems();
 							for (Integer childItem : childItems) {
 								if (currNeighbors.contains(childItem)) {
-									if (!currNeighbors.contains(childNode)) { 
-										childNode.neighbors.add(childNode);
+									if (!currNode.neighbors.contains(childNode)) { 
+										currNode.neighbors.add(childNode);
 									}
 									break;
 								}
@@ -174,7 +226,12 @@ public class AggGraph {
 	
 	private Graph graph;
 	private boolean fireChanges = true;
+	private int positionVersion = 0;
+	private LinkedHashSet<AggNode> frozenBefore = new LinkedHashSet<AggNode>();
+	private LinkedHashSet<AggNode> frozenAfter = new LinkedHashSet<AggNode>();
 	private ArrayList<AggNode> nodes = new ArrayList<AggNode>();
+	/// The members of nodes, for constant-time membership tests
+	private HashSet<AggNode> nodeSet = new HashSet<AggNode>();
 	private Hashtable<Integer, ArrayList<Integer>> edgeTable = new Hashtable<Integer, ArrayList<Integer>>(); 
 	private PropertyChangeSupport propertySupport = new PropertyChangeSupport(this);
 	
@@ -188,12 +245,14 @@ public class AggGraph {
 		
 		// Clear the node list
 		nodes.clear();
+		nodeSet.clear();
 		edgeTable.clear();
 		
 		// Create aggregate nodes for all atoms 
 		for (int index = 0; index < graph.getVertexCount(); index++) {
 			AggNode node = new AggNode(index);
 			nodes.add(node);
+			nodeSet.add(node);
 		}
 		
 		// Create edges (aggregate over same from and to nodes)
@@ -222,13 +281,51 @@ public class AggGraph {
 		return true;
 	}
 	
+	/**
+	 * Marks the layout positions of the items as changed, which invalidates
+	 * all cached aggregate hulls.
+	 */
+	public void positionsChanged() { 
+		positionVersion++;
+		if (fireChanges) firePropertyChange(PROPERTY_POSITIONS, null, null);
+	}
+	
+	/**
+	 * Returns a counter that is incremented whenever the layout positions change.
+	 */
+	public int getPositionVersion() { 
+		return positionVersion;
+	}
+	
 	public void freeze() { 
 		this.fireChanges = false;
 	}
 	
+	/**
+	 * Resumes change events and fires a single aggregation change with the
+	 * net difference since <code>freeze</code>: aggregates that were created
+	 * and removed again while frozen appear in neither list.
+	 */
 	public void thaw() { 
 		this.fireChanges = true;
-		firePropertyChange(PROPERTY_AGGREGATION, null, null);
+		ArrayList<AggNode> beforeNodes = new ArrayList<AggNode>(frozenBefore);
+		ArrayList<AggNode> afterNodes = new ArrayList<AggNode>(frozenAfter);
+		frozenBefore.clear();
+		frozenAfter.clear();
+		firePropertyChange(PROPERTY_AGGREGATION, beforeNodes, afterNodes);
+	}
+	
+	private void fireAggregationChange(Collection<AggNode> beforeNodes, Collection<AggNode> afterNodes) { 
+		if (fireChanges) {
+			firePropertyChange(PROPERTY_AGGREGATION, beforeNodes, afterNodes);
+			return;
+		}
+		for (AggNode node : beforeNodes) { 
+			if (!frozenAfter.remove(node)) frozenBefore.add(node);
+		}
+		for (AggNode node : afterNodes) { 
+			if (!frozenBefore.remove(node)) frozenAfter.add(node);
+		}
 	}
 	
 	public int expand(int index) {
@@ -239,10 +336,12 @@ public class AggGraph {
 		if (node.isLeaf()) return 1;
 		
 		nodes.remove(index);
+		nodeSet.remove(node);
 		
 		for (int i = 0; i < node.getAggregateCount(); i++) {
 			AggNode child = (AggNode) node.getAggregate(i);
 			nodes.add(index + i, child);
+			nodeSet.add(child);
 			afterNodes.add(child);
 		}
 		node.rebuildEdges();
@@ -250,22 +349,24 @@ public class AggGraph {
 		ArrayList<AggNode> beforeNodes = new ArrayList<AggNode>();
 		beforeNodes.add(node);
 		
-		if (fireChanges) firePropertyChange(PROPERTY_AGGREGATION, beforeNodes, afterNodes);
+		fireAggregationChange(beforeNodes, afterNodes);
 
 		return node.getAggregateCount();
 	}
 
 	public int expand(AggNode node) {
 		if (node.isLeaf()) return 1;
-		if (!nodes.contains(node)) return 0;
+		if (!nodeSet.contains(node)) return 0;
 		
 		ArrayList<AggNode> afterNodes = new ArrayList<AggNode>();
 		
 		nodes.remove(node);
+		nodeSet.remove(node);
 		
 		for (int i = 0; i < node.getAggregateCount(); i++) {
 			AggNode child = (AggNode) node.getAggregate(i);
 			nodes.add(child);
+			nodeSet.add(child);
 			afterNodes.add(child);
 		}
 		node.rebuildEdges();
@@ -273,11 +374,42 @@ public class AggGraph {
 		ArrayList<AggNode> beforeNodes = new ArrayList<AggNode>();
 		beforeNodes.add(node);
 		
-		if (fireChanges) firePropertyChange(PROPERTY_AGGREGATION, beforeNodes, afterNodes);
+		fireAggregationChange(beforeNodes, afterNodes);
 
 		return node.getAggregateCount();
 	}
 	
+	/**
+	 * Collapses the children of an earlier aggregate back into it; the 
+	 * inverse of <code>expand</code>.  Unlike <code>aggregate</code>, this
+	 * reuses the existing node and so keeps the aggregation hierarchy intact.
+	 * @param node an expanded aggregate.
+	 * @return whether the node was collapsed, which requires all of its
+	 *         children to be current nodes.
+	 */
+	public boolean collapse(AggNode node) { 
+		if (node.isLeaf() || nodeSet.contains(node)) return false;
+		ArrayList<AggNode> beforeNodes = new ArrayList<AggNode>();
+		for (int i = 0; i < node.getAggregateCount(); i++) { 
+			AggNode child = (AggNode) node.getAggregate(i);
+			if (!nodeSet.contains(child)) return false;
+			beforeNodes.add(child);
+		}
+		
+		removeNodes(beforeNodes);
+		nodes.add(node);
+		nodeSet.add(node);
+		node.neighbors.clear();
+		node.mergeEdges();
+		
+		ArrayList<AggNode> afterNodes = new ArrayList<AggNode>();
+		afterNodes.add(node);
+		
+		fireAggregationChange(beforeNodes, afterNodes);
+		
+		return true;
+	}
+	
 	public AggNode aggregate(int start, int length) {
 
 		ArrayList<AggNode> beforeNodes = new ArrayList<AggNode>();
@@ -285,13 +417,14 @@ public class AggGraph {
 			beforeNodes.add(nodes.get(start + i));
 		}
 		AggNode superNode = new AggNode(beforeNodes);
-		nodes.removeAll(beforeNodes);
+		removeNodes(beforeNodes);
 		nodes.add(start, superNode);
+		nodeSet.add(superNode);
 		
 		ArrayList<AggNode> afterNodes = new ArrayList<AggNode>();
 		afterNodes.add(superNode);
 		
-		if (fireChanges) firePropertyChange(PROPERTY_AGGREGATION, beforeNodes, afterNodes);
+		fireAggregationChange(beforeNodes, afterNodes);
 		
 		return superNode;
 	}
@@ -299,22 +432,32 @@ public class AggGraph {
 	public AggNode aggregate(Collection<AggNode> subNodes) {
 
 		AggNode superNode = new AggNode(subNodes);
-		nodes.removeAll(subNodes);
+		removeNodes(subNodes);
 		nodes.add(superNode);
+		nodeSet.add(superNode);
 		
 		ArrayList<AggNode> afterNodes = new ArrayList<AggNode>();
 		afterNodes.add(superNode);
 		
-		if (fireChanges) firePropertyChange(PROPERTY_AGGREGATION, subNodes, afterNodes);
+		fireAggregationChange(subNodes, afterNodes);
 		
 		return superNode;
 	}
+	
+	/**
+	 * Removes nodes from the current nodes in a single pass over the list.
+	 */
+	private void removeNodes(Collection<AggNode> removed) { 
+		HashSet<AggNode> removedSet = new HashSet<AggNode>(removed);
+		nodes.removeAll(removedSet);
+		nodeSet.removeAll(removedSet);
+	}
 
 	public void checkIntegrity() { 
 		for (Iterator<AggNode> i = nodes.iterator(); i.hasNext(); ) { 
 			AggNode currNode = i.next();
 			for (AggNode neighbor : currNode.neighbors) { 
-				if (!nodes.contains(neighbor)) { 
+				if (!nodeSet.contains(neighbor)) { 
 					System.err.println("INTEGRITY: neighbor list not updated for node " + currNode);
 				}
 			}
@@ -337,6 +480,13 @@ public class AggGraph {
 		return nodes.indexOf(node);
 	}
 	
+	/**
+	 * Returns whether an aggregate is one of the current nodes.
+	 */
+	public boolean isCurrent(AggNode node) { 
+		return nodeSet.contains(node);
+	}
+	
 	public int getAggregateCount() { 
 		return nodes.size();
 	}
@@ -381,6 +531,7 @@ public class AggGraph {
 	public void clear() {
 		graph.clear();
 		nodes.clear();
+		nodeSet.clear();
 	}
 
 	public boolean isDirected() {
@@ -11,7 +11,8 @@ import javax.swing.JFrame;
 import edu.purdue.nodelink.aggregation.AggGraph;
 import edu.purdue.nodelink.aggregation.GraphHierAggregation;
 import edu.purdue.nodelink.aggregation.MidPointDistance;
-import edu.purdue.nodelink.layout.LinLogLayout;
+import edu.purdue.nodelink.layout.CachedLayout;
+import edu.purdue.nodelink.layout.LayoutFactory;
 import edu.purdue.nodelink.ui.AggNodeLinkCanvas;
 import edu.purdue.pivotlib.graph.BasicGraph;
 import edu.purdue.pivotlib.graph.Graph;
@@ -45,14 +46,17 @@ public class AggNodeLinkApplication extends JFrame {
 			graph.expandUndirected();
 						
 			// Create the graph
-			AggGraph agg = new AggGraph(graph);
+			final AggGraph agg = new AggGraph(graph);
 			nodeLinkCanvas.setGraph(agg);
 						
-			// Run a layout on the graph
-			nodeLinkCanvas.layout(new LinLogLayout());
-			
-			// Run the hierarchical aggregation process
-			GraphHierAggregation.aggregateGraph(agg, new MidPointDistance(agg));
+			// Run a layout on the graph in the background (cached on disk)
+			nodeLinkCanvas.layoutAsync(new CachedLayout(LayoutFactory.createLayout(graph)), new Runnable() {
+				public void run() {
+					
+					// Run the hierarchical aggregation process once the positions are final
+					GraphHierAggregation.aggregateGraph(agg, new MidPointDistance(agg));
+				}
+			});
 //			nodeLinkCanvas.update();
 		}
 		catch (IOException e) {
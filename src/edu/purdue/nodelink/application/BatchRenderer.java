@@ -0,0 +1,154 @@
+/* ------------------------------------------------------------------
+ * BatchRenderer.java
+ *
+ * Renders GraphML files to PNG or SVG images without a display.
+ * ------------------------------------------------------------------
+ */
+package edu.purdue.nodelink.application;
+
+import java.awt.Dimension;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import edu.purdue.nodelink.aggregation.AggGraph;
+import edu.purdue.nodelink.layout.CachedLayout;
+import edu.purdue.nodelink.layout.LayoutFactory;
+import edu.purdue.nodelink.visualization.AggNodeLinkGraph;
+import edu.purdue.nodelink.visualization.NodeLinkGraph;
+import edu.purdue.nodelink.visualization.SceneRenderer;
+import edu.purdue.pivotlib.graph.BasicGraph;
+import edu.purdue.pivotlib.graph.Graph;
+import edu.purdue.pivotlib.io.GraphMLReader;
+
+/**
+ * Command line tool that lays out GraphML files and writes one image per
+ * file, for batch jobs on servers without a display.  Nothing here touches
+ * Swing; run it with <code>-Djava.awt.headless=true</code>.
+ *
+ * <pre>
+ * BatchRenderer [-size WxH] [-format png|svg] [-ratio R] [-tile N] outdir file.graphml...
+ * </pre>
+ *
+ * With <code>-ratio</code> below 1, the graph is aggregated until that
+ * fraction of the vertices remains and the aggregation cut is drawn;
+ * otherwise every vertex is drawn.  Layouts are chosen as in the viewers
+ * and cached on disk, so repeated runs only render.
+ */
+public class BatchRenderer {
+
+	private int width = 2048, height = 2048;
+	private String format = "png";
+	private double ratio = 1.0;
+	private int tileSize = SceneRenderer.TILE_SIZE;
+
+	public void render(File file, File outDir) throws IOException {
+		InputStream in = new FileInputStream(file);
+		Graph graph = new BasicGraph("graph");
+		try {
+			GraphMLReader reader = new GraphMLReader(in, "graph", graph);
+			reader.load();
+		}
+		finally {
+			in.close();
+		}
+		System.err.println("Read graph '" + graph.getName() + "' with " + graph.getVertexCount() + " vertices and " + graph.getEdgeCount() + " edges.");
+
+		// Lay out and build the scene
+		SceneRenderer renderer;
+		Dimension dim = new Dimension(width, height);
+		if (ratio < 1.0) {
+			graph.expandUndirected();
+			AggGraph agg = new AggGraph(graph);
+			AggNodeLinkGraph nodeLinkGraph = new AggNodeLinkGraph(agg);
+			new CachedLayout(LayoutFactory.createLayout(graph)).layout(graph, dim);
+			agg.positionsChanged();
+			nodeLinkGraph.setVisibleItemRatio(ratio);
+			renderer = new SceneRenderer(nodeLinkGraph.getEdgeRoot(), nodeLinkGraph.getNodeRoot());
+		}
+		else {
+			NodeLinkGraph nodeLinkGraph = new NodeLinkGraph(graph);
+			new CachedLayout(LayoutFactory.createLayout(graph)).layout(graph, dim);
+			nodeLinkGraph.update();
+			renderer = new SceneRenderer(nodeLinkGraph.getEdgeRoot(), nodeLinkGraph.getNodeRoot());
+		}
+		renderer.setTileSize(tileSize);
+
+		// Write the image next to the others
+		String name = file.getName();
+		if (name.lastIndexOf('.') > 0) name = name.substring(0, name.lastIndexOf('.'));
+		File outFile = new File(outDir, name + "." + format);
+		long start = System.currentTimeMillis();
+		if (format.equals("svg")) {
+			Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outFile), "UTF-8"));
+			try {
+				renderer.writeSVG(out, width, height);
+			}
+			finally {
+				out.close();
+			}
+		}
+		else {
+			renderer.writePNG(outFile, width, height);
+		}
+		System.err.println("Wrote " + outFile + " in " + (System.currentTimeMillis() - start) + " ms.");
+	}
+
+	private static void usage() {
+		System.err.println("Usage: BatchRenderer [-size WxH] [-format png|svg] [-ratio R] [-tile N] outdir file.graphml...");
+		System.exit(1);
+	}
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		BatchRenderer batch = new BatchRenderer();
+		int arg = 0;
+		try {
+			for (; arg < args.length - 1 && args[arg].startsWith("-"); arg += 2) {
+				String option = args[arg], value = args[arg + 1];
+				if (option.equals("-size")) {
+					int x = value.indexOf('x');
+					batch.width = Integer.parseInt(value.substring(0, x));
+					batch.height = Integer.parseInt(value.substring(x + 1));
+				}
+				else if (option.equals("-format")) {
+					batch.format = value.toLowerCase();
+					if (!batch.format.equals("png") && !batch.format.equals("svg")) usage();
+				}
+				else if (option.equals("-ratio")) {
+					batch.ratio = Double.parseDouble(value);
+				}
+				else if (option.equals("-tile")) {
+					batch.tileSize = Integer.parseInt(value);
+				}
+				else {
+					usage();
+				}
+			}
+		}
+		catch (RuntimeException e) {
+			usage();
+		}
+		if (args.length - arg < 2) usage();
+
+		// Keep going past graphs that fail, but report them in the exit code
+		File outDir = new File(args[arg]);
+		outDir.mkdirs();
+		int failed = 0;
+		for (int i = arg + 1; i < args.length; i++) {
+			try {
+				batch.render(new File(args[i]), outDir);
+			}
+			catch (Exception e) {
+				System.err.println("Failed to render " + args[i] + ": " + e);
+				failed++;
+			}
+		}
+		System.exit(failed == 0 ? 0 : 2);
+	}
+}
@@ -8,7 +8,8 @@ import java.io.InputStream;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 
-import edu.purdue.nodelink.layout.LinLogLayout;
+import edu.purdue.nodelink.layout.CachedLayout;
+import edu.purdue.nodelink.layout.LayoutFactory;
 import edu.purdue.nodelink.ui.NodeLinkCanvas;
 import edu.purdue.pivotlib.graph.BasicGraph;
 import edu.purdue.pivotlib.graph.Graph;
@@ -43,8 +44,8 @@ public class NodeLinkApplication extends JFrame {
 			// Create the graph
 			nodeLinkCanvas.setGraph(graph);
 			
-			// Run a layout on the graph
-			nodeLinkCanvas.layout(new LinLogLayout());
+			// Run a layout on the graph in the background (cached on disk)
+			nodeLinkCanvas.layoutAsync(new CachedLayout(LayoutFactory.createLayout(graph)), null);
 		}
 		catch (IOException e) {
 			e.printStackTrace();
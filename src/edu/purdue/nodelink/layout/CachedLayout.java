@@ -0,0 +1,266 @@
+/* ------------------------------------------------------------------
+ * CachedLayout.java
+ *
+ * Layout decorator that stores computed positions on disk.
+ * ------------------------------------------------------------------
+ */
+package edu.purdue.nodelink.layout;
+
+import java.awt.Dimension;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import edu.purdue.nodelink.visualization.NodeLinkGraph;
+import edu.purdue.pivotlib.data.IntColumn;
+import edu.purdue.pivotlib.graph.Graph;
+
+/**
+ * Caches the result of another layout in a local directory.  The cache key
+ * is a SHA-1 hash of the edge list of the graph and of the
+ * <code>toString()</code> of the wrapped layout, which for the layouts in
+ * this package lists all their parameters including the random seed.  On a
+ * cache hit the stored positions are loaded straight into the position
+ * columns and the wrapped layout is not run at all.
+ *
+ * Positions are stored as the wrapped layout delivered them: as layout
+ * coordinates when it runs progressively, and otherwise as the position
+ * columns it wrote, which are already fitted to the dimension of that run.
+ * Fitting only scales uniformly and translates, so either way the entry is
+ * fitted to the target dimension on load and serves any window size.  When
+ * the wrapped layout is a <code>ProgressiveLayout</code>, it runs
+ * progressively from the progressive entry point; a cancelled run is not
+ * stored.  Otherwise that entry point runs it to completion on a copy of
+ * the graph, without touching the positions of the graph itself.
+ */
+public class CachedLayout implements ProgressiveLayout {
+
+	private static final int MAGIC = 0x4E4C4C43; // "NLLC"
+	private static final int VERSION = 1;
+	/** Dimension that a layout which is not progressive is fitted to on a copy of the graph. */
+	private static final Dimension COPY_DIMENSION = new Dimension(1024, 1024);
+
+	private Layout layout;
+	private File directory;
+
+	/**
+	 * Caches the given layout in <code>~/.nodelink/layouts</code>.
+	 * @param layout the layout to cache.
+	 */
+	public CachedLayout(Layout layout) {
+		this(layout, getDefaultDirectory());
+	}
+
+	/**
+	 * Caches the given layout in the given directory.
+	 * @param layout    the layout to cache.
+	 * @param directory cache directory (created when needed).
+	 */
+	public CachedLayout(Layout layout, File directory) {
+		this.layout = layout;
+		this.directory = directory;
+	}
+
+	public static File getDefaultDirectory() {
+		return new File(new File(System.getProperty("user.home"), ".nodelink"), "layouts");
+	}
+
+	public Layout getLayout() {
+		return layout;
+	}
+
+	public void layout(Graph g, Dimension dim) {
+		File file = null;
+		try {
+			file = new File(directory, computeKey(g) + ".layout");
+			float[][] positions = load(file, g.getVertexCount());
+			if (positions != null) {
+				LayoutGraph.writePositions(g, positions, dim);
+				return;
+			}
+		}
+		catch (IOException e) {
+			System.err.println("Cannot read layout cache " + file + ": " + e);
+		}
+
+		// Cache miss: run the layout and store its result
+		layout.layout(g, dim);
+		if (file == null) return;
+		if (g.getVertexTable().getColumn(NodeLinkGraph.X_COLUMN) == null
+				|| g.getVertexTable().getColumn(NodeLinkGraph.Y_COLUMN) == null) return;
+		try {
+			save(file, LayoutGraph.readPositions(g));
+		}
+		catch (IOException e) {
+			System.err.println("Cannot write layout cache " + file + ": " + e);
+		}
+	}
+
+	/**
+	 * Loads the positions from the cache or computes them with the wrapped
+	 * layout.  A layout that is not a <code>ProgressiveLayout</code> is run
+	 * to completion on a copy of the graph, without progress updates, and
+	 * the positions it wrote to the copy are returned.
+	 */
+	public float[][] layout(Graph g, final ProgressUpdate progress) {
+		File file = null;
+		try {
+			file = new File(directory, computeKey(g) + ".layout");
+			float[][] positions = load(file, g.getVertexCount());
+			if (positions != null) return positions;
+		}
+		catch (IOException e) {
+			System.err.println("Cannot read layout cache " + file + ": " + e);
+		}
+
+		// Cache miss: run the layout, noting whether it was cancelled
+		final boolean[] cancelled = new boolean[1];
+		float[][] positions;
+		if (layout instanceof ProgressiveLayout) {
+			positions = ((ProgressiveLayout) layout).layout(g, new ProgressUpdate() {
+				public boolean update(int step, int nrIterations, float[][] pos) {
+					cancelled[0] = progress != null && !progress.update(step, nrIterations, pos);
+					return !cancelled[0];
+				}
+			});
+		}
+		else {
+			Graph copy = LayoutGraph.copyForLayout(g);
+			layout.layout(copy, COPY_DIMENSION);
+			positions = LayoutGraph.readPositions(copy);
+		}
+		if (file == null || cancelled[0]) return positions;
+		try {
+			save(file, positions);
+		}
+		catch (IOException e) {
+			System.err.println("Cannot write layout cache " + file + ": " + e);
+		}
+		return positions;
+	}
+
+	/**
+	 * Returns true if the layouts of this cache can run progressively.
+	 */
+	public boolean isProgressive() {
+		return layout instanceof ProgressiveLayout;
+	}
+
+	public String toString() {
+		return layout.toString();
+	}
+
+	/**
+	 * Computes the cache key of the given graph for the wrapped layout.
+	 * @param g the graph.
+	 * @return hexadecimal SHA-1 hash.
+	 */
+	public String computeKey(Graph g) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		int edgeNr = g.getEdgeCount();
+		IntColumn fromColumn = g.getFromColumn();
+		IntColumn toColumn = g.getToColumn();
+		byte[] buffer = new byte[8 * 1024];
+		int cnt = 0;
+		cnt = putInt(buffer, cnt, g.getVertexCount());
+		cnt = putInt(buffer, cnt, edgeNr);
+		for (int i = 0; i < edgeNr; i++) {
+			if (cnt + 8 > buffer.length) {
+				digest.update(buffer, 0, cnt);
+				cnt = 0;
+			}
+			cnt = putInt(buffer, cnt, fromColumn.getIntValueAt(i));
+			cnt = putInt(buffer, cnt, toColumn.getIntValueAt(i));
+		}
+		digest.update(buffer, 0, cnt);
+		try {
+			digest.update(layout.toString().getBytes("UTF-8"));
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		StringBuffer key = new StringBuffer();
+		byte[] hash = digest.digest();
+		for (int i = 0; i < hash.length; i++) {
+			key.append(Character.forDigit((hash[i] >> 4) & 0xF, 16));
+			key.append(Character.forDigit(hash[i] & 0xF, 16));
+		}
+		return key.toString();
+	}
+
+	private static int putInt(byte[] buffer, int pos, int value) {
+		buffer[pos++] = (byte) (value >>> 24);
+		buffer[pos++] = (byte) (value >>> 16);
+		buffer[pos++] = (byte) (value >>> 8);
+		buffer[pos++] = (byte) value;
+		return pos;
+	}
+
+	/**
+	 * Reads the positions of a cache entry.
+	 * @return the positions, or null if there is no matching entry.
+	 */
+	private static float[][] load(File file, int vertexNr) throws IOException {
+		if (!file.exists()) return null;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+			if (in.readInt() != vertexNr) return null;
+			float[][] positions = new float[vertexNr][2];
+			for (int i = 0; i < vertexNr; i++) {
+				positions[i][0] = (float) in.readDouble();
+				positions[i][1] = (float) in.readDouble();
+			}
+			return positions;
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes the given positions to a cache entry.
+	 */
+	private static void save(File file, float[][] positions) throws IOException {
+		File parent = file.getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Cannot create layout cache directory " + parent);
+		}
+
+		int vertexNr = positions.length;
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(vertexNr);
+			for (int i = 0; i < vertexNr; i++) {
+				out.writeDouble(positions[i][0]);
+				out.writeDouble(positions[i][1]);
+			}
+		}
+		finally {
+			out.close();
+		}
+		if (file.exists() && !file.delete()) {
+			throw new IOException("Cannot replace layout cache entry " + file);
+		}
+		if (!tmp.renameTo(file)) {
+			throw new IOException("Cannot rename layout cache entry " + tmp + " to " + file);
+		}
+	}
+}
@@ -0,0 +1,274 @@
+/* ------------------------------------------------------------------
+ * ComponentLayout.java
+ *
+ * Parallel layout of the connected components of a graph.
+ * ------------------------------------------------------------------
+ */
+package edu.purdue.nodelink.layout;
+
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.purdue.pivotlib.graph.Graph;
+
+/**
+ * Layout for disconnected graphs.  The connected components are found with
+ * union-find, each component is laid out independently (without gravitation)
+ * on a thread pool, and the component layouts are then packed into shelves
+ * whose overall aspect ratio matches the target dimension.
+ */
+public class ComponentLayout implements Layout {
+
+	/** Minimizer iterations for each component. */
+	private int iterations = 100;
+	/** Number of worker threads. */
+	private int threadCount = Runtime.getRuntime().availableProcessors();
+	/** Space between packed components, relative to the mean component size. */
+	private float padding = 0.1f;
+	/** Seed of the random number generator; equal seeds give equal layouts. */
+	private long seed = 0L;
+	private Random random;
+
+	/** Positions and bounding box of one laid out component. */
+	private static class Component {
+		int[] members;
+		float[][] positions;
+		float minX, minY, width, height;
+	}
+
+	/**
+	 * Sets the seed for the random choices of the layout.
+	 * @param seed the seed (0 by default).
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public void setIterations(int iterations) {
+		this.iterations = iterations;
+	}
+
+	public void setThreadCount(int threadCount) {
+		this.threadCount = threadCount;
+	}
+
+	public void layout(Graph g, Dimension dim) {
+		LayoutGraph graph = new LayoutGraph(g);
+		float[][] positions = layout(graph, dim);
+		LayoutGraph.writePositions(g, positions, dim);
+	}
+
+	/**
+	 * Computes the packed component layout of the given layout graph.
+	 * @param graph layout graph.
+	 * @param dim   target dimension; only its aspect ratio is used.
+	 * @return position of each node.
+	 */
+	public float[][] layout(LayoutGraph graph, Dimension dim) {
+		int nodeNr = graph.getNodeCount();
+		if (nodeNr == 0) return new float[0][];
+		int[][] members = findComponents(graph);
+		random = new Random(seed);
+
+		// Lay out all components in parallel
+		final Component[] components = new Component[members.length];
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threadCount));
+		try {
+			ArrayList<Future<Component>> futures = new ArrayList<Future<Component>>();
+			for (int c = 0; c < members.length; c++) {
+				final LayoutGraph subgraph = subgraph(graph, members[c]);
+				final int[] componentMembers = members[c];
+				final long seed = random.nextLong();
+				futures.add(executor.submit(new Callable<Component>() {
+					public Component call() {
+						return layoutComponent(subgraph, componentMembers, seed);
+					}
+				}));
+			}
+			for (int c = 0; c < components.length; c++) {
+				components[c] = futures.get(c).get();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+		catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		finally {
+			executor.shutdown();
+		}
+
+		// Pack the component bounding boxes and assemble the positions
+		pack(components, dim);
+		float[][] positions = new float[nodeNr][];
+		for (Component component : components) {
+			for (int k = 0; k < component.members.length; k++) {
+				positions[component.members[k]] = component.positions[k];
+			}
+		}
+		return positions;
+	}
+
+	public String toString() {
+		return "ComponentLayout[seed=" + seed + ",iterations=" + iterations + ",padding=" + padding + "]";
+	}
+
+	private Component layoutComponent(LayoutGraph subgraph, int[] members, long seed) {
+		Random componentRandom = new Random(seed);
+		Component component = new Component();
+		component.members = members;
+		component.positions = new float[members.length][3];
+		for (int i = 0; i < members.length; i++) {
+			component.positions[i][0] = componentRandom.nextFloat() - 0.5f;
+			component.positions[i][1] = componentRandom.nextFloat() - 0.5f;
+		}
+		if (members.length > 1) {
+			MinimizerBarnesHut minimizer = new MinimizerBarnesHut(
+					subgraph.getAttrIndexes(), subgraph.getAttrWeights(), subgraph.getRepuWeights(),
+					LinLogLayout.ATTR_EXPONENT, LinLogLayout.REPU_EXPONENT, 0.0f, component.positions);
+			minimizer.minimizeEnergy(iterations);
+		}
+
+		float minX = Float.MAX_VALUE, maxX = -Float.MAX_VALUE;
+		float minY = Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+		for (float[] p : component.positions) {
+			minX = Math.min(minX, p[0]); maxX = Math.max(maxX, p[0]);
+			minY = Math.min(minY, p[1]); maxY = Math.max(maxY, p[1]);
+		}
+		component.minX = minX;
+		component.minY = minY;
+		component.width = maxX - minX;
+		component.height = maxY - minY;
+		return component;
+	}
+
+	/**
+	 * Shelf packing: components are sorted by decreasing height and placed
+	 * left to right on shelves of a width chosen to match the aspect ratio
+	 * of the target dimension.  The component positions are translated in place.
+	 */
+	private void pack(Component[] components, Dimension dim) {
+		if (components.length == 0) return;
+		double sizeSum = 0.0;
+		for (Component c : components) sizeSum += Math.max(c.width, c.height);
+		float pad = Math.max(1.0f, padding * (float) (sizeSum / components.length));
+
+		double area = 0.0;
+		float maxWidth = 0.0f;
+		for (Component c : components) {
+			area += (c.width + pad) * (c.height + pad);
+			maxWidth = Math.max(maxWidth, c.width + pad);
+		}
+		double aspect = dim.getHeight() > 0 ? dim.getWidth() / dim.getHeight() : 1.0;
+		float shelfWidth = Math.max(maxWidth, (float) Math.sqrt(area * aspect));
+
+		Component[] sorted = components.clone();
+		Arrays.sort(sorted, new Comparator<Component>() {
+			public int compare(Component c1, Component c2) {
+				return c1.height > c2.height ? -1 : c1.height < c2.height ? 1 : 0;
+			}
+		});
+		float x = 0.0f, y = 0.0f, shelfHeight = 0.0f;
+		for (Component c : sorted) {
+			if (x > 0.0f && x + c.width + pad > shelfWidth) {
+				x = 0.0f;
+				y += shelfHeight;
+				shelfHeight = 0.0f;
+			}
+			float dx = x - c.minX, dy = y - c.minY;
+			for (float[] p : c.positions) {
+				p[0] += dx;
+				p[1] += dy;
+			}
+			x += c.width + pad;
+			shelfHeight = Math.max(shelfHeight, c.height + pad);
+		}
+	}
+
+	/**
+	 * Finds the connected components with union-find.
+	 * @return the member nodes of each component, in increasing order.
+	 */
+	static int[][] findComponents(LayoutGraph graph) {
+		int nodeNr = graph.getNodeCount();
+		int[][] attrIndexes = graph.getAttrIndexes();
+		int[] parent = new int[nodeNr];
+		for (int i = 0; i < nodeNr; i++) parent[i] = i;
+		for (int i = 0; i < nodeNr; i++) {
+			for (int k = 0; k < attrIndexes[i].length; k++) {
+				union(parent, i, attrIndexes[i][k]);
+			}
+		}
+
+		// Number the components and count their members
+		int[] componentOf = new int[nodeNr];
+		int[] count = new int[nodeNr];
+		int componentNr = 0;
+		for (int i = 0; i < nodeNr; i++) {
+			int root = find(parent, i);
+			if (root == i) componentOf[i] = componentNr++;
+		}
+		for (int i = 0; i < nodeNr; i++) {
+			componentOf[i] = componentOf[find(parent, i)];
+			count[componentOf[i]]++;
+		}
+		int[][] members = new int[componentNr][];
+		for (int c = 0; c < componentNr; c++) members[c] = new int[count[c]];
+		int[] fill = new int[componentNr];
+		for (int i = 0; i < nodeNr; i++) {
+			members[componentOf[i]][fill[componentOf[i]]++] = i;
+		}
+		return members;
+	}
+
+	private static int find(int[] parent, int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	/**
+	 * Joins the sets of the two nodes.
+	 * @return false if they already were in the same set.
+	 */
+	static boolean union(int[] parent, int i, int j) {
+		int ri = find(parent, i), rj = find(parent, j);
+		if (ri == rj) return false;
+		if (ri < rj) parent[rj] = ri; else parent[ri] = rj;
+		return true;
+	}
+
+	/**
+	 * Extracts the layout graph induced by the given nodes.
+	 */
+	private static LayoutGraph subgraph(LayoutGraph graph, int[] members) {
+		int[][] attrIndexes = graph.getAttrIndexes();
+		float[][] attrWeights = graph.getAttrWeights();
+		float[] repuWeights = graph.getRepuWeights();
+		int[][] subIndexes = new int[members.length][];
+		float[][] subWeights = new float[members.length][];
+		float[] subRepu = new float[members.length];
+		for (int k = 0; k < members.length; k++) {
+			int i = members[k];
+			subIndexes[k] = new int[attrIndexes[i].length];
+			for (int l = 0; l < attrIndexes[i].length; l++) {
+				subIndexes[k][l] = Arrays.binarySearch(members, attrIndexes[i][l]);
+			}
+			subWeights[k] = attrWeights[i];
+			subRepu[k] = repuWeights[i];
+		}
+		return new LayoutGraph(subIndexes, subWeights, subRepu);
+	}
+}
@@ -0,0 +1,360 @@
+/* ------------------------------------------------------------------
+ * DualTreeRepulsion.java
+ *
+ * Cell-cell (dual-tree) approximation of the repulsion between nodes.
+ * ------------------------------------------------------------------
+ */
+package edu.purdue.nodelink.layout;
+
+import java.util.Arrays;
+
+/**
+ * Dual-tree approximation of the repulsion of <code>MinimizerBarnesHut</code>.
+ * Instead of walking the octtree once per node, the tree is traversed
+ * against itself: two cells whose distance is at least
+ * <code>theta * (width1 + width2)</code> interact once, through the
+ * monopole of the source cell, and the result is stored as a second order
+ * Taylor expansion (potential, gradient, Hessian) around the barycenter of
+ * the target cell.  The expansions are then pushed down the tree to the
+ * nodes.  Pairs of leaves that are not well separated form the near field
+ * of a node, which is evaluated exactly with the live positions.
+ *
+ * The expansions describe the potential <code>U(x) = sum_j w_j f(|x - p_j|)</code>
+ * with <code>f(d) = -d^e / e</code> (or <code>-ln d</code> for <code>e = 0</code>),
+ * so the repulsion energy of node <code>i</code> at <code>x</code> is
+ * <code>repuFactor * w_i * U(x)</code>.  Moving a node within an iteration
+ * updates its near field only; the far field is that of the start of the
+ * iteration.
+ */
+class DualTreeRepulsion {
+
+	private final float repuExponent;
+	private final float theta;
+
+	// Flattened cells
+	private int cellNr;
+	private float[] cellX, cellY, cellZ, cellWeight, cellWidth;
+	private int[] cellIndex;
+	private int[] cellChildStart, cellChildCount, cellChildren;
+
+	// Local expansions of the cells: potential, gradient, Hessian (xx, yy, zz, xy, xz, yz)
+	// and the second derivative estimate used to normalize the move
+	private double[] phi, gradX, gradY, gradZ, hess, dir2;
+
+	// Far field of each node, around its position at the start of the iteration
+	private float[][] center;
+	private double[] nodePhi, nodeDir2;
+	private double[][] nodeGrad, nodeHess;
+
+	// Repulsion weight of each node
+	private float[] nodeWeights;
+
+	// Near field of each node, in compressed rows
+	private int[] nearStart, near;
+	private int[] pairTarget = new int[1024], pairSource = new int[1024];
+	private int pairNr;
+
+	/**
+	 * @param repuExponent exponent of the distance in the repulsion energy.
+	 * @param theta        opening criterion; larger values are more accurate and slower.
+	 */
+	public DualTreeRepulsion(float repuExponent, float theta) {
+		this.repuExponent = repuExponent;
+		this.theta = theta;
+	}
+
+	/**
+	 * Computes the far and near field of every node for the given octtree.
+	 * @param tree   octtree of the repulsing nodes; may be <code>null</code>.
+	 * @param pos    node positions.
+	 */
+	public void compute(MinimizerBarnesHut.OctTree tree, float[][] pos) {
+		int nodeNr = pos.length;
+		if (center == null || center.length != nodeNr) {
+			center = new float[nodeNr][3];
+			nodePhi = new double[nodeNr];
+			nodeDir2 = new double[nodeNr];
+			nodeGrad = new double[nodeNr][3];
+			nodeHess = new double[nodeNr][6];
+			nearStart = new int[nodeNr + 1];
+		}
+		for (int i = 0; i < nodeNr; i++) {
+			nodePhi[i] = 0.0; nodeDir2[i] = 0.0;
+			nodeGrad[i][0] = nodeGrad[i][1] = nodeGrad[i][2] = 0.0;
+			for (int k = 0; k < 6; k++) nodeHess[i][k] = 0.0;
+			center[i][0] = pos[i][0]; center[i][1] = pos[i][1]; center[i][2] = pos[i][2];
+		}
+		pairNr = 0;
+		if (tree != null) {
+			flatten(tree);
+			interact(0, 0);
+			pushDown(0);
+		}
+		buildNearRows(nodeNr);
+	}
+
+	/**
+	 * Returns <code>U</code> at the given position of node <code>index</code>.
+	 * @param index node index.
+	 * @param p     position of the node (it need not be its current position).
+	 * @param pos   current positions of all nodes, for the near field.
+	 */
+	public float getPotential(int index, float[] p, float[][] pos) {
+		double dx = p[0] - center[index][0];
+		double dy = p[1] - center[index][1];
+		double dz = p[2] - center[index][2];
+		double[] g = nodeGrad[index], h = nodeHess[index];
+		double u = nodePhi[index] + g[0] * dx + g[1] * dy + g[2] * dz
+			+ 0.5 * (h[0] * dx * dx + h[1] * dy * dy + h[2] * dz * dz)
+			+ h[3] * dx * dy + h[4] * dx * dz + h[5] * dy * dz;
+		for (int k = nearStart[index]; k < nearStart[index + 1]; k++) {
+			float[] q = pos[near[k]];
+			float xd = p[0] - q[0], yd = p[1] - q[1], zd = p[2] - q[2];
+			double dist = Math.sqrt(xd * xd + yd * yd + zd * zd);
+			u += potential(dist, weight(near[k]));
+		}
+		return (float) u;
+	}
+
+	/**
+	 * Adds <code>-grad U</code> at the current position of node <code>index</code>
+	 * to <code>dir</code>.
+	 * @return the approximate second derivative of <code>U</code>.
+	 */
+	public float addDirection(int index, float[][] pos, float[] dir) {
+		float[] p = pos[index];
+		double dx = p[0] - center[index][0];
+		double dy = p[1] - center[index][1];
+		double dz = p[2] - center[index][2];
+		double[] g = nodeGrad[index], h = nodeHess[index];
+		dir[0] -= (float) (g[0] + h[0] * dx + h[3] * dy + h[4] * dz);
+		dir[1] -= (float) (g[1] + h[3] * dx + h[1] * dy + h[5] * dz);
+		dir[2] -= (float) (g[2] + h[4] * dx + h[5] * dy + h[2] * dz);
+		double result = nodeDir2[index];
+		for (int k = nearStart[index]; k < nearStart[index + 1]; k++) {
+			float[] q = pos[near[k]];
+			float xd = p[0] - q[0], yd = p[1] - q[1], zd = p[2] - q[2];
+			double dist = Math.sqrt(xd * xd + yd * yd + zd * zd);
+			if (dist == 0.0) continue;
+			double tmp = weight(near[k]) * power(dist, repuExponent - 2);
+			dir[0] += (float) (xd * tmp);
+			dir[1] += (float) (yd * tmp);
+			dir[2] += (float) (zd * tmp);
+			result += tmp * Math.abs(repuExponent - 1);
+		}
+		return (float) result;
+	}
+
+	/** Number of near field pairs of the last computation. */
+	public int getNearPairCount() {
+		return pairNr;
+	}
+
+	private float weight(int node) {
+		return nodeWeights[node];
+	}
+
+	private double potential(double dist, double w) {
+		if (repuExponent == 0.0f) return -w * Math.log(dist);
+		return -w * power(dist, repuExponent) / repuExponent;
+	}
+
+	/**
+	 * Returns <code>base</code> raised to <code>exponent</code>, avoiding
+	 * <code>Math.pow</code> for small integer exponents.
+	 */
+	private static double power(double base, double exponent) {
+		if (exponent == -1.0) return 1.0 / base;
+		if (exponent == -2.0) return 1.0 / (base * base);
+		if (exponent == -3.0) return 1.0 / (base * base * base);
+		if (exponent == 1.0) return base;
+		if (exponent == 2.0) return base * base;
+		return Math.pow(base, exponent);
+	}
+
+	/**
+	 * Copies the octtree into arrays, in preorder, so that the traversal
+	 * can keep its expansions in flat arrays.
+	 */
+	private void flatten(MinimizerBarnesHut.OctTree tree) {
+		int count = countCells(tree);
+		if (cellX == null || cellX.length < count) {
+			int capacity = count + count / 4;
+			cellX = new float[capacity]; cellY = new float[capacity]; cellZ = new float[capacity];
+			cellWeight = new float[capacity]; cellWidth = new float[capacity];
+			cellIndex = new int[capacity];
+			cellChildStart = new int[capacity]; cellChildCount = new int[capacity];
+			cellChildren = new int[capacity];
+			phi = new double[capacity]; dir2 = new double[capacity];
+			gradX = new double[capacity]; gradY = new double[capacity]; gradZ = new double[capacity];
+			hess = new double[6 * capacity];
+		}
+		if (nodeWeights == null || nodeWeights.length != center.length) {
+			nodeWeights = new float[center.length];
+		}
+		cellNr = 0;
+		int[] childFill = new int[1];
+		addCell(tree, childFill);
+		for (int c = 0; c < cellNr; c++) {
+			phi[c] = 0.0; dir2[c] = 0.0;
+			gradX[c] = gradY[c] = gradZ[c] = 0.0;
+		}
+		Arrays.fill(hess, 0, 6 * cellNr, 0.0);
+	}
+
+	private static int countCells(MinimizerBarnesHut.OctTree tree) {
+		int count = 1;
+		for (int i = 0; i < tree.children.length; i++) {
+			if (tree.children[i] != null) count += countCells(tree.children[i]);
+		}
+		return count;
+	}
+
+	/**
+	 * Adds the cell and its subtree; the children of a cell are stored
+	 * contiguously in <code>cellChildren</code>.
+	 */
+	private int addCell(MinimizerBarnesHut.OctTree tree, int[] childFill) {
+		int c = cellNr++;
+		cellX[c] = tree.position[0]; cellY[c] = tree.position[1]; cellZ[c] = tree.position[2];
+		cellWeight[c] = tree.weight;
+		cellWidth[c] = tree.width();
+		cellIndex[c] = tree.index;
+		if (tree.index >= 0) nodeWeights[tree.index] = tree.weight;
+		int childCount = 0;
+		for (int i = 0; i < tree.children.length; i++) {
+			if (tree.children[i] != null) childCount++;
+		}
+		int k = childFill[0];
+		cellChildStart[c] = k;
+		cellChildCount[c] = childCount;
+		childFill[0] += childCount;
+		for (int i = 0; i < tree.children.length; i++) {
+			if (tree.children[i] != null) {
+				cellChildren[k++] = addCell(tree.children[i], childFill);
+			}
+		}
+		return c;
+	}
+
+	private int childStart(int c) {
+		return cellChildStart[c];
+	}
+
+	private int childEnd(int c) {
+		return cellChildStart[c] + cellChildCount[c];
+	}
+
+	/**
+	 * Dual traversal of target cell <code>a</code> and source cell <code>b</code>.
+	 */
+	private void interact(int a, int b) {
+		if (a == b) {
+			if (cellIndex[a] >= 0) return;
+			for (int i = childStart(a); i < childEnd(a); i++) {
+				for (int j = childStart(a); j < childEnd(a); j++) {
+					interact(cellChildren[i], cellChildren[j]);
+				}
+			}
+			return;
+		}
+		double dx = cellX[a] - cellX[b], dy = cellY[a] - cellY[b], dz = cellZ[a] - cellZ[b];
+		double dist = Math.sqrt(dx * dx + dy * dy + dz * dz);
+		if (dist > 0.0 && dist >= theta * (cellWidth[a] + cellWidth[b])) {
+			addExpansion(a, cellWeight[b], dx, dy, dz, dist);
+			return;
+		}
+		boolean leafA = cellIndex[a] >= 0, leafB = cellIndex[b] >= 0;
+		if (leafA && leafB) {
+			addPair(cellIndex[a], cellIndex[b]);
+		}
+		else if (leafB || (!leafA && cellWidth[a] >= cellWidth[b])) {
+			for (int i = childStart(a); i < childEnd(a); i++) interact(cellChildren[i], b);
+		}
+		else {
+			for (int j = childStart(b); j < childEnd(b); j++) interact(a, cellChildren[j]);
+		}
+	}
+
+	/**
+	 * Adds the expansion of a point source of weight <code>w</code> at
+	 * offset <code>-(dx, dy, dz)</code> from the barycenter of cell <code>a</code>.
+	 */
+	private void addExpansion(int a, double w, double dx, double dy, double dz, double dist) {
+		double e = repuExponent;
+		double pow = power(dist, e - 2);
+		phi[a] += potential(dist, w);
+		gradX[a] -= w * pow * dx;
+		gradY[a] -= w * pow * dy;
+		gradZ[a] -= w * pow * dz;
+		double c = (e - 2) / (dist * dist);
+		int h = 6 * a;
+		hess[h]     -= w * pow * (1.0 + c * dx * dx);
+		hess[h + 1] -= w * pow * (1.0 + c * dy * dy);
+		hess[h + 2] -= w * pow * (1.0 + c * dz * dz);
+		hess[h + 3] -= w * pow * c * dx * dy;
+		hess[h + 4] -= w * pow * c * dx * dz;
+		hess[h + 5] -= w * pow * c * dy * dz;
+		dir2[a] += w * pow * Math.abs(e - 1);
+	}
+
+	/**
+	 * Translates the expansion of each cell to its children and finally
+	 * to the nodes.
+	 */
+	private void pushDown(int c) {
+		int h = 6 * c;
+		if (cellIndex[c] >= 0) {
+			int node = cellIndex[c];
+			nodePhi[node] = phi[c];
+			nodeGrad[node][0] = gradX[c]; nodeGrad[node][1] = gradY[c]; nodeGrad[node][2] = gradZ[c];
+			for (int k = 0; k < 6; k++) nodeHess[node][k] = hess[h + k];
+			nodeDir2[node] = dir2[c];
+			center[node][0] = cellX[c]; center[node][1] = cellY[c]; center[node][2] = cellZ[c];
+			return;
+		}
+		for (int i = childStart(c); i < childEnd(c); i++) {
+			int child = cellChildren[i];
+			double dx = cellX[child] - cellX[c], dy = cellY[child] - cellY[c], dz = cellZ[child] - cellZ[c];
+			double hx = hess[h] * dx + hess[h + 3] * dy + hess[h + 4] * dz;
+			double hy = hess[h + 3] * dx + hess[h + 1] * dy + hess[h + 5] * dz;
+			double hz = hess[h + 4] * dx + hess[h + 5] * dy + hess[h + 2] * dz;
+			phi[child] += phi[c] + gradX[c] * dx + gradY[c] * dy + gradZ[c] * dz
+				+ 0.5 * (hx * dx + hy * dy + hz * dz);
+			gradX[child] += gradX[c] + hx;
+			gradY[child] += gradY[c] + hy;
+			gradZ[child] += gradZ[c] + hz;
+			for (int k = 0; k < 6; k++) hess[6 * child + k] += hess[h + k];
+			dir2[child] += dir2[c];
+			pushDown(child);
+		}
+	}
+
+	private void addPair(int target, int source) {
+		if (pairNr == pairTarget.length) {
+			int[] grownTarget = new int[2 * pairNr], grownSource = new int[2 * pairNr];
+			System.arraycopy(pairTarget, 0, grownTarget, 0, pairNr);
+			System.arraycopy(pairSource, 0, grownSource, 0, pairNr);
+			pairTarget = grownTarget;
+			pairSource = grownSource;
+		}
+		pairTarget[pairNr] = target;
+		pairSource[pairNr] = source;
+		pairNr++;
+	}
+
+	/**
+	 * Groups the near pairs by target node.
+	 */
+	private void buildNearRows(int nodeNr) {
+		Arrays.fill(nearStart, 0);
+		for (int k = 0; k < pairNr; k++) nearStart[pairTarget[k] + 1]++;
+		for (int i = 0; i < nodeNr; i++) nearStart[i + 1] += nearStart[i];
+		if (near == null || near.length < pairNr) near = new int[Math.max(16, pairNr + pairNr / 4)];
+		int[] fill = new int[nodeNr];
+		for (int k = 0; k < pairNr; k++) {
+			int t = pairTarget[k];
+			near[nearStart[t] + fill[t]++] = pairSource[k];
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/* ------------------------------------------------------------------
+ * ForceAtlas2Layout.java
+ *
+ * Layout with the ForceAtlas2-style adaptive-speed minimizer.
+ * ------------------------------------------------------------------
+ */
+package edu.purdue.nodelink.layout;
+
+import java.awt.Dimension;
+import java.util.Random;
+
+import edu.purdue.pivotlib.graph.Graph;
+
+/**
+ * Force-directed layout computed by <code>MinimizerForceAtlas2</code> from
+ * random initial positions.  An iteration costs one force evaluation per
+ * node, several times less than an iteration of <code>LinLogLayout</code>,
+ * so this layout runs more iterations for a similar result.
+ */
+public class ForceAtlas2Layout implements ProgressiveLayout {
+
+	/** Seed for the initial positions; equal seeds give equal layouts. */
+	private long seed = 0L;
+	/** Number of iterations. */
+	private int iterations = 300;
+	/** Logarithmic attraction. */
+	private boolean linLog = false;
+	/** Factor of the repulsion. */
+	private float scalingRatio = 2.0f;
+	/** Factor of the gravity. */
+	private float gravity = 1.0f;
+	/** Opening criterion of the octtree. */
+	private float openingCriterion = 1.0f;
+
+	/**
+	 * Sets the seed for the random initial positions.
+	 * @param seed the seed (0 by default).
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public void setIterations(int iterations) {
+		this.iterations = iterations;
+	}
+
+	/**
+	 * Selects logarithmic attraction (LinLog mode), which separates
+	 * clusters more clearly.
+	 * @param linLog true for LinLog mode.
+	 */
+	public void setLinLogMode(boolean linLog) {
+		this.linLog = linLog;
+	}
+
+	public void setScalingRatio(float scalingRatio) {
+		this.scalingRatio = scalingRatio;
+	}
+
+	public void setGravity(float gravity) {
+		this.gravity = gravity;
+	}
+
+	public void setOpeningCriterion(float openingCriterion) {
+		this.openingCriterion = openingCriterion;
+	}
+
+	public void layout(Graph g, Dimension dim) {
+		float[][] positions = layout(new LayoutGraph(g), null);
+		LayoutGraph.writePositions(g, positions, dim);
+	}
+
+	public float[][] layout(Graph g, ProgressUpdate progress) {
+		return layout(new LayoutGraph(g), progress);
+	}
+
+	/**
+	 * Computes a layout of the given layout graph.
+	 * @param graph    symmetric adjacency lists of the graph.
+	 * @param progress receives the intermediate positions; may be <code>null</code>.
+	 * @return position of each node, indexed like the nodes of the graph.
+	 */
+	public float[][] layout(LayoutGraph graph, ProgressUpdate progress) {
+		int nodeNr = graph.getNodeCount();
+		Random random = new Random(seed);
+		float extent = (float) Math.sqrt(Math.max(nodeNr, 1));
+		float[][] positions = new float[nodeNr][3];
+		for (int i = 0; i < nodeNr; i++) {
+			positions[i][0] = (random.nextFloat() - 0.5f) * extent;
+			positions[i][1] = (random.nextFloat() - 0.5f) * extent;
+		}
+
+		MinimizerForceAtlas2 minimizer = new MinimizerForceAtlas2(
+				graph.getAttrIndexes(), graph.getAttrWeights(), graph.getRepuWeights(), positions);
+		minimizer.setLinLogMode(linLog);
+		minimizer.setScalingRatio(scalingRatio);
+		minimizer.setGravity(gravity);
+		minimizer.setOpeningCriterion(openingCriterion);
+		minimizer.setProgressUpdate(progress);
+		minimizer.minimizeEnergy(iterations);
+		return positions;
+	}
+
+	public String toString() {
+		return "ForceAtlas2Layout[seed=" + seed + ",iterations=" + iterations + ",linLog=" + linLog
+			+ ",scalingRatio=" + scalingRatio + ",gravity=" + gravity + ",theta=" + openingCriterion + "]";
+	}
+}
@@ -0,0 +1,231 @@
+/* ------------------------------------------------------------------
+ * IncrementalLayout.java
+ *
+ * Warm-start layout for graphs that grow by vertex and edge additions.
+ * ------------------------------------------------------------------
+ */
+package edu.purdue.nodelink.layout;
+
+import java.awt.Dimension;
+import java.util.Random;
+
+import edu.purdue.nodelink.visualization.NodeLinkGraph;
+import edu.purdue.pivotlib.data.RealColumn;
+import edu.purdue.pivotlib.graph.Graph;
+
+/**
+ * Incremental layout for a graph that grows between layout calls, e.g.
+ * through <code>BalancedAggGraph.addVertex</code> and <code>addEdge</code>.
+ * The first call delegates to a full layout.  Each later call keeps the
+ * current positions of the existing vertices, places new vertices at the
+ * barycenter of their positioned neighbors, and runs the minimizer only on
+ * the neighborhood of the new vertices and edges; all other vertices stay
+ * exactly where they are.
+ *
+ * The minimizer runs in its own length unit.  The existing positions are
+ * scaled into it by the factor at which they are in equilibrium, so that
+ * the neighborhood is placed at the same scale as the rest of the layout.
+ * The octtree of the vertices is built once, and each iteration only
+ * re-inserts the movable ones.
+ *
+ * Vertices and edges are identified as new by their row numbers, so the
+ * graph must only grow by appending rows between calls.
+ */
+public class IncrementalLayout implements Layout {
+
+	/** Layout used for the first call. */
+	private Layout fullLayout;
+	/** Number of vertices at the end of the last layout call. */
+	private int knownVertexCount = 0;
+	/** Number of edges at the end of the last layout call. */
+	private int knownEdgeCount = 0;
+	/** Number of hops around new vertices and edges that are re-optimized. */
+	private int neighborhoodDepth = 1;
+	/** Minimizer iterations for each incremental update. */
+	private int iterations = 30;
+	/** Seed of the random number generator; equal seeds give equal layouts. */
+	private long seed = 0L;
+
+	public IncrementalLayout() {
+		this(new LinLogLayout());
+	}
+
+	/**
+	 * @param fullLayout layout used for the first call and after {@link #reset()}.
+	 */
+	public IncrementalLayout(Layout fullLayout) {
+		this.fullLayout = fullLayout;
+	}
+
+	/**
+	 * Sets the seed for the random choices of the layout.
+	 * @param seed the seed (0 by default).
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public void setNeighborhoodDepth(int neighborhoodDepth) {
+		this.neighborhoodDepth = neighborhoodDepth;
+	}
+
+	public void setIterations(int iterations) {
+		this.iterations = iterations;
+	}
+
+	/**
+	 * Forgets the known vertices and edges; the next call runs a full layout.
+	 */
+	public void reset() {
+		knownVertexCount = 0;
+		knownEdgeCount = 0;
+	}
+
+	public void layout(Graph g, Dimension dim) {
+		RealColumn xCol = (RealColumn) g.getVertexTable().getColumn(NodeLinkGraph.X_COLUMN);
+		RealColumn yCol = (RealColumn) g.getVertexTable().getColumn(NodeLinkGraph.Y_COLUMN);
+		if (xCol == null || yCol == null) return;
+		int known = Math.min(knownVertexCount, Math.min(xCol.size(), yCol.size()));
+
+		// Nothing to start from: run a full layout
+		if (known == 0) {
+			fullLayout.layout(g, dim);
+			knownVertexCount = g.getVertexCount();
+			knownEdgeCount = g.getEdgeCount();
+			return;
+		}
+
+		LayoutGraph graph = new LayoutGraph(g);
+		int nodeNr = graph.getNodeCount();
+		int[][] attrIndexes = graph.getAttrIndexes();
+
+		// Current positions relative to their bounding box; they are scaled
+		// into layout space once the new vertices are placed
+		double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE;
+		double minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		for (int i = 0; i < known; i++) {
+			minX = Math.min(minX, xCol.getRealValueAt(i));
+			maxX = Math.max(maxX, xCol.getRealValueAt(i));
+			minY = Math.min(minY, yCol.getRealValueAt(i));
+			maxY = Math.max(maxY, yCol.getRealValueAt(i));
+		}
+		float[][] positions = new float[nodeNr][3];
+		boolean[] placed = new boolean[nodeNr];
+		for (int i = 0; i < known; i++) {
+			positions[i][0] = (float) (xCol.getRealValueAt(i) - minX);
+			positions[i][1] = (float) (yCol.getRealValueAt(i) - minY);
+			placed[i] = true;
+		}
+
+		// Seed the neighborhood with new vertices and endpoints of new edges
+		boolean[] movable = new boolean[nodeNr];
+		int[] queue = new int[nodeNr];
+		int tail = 0;
+		for (int i = known; i < nodeNr; i++) {
+			movable[i] = true;
+			queue[tail++] = i;
+		}
+		int edgeNr = g.getEdgeCount();
+		for (int e = Math.min(knownEdgeCount, edgeNr); e < edgeNr; e++) {
+			int from = g.getFromColumn().getIntValueAt(e);
+			int to = g.getToColumn().getIntValueAt(e);
+			if (!movable[from]) { movable[from] = true; queue[tail++] = from; }
+			if (!movable[to]) { movable[to] = true; queue[tail++] = to; }
+		}
+		if (tail == 0) {
+			knownEdgeCount = edgeNr;
+			return;
+		}
+
+		placeNewVertices(graph, positions, placed, known, (float) (maxX - minX), (float) (maxY - minY));
+
+		// Grow the neighborhood breadth-first
+		int head = 0;
+		for (int depth = 0; depth < neighborhoodDepth; depth++) {
+			int levelEnd = tail;
+			for (; head < levelEnd; head++) {
+				int i = queue[head];
+				for (int k = 0; k < attrIndexes[i].length; k++) {
+					int j = attrIndexes[i][k];
+					if (!movable[j]) { movable[j] = true; queue[tail++] = j; }
+				}
+			}
+		}
+
+		// Scale the positions to the size at which they are in equilibrium
+		// under the minimizer's energy; at any other scale, the fixed
+		// vertices would pull the new ones too close together or apart
+		MinimizerBarnesHut minimizer = new MinimizerBarnesHut(
+				attrIndexes, graph.getAttrWeights(), graph.getRepuWeights(),
+				LinLogLayout.ATTR_EXPONENT, LinLogLayout.REPU_EXPONENT, LinLogLayout.GRAV_FACTOR, positions);
+		float scale = minimizer.computeEquilibriumScale();
+		for (int i = 0; i < nodeNr; i++) {
+			positions[i][0] *= scale;
+			positions[i][1] *= scale;
+		}
+
+		// Optimize the neighborhood only
+		minimizer.setMovable(movable);
+		minimizer.minimizeEnergy(iterations);
+
+		// Transform back; vertices outside the neighborhood are unchanged
+		for (int i = 0; i < nodeNr; i++) {
+			if (!movable[i]) continue;
+			xCol.setValueAt(i, new Double(positions[i][0] / scale + minX));
+			yCol.setValueAt(i, new Double(positions[i][1] / scale + minY));
+		}
+		knownVertexCount = nodeNr;
+		knownEdgeCount = edgeNr;
+	}
+
+	/**
+	 * Lists the parameters and the number of known vertices and edges,
+	 * since the result of a call depends on them.
+	 */
+	public String toString() {
+		return "IncrementalLayout[seed=" + seed + ",depth=" + neighborhoodDepth + ",iterations=" + iterations
+			+ ",known=" + knownVertexCount + "/" + knownEdgeCount + ",layout=" + fullLayout + "]";
+	}
+
+	/**
+	 * Places each new vertex at the barycenter of its already placed
+	 * neighbors, plus a small random offset.  New vertices that are only
+	 * connected to other new vertices are placed in later rounds; vertices
+	 * without any placed neighbor end up at a random position.  The random
+	 * choices depend on the seed and the number of known vertices only.
+	 */
+	private void placeNewVertices(LayoutGraph graph, float[][] positions, boolean[] placed,
+			int known, float width, float height) {
+		int[][] attrIndexes = graph.getAttrIndexes();
+		int nodeNr = graph.getNodeCount();
+		Random random = new Random(seed + knownVertexCount);
+		float jitter = 0.05f * Math.max(1.0f, Math.max(width, height));
+		boolean progress = true;
+		while (progress) {
+			progress = false;
+			for (int i = known; i < nodeNr; i++) {
+				if (placed[i]) continue;
+				float x = 0.0f, y = 0.0f;
+				int cnt = 0;
+				for (int k = 0; k < attrIndexes[i].length; k++) {
+					int j = attrIndexes[i][k];
+					if (!placed[j]) continue;
+					x += positions[j][0];
+					y += positions[j][1];
+					cnt++;
+				}
+				if (cnt == 0) continue;
+				positions[i][0] = x / cnt + jitter * (random.nextFloat() - 0.5f);
+				positions[i][1] = y / cnt + jitter * (random.nextFloat() - 0.5f);
+				placed[i] = true;
+				progress = true;
+			}
+		}
+		for (int i = known; i < nodeNr; i++) {
+			if (placed[i]) continue;
+			positions[i][0] = width * random.nextFloat();
+			positions[i][1] = height * random.nextFloat();
+			placed[i] = true;
+		}
+	}
+}
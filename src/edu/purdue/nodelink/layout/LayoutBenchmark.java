@@ -0,0 +1,176 @@
+/* ------------------------------------------------------------------
+ * LayoutBenchmark.java
+ *
+ * Accuracy and speed measurements of the repulsion approximations.
+ * ------------------------------------------------------------------
+ */
+package edu.purdue.nodelink.layout;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import edu.purdue.pivotlib.graph.BasicGraph;
+import edu.purdue.pivotlib.graph.Graph;
+import edu.purdue.pivotlib.io.GraphMLReader;
+
+/**
+ * Compares the Barnes-Hut and dual-tree repulsion with the exact O(n^2)
+ * repulsion on a converged LinLog layout, for a range of opening criteria.
+ * For each setting it reports the time of one force computation, the time
+ * of one minimizer iteration, and the relative force error
+ * <code>|f - f*| / |f*|</code>: overall (RMS over all nodes, relative to
+ * the RMS force), median, 99th percentile and maximum over the nodes.
+ *
+ * It then shuffles the node ids, as in a file without locality, and
+ * reports the time of the vertex ordering and of one minimizer iteration
+ * for each <code>VertexOrdering</code> method.
+ *
+ * Usage: <code>LayoutBenchmark [nodes | file.graphml]</code>
+ */
+public class LayoutBenchmark {
+
+	private static final float[] THETAS = { 1.0f, 1.5f, 2.0f, 3.0f, 4.0f };
+
+	public static void main(String[] args) throws IOException {
+		LayoutGraph graph = new LayoutGraph(args.length > 0 && !isNumber(args[0])
+				? readGraph(args[0])
+				: randomGraph(args.length > 0 ? Integer.parseInt(args[0]) : 5000, 1L));
+		int nodeNr = graph.getNodeCount();
+		System.out.println("Nodes: " + nodeNr);
+
+		// Converge a layout first; uniform random positions are not representative
+		LinLogLayout linLog = new LinLogLayout();
+		float[][] layout = linLog.layout(graph);
+
+		float[][] exact = newMinimizer(graph, copy(layout)).computeExactRepulsionForces();
+		System.out.println("mode       theta   force ms   iter ms   rms err   median    p99       max");
+		for (int mode = 0; mode < 2; mode++) {
+			for (int t = 0; t < THETAS.length; t++) {
+				float theta = THETAS[t];
+
+				MinimizerBarnesHut minimizer = newMinimizer(graph, copy(layout));
+				minimizer.setOpeningCriterion(theta);
+				minimizer.setDualTree(mode == 1);
+				long start = System.nanoTime();
+				float[][] forces = minimizer.computeRepulsionForces();
+				double forceMillis = (System.nanoTime() - start) / 1e6;
+
+				minimizer = newMinimizer(graph, copy(layout));
+				minimizer.setOpeningCriterion(theta);
+				minimizer.setDualTree(mode == 1);
+				start = System.nanoTime();
+				minimizer.minimizeEnergy(5);
+				double iterMillis = (System.nanoTime() - start) / 1e6 / 5;
+
+				double[] errors = new double[nodeNr];
+				double errSum = 0.0, normSum = 0.0;
+				for (int i = 0; i < nodeNr; i++) {
+					double dx = forces[i][0] - exact[i][0];
+					double dy = forces[i][1] - exact[i][1];
+					double dz = forces[i][2] - exact[i][2];
+					double err = dx * dx + dy * dy + dz * dz;
+					double norm = exact[i][0] * exact[i][0] + exact[i][1] * exact[i][1] + exact[i][2] * exact[i][2];
+					errSum += err;
+					normSum += norm;
+					errors[i] = norm > 0.0 ? Math.sqrt(err / norm) : 0.0;
+				}
+				Arrays.sort(errors);
+				System.out.println(String.format("%-10s %5.1f %10.1f %9.1f %9.5f %9.5f %9.5f %9.5f",
+						mode == 0 ? "barneshut" : "dualtree", theta, forceMillis, iterMillis,
+						Math.sqrt(errSum / normSum), errors[nodeNr / 2],
+						errors[Math.min(nodeNr - 1, (int) (0.99 * nodeNr))], errors[nodeNr - 1]));
+			}
+		}
+
+		// Vertex orderings, starting from shuffled ids
+		int[] shuffle = new int[nodeNr];
+		for (int i = 0; i < nodeNr; i++) shuffle[i] = i;
+		Random random = new Random(2L);
+		for (int i = nodeNr - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int tmp = shuffle[i]; shuffle[i] = shuffle[j]; shuffle[j] = tmp;
+		}
+		LayoutGraph shuffled = VertexOrdering.permute(graph, shuffle);
+		float[][] shuffledLayout = VertexOrdering.permute(layout, shuffle);
+		System.out.println();
+		System.out.println("ordering   order ms   iter ms   bandwidth");
+		VertexOrdering.Method[] methods = VertexOrdering.Method.values();
+		for (int m = 0; m < methods.length; m++) {
+			long start = System.nanoTime();
+			int[] order = VertexOrdering.compute(methods[m], shuffled, shuffledLayout);
+			LayoutGraph ordered = order != null ? VertexOrdering.permute(shuffled, order) : shuffled;
+			float[][] positions = order != null ? VertexOrdering.permute(shuffledLayout, order) : copy(shuffledLayout);
+			double orderMillis = (System.nanoTime() - start) / 1e6;
+
+			MinimizerBarnesHut minimizer = newMinimizer(ordered, positions);
+			minimizer.minimizeEnergy(1);
+			start = System.nanoTime();
+			minimizer.minimizeEnergy(5);
+			double iterMillis = (System.nanoTime() - start) / 1e6 / 5;
+			System.out.println(String.format("%-10s %8.1f %9.1f %11.1f", methods[m].toString().toLowerCase(),
+					orderMillis, iterMillis, meanBandwidth(ordered)));
+		}
+	}
+
+	/**
+	 * Returns the mean distance between the indexes of adjacent nodes, a
+	 * proxy for the locality of the neighbor accesses.
+	 */
+	private static double meanBandwidth(LayoutGraph graph) {
+		int[][] attrIndexes = graph.getAttrIndexes();
+		double sum = 0.0;
+		long cnt = 0;
+		for (int i = 0; i < attrIndexes.length; i++) {
+			for (int k = 0; k < attrIndexes[i].length; k++) {
+				sum += Math.abs(attrIndexes[i][k] - i);
+				cnt++;
+			}
+		}
+		return cnt > 0 ? sum / cnt : 0.0;
+	}
+
+	private static MinimizerBarnesHut newMinimizer(LayoutGraph graph, float[][] positions) {
+		return new MinimizerBarnesHut(graph.getAttrIndexes(), graph.getAttrWeights(), graph.getRepuWeights(),
+				LinLogLayout.ATTR_EXPONENT, LinLogLayout.REPU_EXPONENT, LinLogLayout.GRAV_FACTOR, positions);
+	}
+
+	private static float[][] copy(float[][] positions) {
+		float[][] result = new float[positions.length][];
+		for (int i = 0; i < positions.length; i++) result[i] = positions[i].clone();
+		return result;
+	}
+
+	private static boolean isNumber(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (!Character.isDigit(s.charAt(i))) return false;
+		}
+		return s.length() > 0;
+	}
+
+	private static Graph readGraph(String file) throws IOException {
+		Graph graph = new BasicGraph("graph");
+		new GraphMLReader(new FileInputStream(file), "graph", graph).load();
+		return graph;
+	}
+
+	/**
+	 * Creates a clustered random graph: a random tree plus extra edges,
+	 * most of them inside groups of consecutive nodes.
+	 */
+	static Graph randomGraph(int nodeNr, long seed) {
+		Random random = new Random(seed);
+		Graph graph = new BasicGraph("random");
+		for (int i = 0; i < nodeNr; i++) graph.addVertex();
+		for (int i = 1; i < nodeNr; i++) {
+			graph.addEdge(i, random.nextInt(i));
+		}
+		for (int i = 0; i < nodeNr; i++) {
+			int group = i / 50 * 50;
+			int j = random.nextInt(10) == 0 ? random.nextInt(nodeNr) : Math.min(nodeNr - 1, group + random.nextInt(50));
+			if (i != j) graph.addEdge(i, j);
+		}
+		return graph;
+	}
+}
@@ -0,0 +1,135 @@
+/* ------------------------------------------------------------------
+ * LayoutCheckpoint.java
+ *
+ * Binary checkpoint file for long running energy minimizations.
+ * ------------------------------------------------------------------
+ */
+package edu.purdue.nodelink.layout;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Checkpoint of a <code>MinimizerBarnesHut</code> run: the node positions,
+ * the last completed iteration, the total number of iterations and the
+ * final repulsion factor (which together determine the repulsion pulsing of
+ * the remaining iterations).  Since the minimizer is deterministic given
+ * its positions, a run resumed from a checkpoint ends with the same layout
+ * as an uninterrupted run.  The header also holds a key of the graph and
+ * the minimizer parameters, so that a checkpoint of a different graph or
+ * energy model with the same number of nodes is not resumed.
+ *
+ * The file is written to a temporary file first and then renamed, so a
+ * crash while saving leaves the previous checkpoint intact.
+ */
+public class LayoutCheckpoint {
+
+	private static final int MAGIC = 0x4E4C4350; // "NLCP"
+	private static final int VERSION = 2;
+
+	private File file;
+	private int step;
+
+	public LayoutCheckpoint(File file) {
+		this.file = file;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the last completed iteration of the most recently loaded checkpoint.
+	 */
+	public int getStep() {
+		return step;
+	}
+
+	public boolean exists() {
+		return file.exists();
+	}
+
+	public void delete() {
+		file.delete();
+	}
+
+	/**
+	 * Writes a checkpoint.
+	 * @param step         last completed iteration.
+	 * @param nrIterations total number of iterations of the run.
+	 * @param repuFactor   final repulsion factor of the run.
+	 * @param key          hash of the graph and the minimizer parameters.
+	 * @param pos          node positions.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public void save(int step, int nrIterations, float repuFactor, long key, float[][] pos) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(pos.length);
+			out.writeInt(nrIterations);
+			out.writeInt(step);
+			out.writeFloat(repuFactor);
+			out.writeLong(key);
+			for (int i = 0; i < pos.length; i++) {
+				out.writeFloat(pos[i][0]);
+				out.writeFloat(pos[i][1]);
+				out.writeFloat(pos[i][2]);
+			}
+		}
+		finally {
+			out.close();
+		}
+		if (file.exists() && !file.delete()) {
+			throw new IOException("Cannot replace checkpoint " + file);
+		}
+		if (!tmp.renameTo(file)) {
+			throw new IOException("Cannot rename checkpoint " + tmp + " to " + file);
+		}
+		this.step = step;
+	}
+
+	/**
+	 * Reads the checkpoint into the given positions if it belongs to a run
+	 * with the same number of nodes, iterations, repulsion factor and key.
+	 * @param nrIterations total number of iterations of the run.
+	 * @param repuFactor   final repulsion factor of the run.
+	 * @param key          hash of the graph and the minimizer parameters.
+	 * @param pos          node positions (output parameter).
+	 * @return true if the checkpoint was loaded, false if there is none or
+	 *         it does not match; <code>pos</code> is then unchanged.
+	 * @throws IOException if the file cannot be read.
+	 */
+	public boolean load(int nrIterations, float repuFactor, long key, float[][] pos) throws IOException {
+		if (!file.exists()) return false;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) return false;
+			if (in.readInt() != pos.length || in.readInt() != nrIterations) return false;
+			int savedStep = in.readInt();
+			if (in.readFloat() != repuFactor || in.readLong() != key) return false;
+			float[] buffer = new float[3 * pos.length];
+			for (int i = 0; i < buffer.length; i++) {
+				buffer[i] = in.readFloat();
+			}
+			for (int i = 0; i < pos.length; i++) {
+				pos[i][0] = buffer[3 * i];
+				pos[i][1] = buffer[3 * i + 1];
+				pos[i][2] = buffer[3 * i + 2];
+			}
+			this.step = savedStep;
+			return true;
+		}
+		finally {
+			in.close();
+		}
+	}
+}
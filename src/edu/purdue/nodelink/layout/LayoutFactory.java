@@ -0,0 +1,34 @@
+/* ------------------------------------------------------------------
+ * LayoutFactory.java
+ *
+ * Choice of the default layout for a graph.
+ * ------------------------------------------------------------------
+ */
+package edu.purdue.nodelink.layout;
+
+import edu.purdue.pivotlib.graph.Graph;
+
+/**
+ * Chooses the layout that the applications run on a graph they have read.
+ */
+public class LayoutFactory {
+
+	/** System property naming the layout profile of graphs that are not trees. */
+	public static final String PROFILE_PROPERTY = "nodelink.profile";
+
+	private LayoutFactory() {
+	}
+
+	/**
+	 * Trees get the linear-time tree layout.  Other graphs get the layout
+	 * profile named by the <code>nodelink.profile</code> system property
+	 * (preview, balanced or final), or the LinLog layout if it is not set.
+	 * @param graph the graph to lay out.
+	 * @return a new layout.
+	 */
+	public static Layout createLayout(Graph graph) {
+		if (TreeLayout.isTree(graph)) return new TreeLayout();
+		ProfileLayout.Profile profile = ProfileLayout.getProfile(System.getProperty(PROFILE_PROPERTY, ""));
+		return profile != null ? new ProfileLayout(profile) : new LinLogLayout();
+	}
+}
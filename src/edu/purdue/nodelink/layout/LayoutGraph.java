@@ -0,0 +1,293 @@
+/* ------------------------------------------------------------------
+ * LayoutGraph.java
+ *
+ * Compact, symmetric adjacency structure used as input to the layout
+ * minimizers.
+ * ------------------------------------------------------------------
+ */
+package edu.purdue.nodelink.layout;
+
+import java.awt.Dimension;
+import java.util.Arrays;
+
+import edu.purdue.nodelink.visualization.NodeLinkGraph;
+import edu.purdue.pivotlib.data.IntColumn;
+import edu.purdue.pivotlib.data.RealColumn;
+import edu.purdue.pivotlib.graph.BasicGraph;
+import edu.purdue.pivotlib.graph.Graph;
+
+/**
+ * Symmetric, weighted adjacency lists of a graph in the format expected by
+ * <code>MinimizerBarnesHut</code>.  Node <code>i</code> of the layout graph
+ * is row <code>i</code> of the vertex table, so positions computed for the
+ * layout graph can be written back by row index.
+ *
+ * The edge weights follow the original LinLog conversion: duplicate edges
+ * are collapsed, and the weight between two nodes is the number of
+ * directions (1 or 2) in which they are connected.  The repulsion weight
+ * of a node is its degree (edge repulsion).
+ */
+public class LayoutGraph {
+
+	/** Number of nodes. */
+	private final int nodeNr;
+	/** For each node, indexes of its neighbors. */
+	private final int[][] attrIndexes;
+	/** For each node, weights of the edges to its neighbors. */
+	private final float[][] attrWeights;
+	/** For each node, its repulsion weight. */
+	private final float[] repuWeights;
+
+	/**
+	 * Builds the layout graph directly from the from/to columns of a graph.
+	 * @param g the graph.
+	 */
+	public LayoutGraph(Graph g) {
+		this(g.getVertexCount(), g.getFromColumn(), g.getToColumn(), g.getEdgeCount());
+	}
+
+	/**
+	 * Builds the layout graph from the first <code>edgeNr</code> rows of
+	 * the given edge columns.
+	 * @param nodeNr     number of nodes.
+	 * @param fromColumn source node of each edge.
+	 * @param toColumn   target node of each edge.
+	 * @param edgeNr     number of edges.
+	 */
+	public LayoutGraph(int nodeNr, IntColumn fromColumn, IntColumn toColumn, int edgeNr) {
+		this.nodeNr = nodeNr;
+
+		// Copy the edge list into primitive arrays
+		int[] from = new int[edgeNr];
+		int[] to = new int[edgeNr];
+		for (int i = 0; i < edgeNr; i++) {
+			from[i] = fromColumn.getIntValueAt(i);
+			to[i] = toColumn.getIntValueAt(i);
+		}
+
+		// Out-adjacency in compressed rows, without duplicate edges
+		int[] outStart = new int[nodeNr + 1];
+		int[] outTargets = buildRows(nodeNr, from, to, edgeNr, outStart);
+
+		// Symmetric adjacency: every distinct directed edge contributes once in each direction
+		int distinct = outStart[nodeNr];
+		int[] symFrom = new int[2 * distinct];
+		int[] symTo = new int[2 * distinct];
+		int cnt = 0;
+		for (int i = 0; i < nodeNr; i++) {
+			for (int k = outStart[i]; k < outStart[i + 1]; k++) {
+				symFrom[cnt] = i; symTo[cnt] = outTargets[k]; cnt++;
+				symFrom[cnt] = outTargets[k]; symTo[cnt] = i; cnt++;
+			}
+		}
+
+		// Sorted rows with multiplicities; a run of equal neighbors is the edge weight
+		int[] symStart = new int[nodeNr + 1];
+		int[] symTargets = sortRows(nodeNr, symFrom, symTo, cnt, symStart);
+
+		attrIndexes = new int[nodeNr][];
+		attrWeights = new float[nodeNr][];
+		repuWeights = new float[nodeNr];
+		for (int i = 0; i < nodeNr; i++) {
+			int start = symStart[i], end = symStart[i + 1];
+			int unique = 0;
+			for (int k = start; k < end; k++) {
+				if (k == start || symTargets[k] != symTargets[k - 1]) unique++;
+			}
+			attrIndexes[i] = new int[unique];
+			attrWeights[i] = new float[unique];
+			int pos = -1;
+			for (int k = start; k < end; k++) {
+				if (k == start || symTargets[k] != symTargets[k - 1]) {
+					pos++;
+					attrIndexes[i][pos] = symTargets[k];
+				}
+				attrWeights[i][pos] += 1.0f;
+			}
+			repuWeights[i] = end - start;
+		}
+	}
+
+	/**
+	 * Creates a layout graph from existing adjacency lists.  The repulsion
+	 * weight of each node is set to the sum of its edge weights.
+	 * @param attrIndexes neighbor indexes of each node (not copied).
+	 * @param attrWeights edge weights of each node (not copied).
+	 */
+	public LayoutGraph(int[][] attrIndexes, float[][] attrWeights) {
+		this.nodeNr = attrIndexes.length;
+		this.attrIndexes = attrIndexes;
+		this.attrWeights = attrWeights;
+		this.repuWeights = new float[nodeNr];
+		for (int i = 0; i < nodeNr; i++) {
+			for (int k = 0; k < attrWeights[i].length; k++) {
+				repuWeights[i] += attrWeights[i][k];
+			}
+		}
+	}
+
+	/**
+	 * Creates a layout graph from existing adjacency lists and repulsion weights.
+	 * @param attrIndexes neighbor indexes of each node (not copied).
+	 * @param attrWeights edge weights of each node (not copied).
+	 * @param repuWeights repulsion weight of each node (not copied).
+	 */
+	public LayoutGraph(int[][] attrIndexes, float[][] attrWeights, float[] repuWeights) {
+		this.nodeNr = attrIndexes.length;
+		this.attrIndexes = attrIndexes;
+		this.attrWeights = attrWeights;
+		this.repuWeights = repuWeights;
+	}
+
+	/**
+	 * Groups the given edges by source node into compressed rows, with the
+	 * targets of each row sorted and duplicates removed.
+	 * @return targets of all rows; row <code>i</code> is
+	 *         <code>[start[i], start[i+1])</code>.
+	 */
+	private static int[] buildRows(int nodeNr, int[] from, int[] to, int edgeNr, int[] start) {
+		int[] targets = sortRows(nodeNr, from, to, edgeNr, start);
+		int[] uniqueStart = new int[nodeNr + 1];
+		int cnt = 0;
+		for (int i = 0; i < nodeNr; i++) {
+			uniqueStart[i] = cnt;
+			for (int k = start[i]; k < start[i + 1]; k++) {
+				if (k == start[i] || targets[k] != targets[k - 1]) {
+					targets[cnt++] = targets[k];
+				}
+			}
+		}
+		uniqueStart[nodeNr] = cnt;
+		System.arraycopy(uniqueStart, 0, start, 0, nodeNr + 1);
+		return targets;
+	}
+
+	/**
+	 * Groups the given edges by source node into compressed rows, with the
+	 * targets of each row sorted.
+	 */
+	private static int[] sortRows(int nodeNr, int[] from, int[] to, int edgeNr, int[] start) {
+		for (int i = 0; i < edgeNr; i++) start[from[i] + 1]++;
+		for (int i = 0; i < nodeNr; i++) start[i + 1] += start[i];
+		int[] fill = new int[nodeNr];
+		int[] targets = new int[edgeNr];
+		for (int i = 0; i < edgeNr; i++) {
+			targets[start[from[i]] + fill[from[i]]++] = to[i];
+		}
+		for (int i = 0; i < nodeNr; i++) {
+			Arrays.sort(targets, start[i], start[i + 1]);
+		}
+		return targets;
+	}
+
+	public int getNodeCount() {
+		return nodeNr;
+	}
+
+	public int[][] getAttrIndexes() {
+		return attrIndexes;
+	}
+
+	public float[][] getAttrWeights() {
+		return attrWeights;
+	}
+
+	public float[] getRepuWeights() {
+		return repuWeights;
+	}
+
+	/**
+	 * Scales the given layout positions to fit the given dimension and
+	 * stores them in the position columns of the graph, by row index.
+	 * @param g         the graph (row <code>i</code> receives <code>positions[i]</code>).
+	 * @param positions layout positions, one <code>float[3]</code> per row.
+	 * @param dim       target dimension.
+	 */
+	public static void writePositions(Graph g, float[][] positions, Dimension dim) {
+		RealColumn xCol = (RealColumn) g.getVertexTable().getColumn(NodeLinkGraph.X_COLUMN);
+		RealColumn yCol = (RealColumn) g.getVertexTable().getColumn(NodeLinkGraph.Y_COLUMN);
+		if (xCol == null || yCol == null) return;
+		double[] x = new double[positions.length];
+		double[] y = new double[positions.length];
+		fitPositions(positions, dim, x, y);
+		for (int i = 0; i < positions.length; i++) {
+			xCol.setValueAt(i, new Double(x[i]));
+			yCol.setValueAt(i, new Double(y[i]));
+		}
+	}
+
+	/**
+	 * Reads the position columns of the graph, by row index.
+	 * @param g the graph.
+	 * @return position of each vertex, as a <code>float[2]</code>; 0 for
+	 *         rows without a position.
+	 */
+	public static float[][] readPositions(Graph g) {
+		RealColumn xCol = (RealColumn) g.getVertexTable().getColumn(NodeLinkGraph.X_COLUMN);
+		RealColumn yCol = (RealColumn) g.getVertexTable().getColumn(NodeLinkGraph.Y_COLUMN);
+		float[][] positions = new float[g.getVertexCount()][2];
+		for (int i = 0; i < positions.length; i++) {
+			positions[i][0] = xCol != null && i < xCol.getRowCount() ? (float) xCol.getRealValueAt(i) : 0.0f;
+			positions[i][1] = yCol != null && i < yCol.getRowCount() ? (float) yCol.getRealValueAt(i) : 0.0f;
+		}
+		return positions;
+	}
+
+	/**
+	 * Copies the vertex and edge rows and the position columns of a graph,
+	 * so that a layout can write the positions of the copy while the
+	 * positions of the graph are in use.
+	 * @param g the graph.
+	 * @return a graph with the same rows, edges and positions.
+	 */
+	public static Graph copyForLayout(Graph g) {
+		Graph copy = new BasicGraph(g.getName());
+		copy.setDirected(g.isDirected());
+		for (int i = 0; i < g.getVertexCount(); i++) copy.addVertex();
+		IntColumn fromColumn = g.getFromColumn();
+		IntColumn toColumn = g.getToColumn();
+		for (int i = 0; i < g.getEdgeCount(); i++) {
+			copy.addEdge(fromColumn.getIntValueAt(i), toColumn.getIntValueAt(i));
+		}
+		String[] names = { NodeLinkGraph.X_COLUMN, NodeLinkGraph.Y_COLUMN };
+		for (int c = 0; c < names.length; c++) {
+			RealColumn column = (RealColumn) g.getVertexTable().getColumn(names[c]);
+			RealColumn copied = new RealColumn(names[c], true);
+			int rowNr = column != null ? column.getRowCount() : 0;
+			copied.ensureCapacity(g.getVertexCount());
+			for (int i = 0; i < rowNr; i++) copied.setValueAt(i, new Double(column.getRealValueAt(i)));
+			copy.getVertexTable().addColumn(copied);
+		}
+		return copy;
+	}
+
+	/**
+	 * Scales the given layout positions to fit the given dimension.
+	 * @param positions layout positions, one <code>float[2]</code> or more per node.
+	 * @param dim       target dimension.
+	 * @param x         x coordinate of each node (output parameter).
+	 * @param y         y coordinate of each node (output parameter).
+	 */
+	public static void fitPositions(float[][] positions, Dimension dim, double[] x, double[] y) {
+
+		// Find extremes of layout
+		float minX = Float.MAX_VALUE; float maxX = -Float.MAX_VALUE;
+		float minY = Float.MAX_VALUE; float maxY = -Float.MAX_VALUE;
+		for (int i = 0; i < positions.length; i++) {
+			minX = Math.min(minX, positions[i][0]);
+			maxX = Math.max(maxX, positions[i][0]);
+			minY = Math.min(minY, positions[i][1]);
+			maxY = Math.max(maxY, positions[i][1]);
+		}
+
+		float moveX = -minX;
+		float moveY = -minY;
+		float scale = Math.min((float) dim.getWidth() / (maxX - minX), (float) dim.getHeight() / (maxY-minY));
+		if (Float.isInfinite(scale) || Float.isNaN(scale)) scale = 1.0f;
+
+		for (int i = 0; i < positions.length; i++) {
+			x[i] = (positions[i][0] + moveX) * scale;
+			y[i] = (positions[i][1] + moveY) * scale;
+		}
+	}
+}
@@ -16,15 +16,9 @@
 package edu.purdue.nodelink.layout;
 
 import java.awt.Dimension;
-import java.util.Map;
-import java.util.HashMap;
-import java.util.TreeMap;
+import java.io.File;
+import java.util.Random;
 
-import edu.purdue.nodelink.visualization.NodeLinkGraph;
-import edu.purdue.pivotlib.data.IntColumn;
-import edu.purdue.pivotlib.data.RealColumn;
-import edu.purdue.pivotlib.data.StringColumn;
-import edu.purdue.pivotlib.data.Table;
 import edu.purdue.pivotlib.graph.Graph;
 
 /**
@@ -44,256 +38,180 @@ import edu.purdue.pivotlib.graph.Graph;
  * @author Andreas Noack (an@informatik.tu-cottbus.de)
  * @version 28.09.2005
  */
-public class LinLogLayout implements Layout {
+public class LinLogLayout implements ProgressiveLayout {
 	
-	private static Map<String,Map<String,Float>> convertGraph(Graph g) {
-		
-		Map<String,Map<String,Float>> result = new TreeMap<String,Map<String,Float>>();
-		Table vertexTable = g.getVertexTable();
-		StringColumn idColumn = (StringColumn) vertexTable.getColumn("id");
-		for (int i = 0; i< g.getVertexCount();i++) {
-			String source = idColumn.getStringValueAt(i);
-			if (result.get(source) == null) {
-				result.put(source, new HashMap<String,Float>());
-								
-			}
-		}
-		
-		Table edgeTable = g.getEdgeTable();
-		IntColumn fromColumn = (IntColumn) edgeTable.getColumn("from");
-		IntColumn toColumn = (IntColumn) edgeTable.getColumn("to");
-		for (int i = 0; i < g.getEdgeCount(); i++) {
-			int from = fromColumn.getIntValueAt(i);
-			int to = toColumn.getIntValueAt(i);
-			String source = idColumn.getStringValueAt(from);
-			String target = idColumn.getStringValueAt(to);
-			float weight = 1.0f;
-			result.get(source).put(target, weight);
-		}
-		return result;
-	}
+	/** Seed for the initial positions; equal seeds give equal layouts. */
+	private long seed = 0L;
+	/**
+	 * Exponents of the distance in the attraction and repulsion energy.
+	 * The layouts that refine or extend a LinLog layout minimize the same
+	 * energy.
+	 */
+	static final float ATTR_EXPONENT = 3.0f, REPU_EXPONENT = -1.0f;
+	/** Factor of the gravitation energy. */
+	static final float GRAV_FACTOR = 0.01f;
+	/** Number of minimizer iterations. */
+	private int iterations = 100;
+	/** Opening criterion of the repulsion octtree. */
+	private float openingCriterion = 2.0f;
+	/** Whether the repulsion uses the dual-tree approximation. */
+	private boolean dualTree = false;
+	/** Checkpoint file of the minimization; <code>null</code> for none. */
+	private File checkpointFile = null;
+	/** Number of iterations between two checkpoints. */
+	private int checkpointInterval = 10;
+	/** Whether the minimizer uses the adaptive step instead of the line search. */
+	private boolean adaptiveStep = false;
+	/** Vertex ordering applied to the arrays of the minimizer. */
+	private VertexOrdering.Method ordering = VertexOrdering.Method.NONE;
 	
 	/**
-	 * Returns a symmetric version of the given graph.
-	 * A graph is symmetric if and only if for each pair of nodes,
-	 * the weight of the edge from the first to the second node
-	 * equals the weight of the edge from the second to the first node.
-	 * Here the symmetric version is obtained by adding to each edge weight
-	 * the weight of the inverse edge.
+	 * Sets the seed for the random initial positions.
 	 * 
-	 * @param graph  possibly unsymmetric graph.
-	 * @return symmetric version of the given graph.
+	 * @param seed the seed (0 by default).
 	 */
-	private static Map<String,Map<String,Float>> makeSymmetricGraph
-			(Map<String,Map<String,Float>> graph) {
-		Map<String,Map<String,Float>> result = new HashMap<String,Map<String,Float>>();
-		for (String source : graph.keySet()) {
-			if (result.get(source) == null) result.put(source, new HashMap<String,Float>());
-			for (String target : graph.get(source).keySet()) {
-				float weight = graph.get(source).get(target);
-				float revWeight = 0.0f;
-				if (graph.get(target) != null && graph.get(target).get(source) != null) {
-					revWeight = graph.get(target).get(source);
-				}
-				if (result.get(source) == null) result.put(source, new HashMap<String,Float>());
-				result.get(source).put(target, weight+revWeight);
-				if (result.get(target) == null) result.put(target, new HashMap<String,Float>());
-				result.get(target).put(source, weight+revWeight);
-			}			
-		}
-		return result;
+	public void setSeed(long seed) {
+		this.seed = seed;
 	}
 	
 	/**
-	 * Returns a map from each node of the given graph 
-	 * to a unique number from 0 to (number of nodes minus 1). 
+	 * Selects the repulsion approximation of the minimizer.  The dual-tree
+	 * approximation with an opening criterion of 1.5 is about as accurate
+	 * as the default (node-by-node, 2.0) and several times faster on large graphs.
 	 * 
-	 * @param graph the graph.
-	 * @return map from each node of the given graph 
-	 *         to a unique number from 0 to (number of nodes minus 1).
+	 * @param dualTree         true for the dual-tree approximation.
+	 * @param openingCriterion opening criterion of the octtree.
 	 */
-	private static Map<String,Integer> makeIds(Map<String,Map<String,Float>> graph) {
-		Map<String,Integer> result = new HashMap<String,Integer>();
-		int cnt = 0;
-		for (String node : graph.keySet()) {
-			result.put(node, cnt);
-			cnt++;
-		}
-		return result;
+	public void setRepulsion(boolean dualTree, float openingCriterion) {
+		this.dualTree = dualTree;
+		this.openingCriterion = openingCriterion;
 	}
 	
 	/**
-	 * Returns a map from each node of the given graph 
-	 * to a random initial position in three-dimensional space. 
+	 * Enables checkpointing of the minimization to the given file, so that
+	 * an interrupted layout can be resumed by running it again.
 	 * 
-	 * @param graph the graph.
-	 * @return map from each node of the given graph 
-	 * 		   to a random initial position in three-dimensional space.
+	 * @param file     checkpoint file, or <code>null</code> to disable checkpointing.
+	 * @param interval number of iterations between two checkpoints.
 	 */
-	private static float[][] makeInitialPositions(Map<String,Map<String,Float>> graph) {
-		float[][] result = new float[graph.size()][3];
-		for (int i = 0; i < result.length; i++) {
-			result[i][0] = (float)Math.random() - 0.5f;
-			result[i][1] = (float)Math.random() - 0.5f;
-			result[i][2] = 0.0f; // set to 0.0f for 2D layouts,
-			                     // and to a random number for 3D.
-		}
-		return result;
+	public void setCheckpointFile(File file, int interval) {
+		this.checkpointFile = file;
+		this.checkpointInterval = interval;
 	}
 	
 	/**
-	 * Converts the edge weights of the given graph into the adjacency list 
-	 * format expected by <code>MinimizerBarnesHut</code>.
+	 * Selects the step strategy of the minimizer.  The adaptive step needs
+	 * at most three energy evaluations per node move instead of up to eight;
+	 * give it about 1.5 times the iterations to reach the same energy.
 	 * 
-	 * @param graph    the graph.
-	 * @param nodeToId unique ids of the graph nodes.
-	 * @return array of adjacency lists for <code>MinimizerBarnesHut</code>.
+	 * @param adaptiveStep true for the adaptive step, false for the line search.
 	 */
-	private static float[][] makeAttrWeights
-			(Map<String,Map<String,Float>> graph, Map<String,Integer> nodeToId) {
-		float[][] result = new float[graph.size()][];
-		for (String source : graph.keySet()) {
-			int sourceId = nodeToId.get(source);
-			result[sourceId] = new float[graph.get(source).size()];
-			int cnt = 0;
-			for (String target : graph.get(source).keySet()) {
-				result[sourceId][cnt] = graph.get(source).get(target);
-				cnt++;
-			}
-		}
-		return result;
+	public void setAdaptiveStep(boolean adaptiveStep) {
+		this.adaptiveStep = adaptiveStep;
 	}
 	
 	/**
-	 * Converts the edges of the given graph into the adjacency list 
-	 * format expected by <code>MinimizerBarnesHut</code>.
+	 * Selects a vertex ordering for the minimizer.  The nodes are renumbered
+	 * before the minimization so that neighbors are close in memory, and
+	 * the positions are returned in the original order.  This pays off for
+	 * graphs whose arrays do not fit in the cache.
 	 * 
-	 * @param graph    the graph.
-	 * @param nodeToId unique ids of the graph nodes.
-	 * @return array of adjacency lists for <code>MinimizerBarnesHut</code>.
+	 * @param ordering the ordering (<code>NONE</code> by default).
 	 */
-	private static int[][] makeAttrIndexes
-			(Map<String,Map<String,Float>> graph, Map<String,Integer> nodeToId) {
-		int[][] result = new int[graph.size()][];
-		for (String source : graph.keySet()) {
-			int sourceId = nodeToId.get(source);
-			result[sourceId] = new int[graph.get(source).size()];
-			int cnt = 0;
-			for (String target : graph.get(source).keySet()) {
-				result[sourceId][cnt] = nodeToId.get(target);
-				cnt++;
-			}
-		}
-		return result;
+	public void setOrdering(VertexOrdering.Method ordering) {
+		this.ordering = ordering;
 	}
-
+	
 	/**
-	 * Computes the repulsion weights of the nodes  
-	 * for <code>MinimizerBarnesHut</code>.
-	 * In the edge repulsion LinLog energy model, the repulsion weight
-	 * of each node is its degree, i.e. the sum of the weights of its edges.
+	 * Returns a random initial position in three-dimensional space
+	 * for each node. 
 	 * 
-	 * @param graph    the graph.
-	 * @param nodeToId unique ids of the graph nodes.
-	 * @return array of repulsion weights for <code>MinimizerBarnesHut</code>.
+	 * @param nodeNr number of nodes.
+	 * @param random random number generator.
+	 * @return random initial position in three-dimensional space
+	 * 		   for each node.
 	 */
-	private static float[] makeRepuWeights
-			(Map<String,Map<String,Float>> graph, Map<String,Integer> nodeToId) {
-		float[] result = new float[graph.size()];
-		for (String source : graph.keySet()) {
-			int sourceId = nodeToId.get(source);
-			result[sourceId] = 0.0f;
-			for (Float weight : graph.get(source).values()) {
-				result[sourceId] += weight;
-			}
+	private static float[][] makeInitialPositions(int nodeNr, Random random) {
+		float[][] result = new float[nodeNr][3];
+		for (int i = 0; i < result.length; i++) {
+			result[i][0] = random.nextFloat() - 0.5f;
+			result[i][1] = random.nextFloat() - 0.5f;
+			result[i][2] = 0.0f; // set to 0.0f for 2D layouts,
+			                     // and to a random number for 3D.
 		}
 		return result;
 	}
-
+	
 	/**
-	 * Converts the array of node positions from <code>MinimizerBarnesHut</code>
-	 * into a map from each node to its position.
+	 * Computes a layout of the given layout graph.
 	 * 
-	 * @param positions array of node positions.
-	 * @param nodeToId unique ids of the graph nodes.
-	 * @return map from each node to its positions.
+	 * @param graph symmetric adjacency lists of the graph.
+	 * @return position of each node, indexed like the nodes of the graph.
 	 */
-	private static Map<String,float[]> convertPositions
-			(float[][] positions, Map<String,Integer> nodeToId) {
-		Map<String,float[]> result = new HashMap<String,float[]>();
-		for (String node : nodeToId.keySet()) {
-			result.put(node, positions[nodeToId.get(node)]);
-		}
-		return result;
+	public float[][] layout(LayoutGraph graph) {
+		return layout(graph, null);
 	}
 	
 	/**
-	 * Computes a map from each node to the diameter of the circle
-	 * that represents the node in the visualization.
-	 * Here the square root of the degree (the total weight of the edges)
-	 * of the node is used as diameter, thus the area of the circle
-	 * is proportional to the degree.  
+	 * Computes a layout of the given layout graph, reporting the positions
+	 * after each iteration.
 	 * 
-	 * @param graph the graph.
-	 * @return map from each node to its diameter in the visualization.
+	 * @param graph    symmetric adjacency lists of the graph.
+	 * @param progress receives the intermediate positions; may be <code>null</code>.
+	 * @return position of each node, indexed like the nodes of the graph.
 	 */
-	@SuppressWarnings("unused")
-	private static Map<String,Float> computeDiameters(Map<String,Map<String,Float>> graph) {
-		Map<String,Float> result = new HashMap<String,Float>();
-		for (String source : graph.keySet()) {
-			float degree = 0.0f;
-			for (Float weight : graph.get(source).values()) degree += weight;
-			// degree = 100;
-			result.put(source, (float)Math.sqrt(degree));
-		}
-		return result;
-	}
-	
-	public void layout(Graph g, Dimension dim) { 		
-    	Map<String,Map<String,Float>> graph = LinLogLayout.convertGraph(g);
-    	graph = LinLogLayout.makeSymmetricGraph(graph);
-   		Map<String,Integer> nodeToId = LinLogLayout.makeIds(graph);
-   		float[][] positions = LinLogLayout.makeInitialPositions(graph);
+	public float[][] layout(LayoutGraph graph, ProgressUpdate progress) {
+   		float[][] positions = LinLogLayout.makeInitialPositions(graph.getNodeCount(), new Random(seed));
+
+   		// Renumber the nodes; the initial positions stay with their nodes
+   		int[] order = VertexOrdering.compute(ordering, graph, positions);
+   		if (order != null) {
+   			graph = VertexOrdering.permute(graph, order);
+   			positions = VertexOrdering.permute(positions, order);
+   			if (progress != null) progress = restoring(progress, order);
+   		}
 
    		// Now run the minimizer
 		MinimizerBarnesHut minimizer = new MinimizerBarnesHut(
-				LinLogLayout.makeAttrIndexes(graph, nodeToId),
-				LinLogLayout.makeAttrWeights(graph, nodeToId), 
-				LinLogLayout.makeRepuWeights(graph, nodeToId),
-				3.0f, -1.0f, 0.01f, positions);
-		minimizer.minimizeEnergy(100);
-		
-		Map<String, float[]> nodeToPosition = LinLogLayout.convertPositions(positions, nodeToId);
-		
-		// Find extremes of layout
-		float minX = Float.MAX_VALUE; float maxX = -Float.MAX_VALUE;
-		float minY = Float.MAX_VALUE; float maxY = -Float.MAX_VALUE;
-		
-		for (String node : nodeToPosition.keySet()) {
-			float[] position = nodeToPosition.get(node);
-			float diameter = 0; //nodeToDiameter.get(node);
-			minX = Math.min(minX, position[0] - diameter / 2);
-			maxX = Math.max(maxX, position[0] + diameter / 2);
-			minY = Math.min(minY, position[1] - diameter / 2);
-			maxY = Math.max(maxY, position[1] + diameter / 2);
-		}
-		
-		float moveX = -minX;
-		float moveY = -minY;
-		float scale = Math.min((float) dim.getWidth() / (maxX - minX), (float) dim.getHeight() / (maxY-minY));
-		
-		Table vertexTable = g.getVertexTable();
-		StringColumn idColumn = (StringColumn) vertexTable.getColumn("id");
-		
-		// Set the node positions 
-		RealColumn xCol = (RealColumn) g.getVertexTable().getColumn(NodeLinkGraph.X_COLUMN);
-		RealColumn yCol = (RealColumn) g.getVertexTable().getColumn(NodeLinkGraph.Y_COLUMN);
-		if (xCol == null || yCol == null) return;
-		for (int i = 0; i < g.getVertexCount(); i++) { 
-			float x = ((nodeToPosition.get(idColumn.getStringValueAt(i))[0] + moveX) * scale);
-			float y = ((nodeToPosition.get(idColumn.getStringValueAt(i))[1] + moveY) * scale);
-			xCol.setValueAt(i, new Double(x));
-			yCol.setValueAt(i, new Double(y));
+				graph.getAttrIndexes(), graph.getAttrWeights(), graph.getRepuWeights(),
+				ATTR_EXPONENT, REPU_EXPONENT, GRAV_FACTOR, positions);
+		if (checkpointFile != null) {
+			minimizer.setCheckpoint(new LayoutCheckpoint(checkpointFile), checkpointInterval);
 		}
+		minimizer.setOpeningCriterion(openingCriterion);
+		minimizer.setDualTree(dualTree);
+		minimizer.setAdaptiveStep(adaptiveStep);
+		minimizer.setProgressUpdate(progress);
+		minimizer.minimizeEnergy(iterations);
+		return order != null ? VertexOrdering.restore(positions, order) : positions;
+	}
+	
+	/**
+	 * Wraps a progress listener so that it receives the positions in the
+	 * original node order.
+	 */
+	private static ProgressUpdate restoring(final ProgressUpdate progress, final int[] order) {
+		return new ProgressUpdate() {
+			public boolean update(int step, int nrIterations, float[][] pos) {
+				return progress.update(step, nrIterations, VertexOrdering.restore(pos, order));
+			}
+		};
+	}
+	
+	public String toString() {
+		return "LinLogLayout[seed=" + seed + ",attrExponent=" + ATTR_EXPONENT + ",repuExponent=" + REPU_EXPONENT
+			+ ",gravFactor=" + GRAV_FACTOR + ",iterations=" + iterations
+			+ (dualTree || openingCriterion != 2.0f ? ",dualTree=" + dualTree + ",theta=" + openingCriterion : "")
+			+ (adaptiveStep ? ",adaptiveStep=true" : "")
+			+ (ordering != VertexOrdering.Method.NONE ? ",ordering=" + ordering : "") + "]";
+	}
+	
+	public float[][] layout(Graph g, ProgressUpdate progress) {
+		return layout(new LayoutGraph(g), progress);
+	}
+	
+	public void layout(Graph g, Dimension dim) { 		
+		float[][] positions = layout(new LayoutGraph(g));
+		LayoutGraph.writePositions(g, positions, dim);
 	}
 }
@@ -0,0 +1,107 @@
+/* ------------------------------------------------------------------
+ * LineSearchBenchmark.java
+ *
+ * Convergence measurements of the step strategies of the minimizer.
+ * ------------------------------------------------------------------
+ */
+package edu.purdue.nodelink.layout;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import edu.purdue.pivotlib.graph.BasicGraph;
+import edu.purdue.pivotlib.graph.Graph;
+import edu.purdue.pivotlib.io.GraphMLReader;
+
+/**
+ * Compares the line search of <code>MinimizerBarnesHut</code> with the
+ * adaptive step strategy.  Both start from the same random positions; the
+ * adaptive step may be given more iterations, since its iterations are
+ * cheaper.  The energy (without pulsing) is measured after every
+ * iteration, outside of the timed region.  The target
+ * energy is the one the line search reaches at the end; for each strategy
+ * the benchmark reports the time per iteration, the iteration and time at
+ * which it first gets within 0.1% of the target, and its final energy.
+ *
+ * Usage: <code>LineSearchBenchmark [nodes | file.graphml] [iterations] [adaptive iterations]</code>
+ */
+public class LineSearchBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		Graph g;
+		if (args.length > 0 && !Character.isDigit(args[0].charAt(0))) {
+			g = new BasicGraph("graph");
+			new GraphMLReader(new FileInputStream(args[0]), "graph", g).load();
+		}
+		else {
+			g = LayoutBenchmark.randomGraph(args.length > 0 ? Integer.parseInt(args[0]) : 5000, 1L);
+		}
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		int adaptiveIterations = args.length > 2 ? Integer.parseInt(args[2]) : iterations;
+		LayoutGraph graph = new LayoutGraph(g);
+		System.out.println("Nodes: " + graph.getNodeCount() + ", iterations: " + iterations + " / " + adaptiveIterations);
+
+		// Warm up both strategies, then measure
+		run(graph, false, Math.min(iterations, 10));
+		run(graph, true, Math.min(iterations, 10));
+		Trace lineSearch = run(graph, false, iterations);
+		Trace adaptive = run(graph, true, adaptiveIterations);
+
+		double target = lineSearch.energy[iterations];
+		System.out.println("strategy     iter ms   to target (it / ms)   final energy");
+		print("linesearch", lineSearch, target);
+		print("adaptive", adaptive, target);
+	}
+
+	/**
+	 * Energy after each iteration, and the minimization time up to it.
+	 */
+	private static class Trace {
+		double[] energy;
+		double[] millis;
+	}
+
+	private static Trace run(LayoutGraph graph, boolean adaptiveStep, int iterations) {
+		final Trace trace = new Trace();
+		trace.energy = new double[iterations + 1];
+		trace.millis = new double[iterations + 1];
+
+		Random random = new Random(1L);
+		float[][] positions = new float[graph.getNodeCount()][3];
+		for (int i = 0; i < positions.length; i++) {
+			positions[i][0] = random.nextFloat() - 0.5f;
+			positions[i][1] = random.nextFloat() - 0.5f;
+		}
+		final MinimizerBarnesHut minimizer = new MinimizerBarnesHut(
+				graph.getAttrIndexes(), graph.getAttrWeights(), graph.getRepuWeights(),
+				LinLogLayout.ATTR_EXPONENT, LinLogLayout.REPU_EXPONENT, LinLogLayout.GRAV_FACTOR, positions);
+		minimizer.setAdaptiveStep(adaptiveStep);
+		trace.energy[0] = minimizer.computeEnergy();
+
+		final long[] elapsed = new long[] { 0L, System.nanoTime() };
+		minimizer.setProgressUpdate(new ProgressUpdate() {
+			public boolean update(int step, int nrIterations, float[][] pos) {
+				elapsed[0] += System.nanoTime() - elapsed[1];
+				trace.millis[step] = elapsed[0] / 1e6;
+				trace.energy[step] = minimizer.computeEnergy();
+				elapsed[1] = System.nanoTime();
+				return true;
+			}
+		});
+		minimizer.minimizeEnergy(iterations);
+		return trace;
+	}
+
+	private static void print(String name, Trace trace, double target) {
+		int iterations = trace.energy.length - 1;
+		int reached = -1;
+		double tolerance = 0.001 * Math.abs(target);
+		for (int step = 1; step <= iterations && reached < 0; step++) {
+			if (trace.energy[step] <= target + tolerance) reached = step;
+		}
+		System.out.println(String.format("%-10s %9.1f   %19s   %12.1f", name, trace.millis[iterations] / iterations,
+				reached < 0 ? "not reached" : String.format("%d / %.0f", reached, trace.millis[reached]),
+				trace.energy[iterations]));
+	}
+}
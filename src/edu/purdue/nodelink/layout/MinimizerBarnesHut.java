@@ -15,6 +15,9 @@
 //Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA 
 package edu.purdue.nodelink.layout;
 
+import java.io.IOException;
+import java.util.Arrays;
+
 /**
  * Minimizer for the LinLog energy model and its generalizations,
  * for computing graph layouts.  Based on the Barnes-Hut algorithm.  
@@ -41,6 +44,19 @@ public class MinimizerBarnesHut {
 	private final int attrIndexes[][];
 	/** Exponent of the Euclidean distance in the attraction energy */
 	private final float attrExponent;
+	/** 
+	 * Attraction lists of all nodes in compressed rows, without self-loops: 
+	 * the neighbors of node <code>i</code> are <code>attrTarget[attrStart[i]]</code> 
+	 * to <code>attrTarget[attrStart[i+1]-1]</code>.
+	 */
+	private final int[] attrStart, attrTarget;
+	/** Attraction weights, in the order of <code>attrTarget</code>. */
+	private final float[] attrWeight;
+	/** 
+	 * Copy of the positions as separate coordinate arrays for the attraction 
+	 * loops.  Updated whenever a node has been moved.
+	 */
+	private final float[] posX, posY, posZ;
 	
     /** Position of the barycenter of the nodes. */
     private final float[] baryCenter = new float[3];
@@ -58,8 +74,32 @@ public class MinimizerBarnesHut {
 	private static final float[] repuStrategy 
 		= { 1.0f, 0.95f, 0.9f, 0.85f, 0.8f, 0.75f, 0.8f, 0.85f, 0.9f, 0.95f,
 			1.0f, 1.1f, 1.2f, 1.3f, 1.4f, 1.5f, 1.4f, 1.3f, 1.2f, 1.1f };
+	/** For each node, whether it may be moved; <code>null</code> if all nodes may be moved. */
+	private boolean[] movable = null;
+	/** Checkpoint written during minimization; <code>null</code> for none. */
+	private LayoutCheckpoint checkpoint = null;
+	/** Number of iterations between two checkpoints. */
+	private int checkpointInterval = 10;
+	/** 
+	 * Opening criterion: a tree cell is approximated by its barycenter if its
+	 * distance is at least <code>theta</code> times its width.
+	 */
+	private float theta = 2.0f;
+	/** Dual-tree repulsion; <code>null</code> for the node-by-node tree walk. */
+	private DualTreeRepulsion dualTree = null;
+	/** Receives the positions after each iteration; <code>null</code> for none. */
+	private ProgressUpdate progress = null;
+	/** The line search starts at <code>2^lineSearchDepth</code> times the unit step. */
+	private int lineSearchDepth = 5;
+	/** 
+	 * For each node, the factor of its next trial step in the adaptive step 
+	 * strategy; <code>null</code> for the line search.
+	 */
+	private float[] stepScale = null;
+	/** Bounds and update factors of the adaptive step. */
+	private static final float MIN_STEP = 1.0f / 32, MAX_STEP = 4.0f, 
+		STEP_GROWTH = 2.0f, STEP_SHRINK = 0.5f;
     
-//	private ProgressUpdate progress = null;
 	/**
 	 * Initializes the attributes.
 	 * @param attrIndexes  list of outneighbors for each node.
@@ -121,8 +161,121 @@ public class MinimizerBarnesHut {
 		this.gravFactor = gravFactor;
 		this.repuExponent = repuExponent;
 		this.pos = pos;
+
+		// flatten the attraction lists
+		attrStart = new int[nodeNr + 1];
+		for (int i = 0; i < nodeNr; i++) {
+			int count = 0;
+			for (int k = 0; k < attrIndexes[i].length; k++) {
+				if (attrIndexes[i][k] != i) count++;
+			}
+			attrStart[i + 1] = attrStart[i] + count;
+		}
+		attrTarget = new int[attrStart[nodeNr]];
+		attrWeight = new float[attrStart[nodeNr]];
+		for (int i = 0; i < nodeNr; i++) {
+			int cnt = attrStart[i];
+			for (int k = 0; k < attrIndexes[i].length; k++) {
+				if (attrIndexes[i][k] == i) continue;
+				attrTarget[cnt] = attrIndexes[i][k];
+				attrWeight[cnt] = attrWeights[i][k];
+				cnt++;
+			}
+		}
+		posX = new float[nodeNr];
+		posY = new float[nodeNr];
+		posZ = new float[nodeNr];
+	}
+
+
+	/**
+	 * Restricts the minimization to a subset of the nodes.  Nodes that are
+	 * not movable keep their positions but still attract and repulse the others.
+	 * Unless the dual-tree repulsion is enabled, the octtree is then built
+	 * once, and each iteration only removes and re-inserts the movable nodes.
+	 * @param movable  for each node, whether it may be moved, 
+	 *   or <code>null</code> to move all nodes (the default).
+	 *   Is not copied and not modified by this class.
+	 */
+	public void setMovable(final boolean[] movable) {
+		this.movable = movable;
+	}
+
+	/**
+	 * Enables checkpointing.  <code>minimizeEnergy</code> resumes from the
+	 * checkpoint if it belongs to a run with the same graph, parameters and
+	 * number of iterations, writes a new checkpoint every <code>interval</code>
+	 * iterations, and deletes it when the minimization is complete.
+	 * @param checkpoint  the checkpoint, or <code>null</code> to disable checkpointing.
+	 * @param interval    number of iterations between two checkpoints.
+	 */
+	public void setCheckpoint(final LayoutCheckpoint checkpoint, final int interval) {
+		this.checkpoint = checkpoint;
+		this.checkpointInterval = Math.max(1, interval);
 	}
 
+	/**
+	 * Sets the opening criterion of the octtree: cells closer than
+	 * <code>theta</code> times their width (in dual-tree mode, the sum of
+	 * both widths) are opened.  Larger values are more accurate and slower;
+	 * the default is 2.
+	 * @param theta  the opening criterion.
+	 */
+	public void setOpeningCriterion(final float theta) {
+		this.theta = theta;
+		if (dualTree != null) dualTree = new DualTreeRepulsion(repuExponent, theta);
+	}
+
+	/**
+	 * Enables the dual-tree repulsion: interactions between well separated
+	 * cells are computed once per iteration and pushed down to the nodes,
+	 * instead of walking the tree for every node and every step of the line
+	 * search.  The far field is then held fixed during an iteration.
+	 * @param enabled  true for dual-tree repulsion.
+	 */
+	public void setDualTree(final boolean enabled) {
+		this.dualTree = enabled ? new DualTreeRepulsion(repuExponent, theta) : null;
+	}
+
+	/**
+	 * Sets the depth of the line search.  The line search tries steps of
+	 * <code>2^depth</code> down to 1 times the normalized force, and up to
+	 * two doublings beyond, so each node move takes up to
+	 * <code>depth + 3</code> energy evaluations.  Smaller depths are cheaper
+	 * and give coarser steps; the default is 5.
+	 * @param depth  the depth, at least 0.
+	 */
+	public void setLineSearchDepth(final int depth) {
+		this.lineSearchDepth = Math.max(0, Math.min(depth, 20));
+	}
+
+	/**
+	 * Selects the adaptive step strategy instead of the line search.  Each
+	 * node keeps its own step factor, a trust region that grows after an
+	 * accepted step and shrinks after a rejected one.  A node move tries that
+	 * step and, if it does not lower the energy, one shorter step, so it takes
+	 * at most three energy evaluations instead of up to eight.  The step
+	 * factors are not part of checkpoints and start over when resuming.
+	 * @param enabled  true for the adaptive step, false for the line search.
+	 */
+	public void setAdaptiveStep(final boolean enabled) {
+		if (!enabled) {
+			stepScale = null;
+		} else if (stepScale == null) {
+			stepScale = new float[nodeNr];
+			Arrays.fill(stepScale, 1.0f);
+		}
+	}
+
+	/**
+	 * Sets the callback that receives the positions after each iteration.
+	 * If it returns false, the minimization stops after that iteration and
+	 * any checkpoint is kept, so that the run can be resumed.
+	 * @param progress  the callback, or <code>null</code> for none.
+	 */
+	public void setProgressUpdate(final ProgressUpdate progress) {
+		this.progress = progress;
+	}
 
 	/**
 	 * Iteratively minimizes energy using the Barnes-Hut algorithm.
@@ -138,30 +291,58 @@ public class MinimizerBarnesHut {
 		final float finalRepuFactor = computeRepuFactor();
 		repuFactor = finalRepuFactor;
 
+		// resume from a checkpoint of the same run
+		int firstStep = 1;
+		final long checkpointKey = checkpoint != null ? computeCheckpointKey() : 0;
+		if (checkpoint != null) {
+			try {
+				if (checkpoint.load(nrIterations, finalRepuFactor, checkpointKey, pos)) {
+					firstStep = checkpoint.getStep() + 1;
+				}
+			} catch (IOException e) {
+				System.err.println("Cannot read checkpoint " + checkpoint.getFile() + ": " + e);
+			}
+		}
+
+		for (int i = 0; i < nodeNr; i++) updatePosition(i);
+		int moveCount = 0;
+		final int[] moving = new int[nodeNr];
+		for (int i = 0; i < nodeNr; i++) {
+			if (movable == null || movable[i]) moving[moveCount++] = i;
+		}
+
 		// compute initial energy
 		computeBaryCenter();
 		OctTree octTree = buildOctTree(); // for efficient repulsion computation
+		if (dualTree != null) dualTree.compute(octTree, pos);
 //		printStatistics(octTree);
 		float energySum = 0.0f;
-		for (int i = 0; i < nodeNr; i++) energySum += getEnergy(i, octTree);
+		for (int k = 0; k < moveCount; k++) energySum += getEnergy(moving[k], octTree);
+
+		// in a restricted minimization, the tree is kept and only the
+		// movable nodes are re-inserted, at the cells of these positions
+		final boolean keepTree = movable != null && dualTree == null && octTree != null;
+		final float[][] treePos = keepTree ? new float[nodeNr][] : null;
+		if (keepTree) {
+			for (int k = 0; k < moveCount; k++) treePos[moving[k]] = pos[moving[k]].clone();
+		}
 //		System.out.println("initial energy " + energySum);
 
 		// minimize energy
 		final float[] oldPos = new float[3];
 		final float[] bestDir = new float[3];
-		for (int step = 1; step <= nrIterations; step++) {
-
-//            if( progress != null ) {
-//                progress.update( );
-////                try {
-////                    Thread.sleep(25);
-////                } catch ( InterruptedException e ) {
-////                    e.printStackTrace();
-////                }
-//            }
-            
-            computeBaryCenter();
-			octTree = buildOctTree();
+		for (int step = firstStep; step <= nrIterations; step++) {
+
+			if (keepTree && reinsertNodes(octTree, moving, moveCount, treePos)) {
+				System.arraycopy(octTree.position, 0, baryCenter, 0, 3);
+			} else {
+				computeBaryCenter();
+				octTree = buildOctTree();
+				for (int k = 0; keepTree && k < moveCount; k++) {
+					System.arraycopy(pos[moving[k]], 0, treePos[moving[k]], 0, 3);
+				}
+			}
+			if (dualTree != null) dualTree.compute(octTree, pos);
 
 			// except in the last 20 iterations, vary the repulsion factor
 			// according to repuStrategy
@@ -173,7 +354,8 @@ public class MinimizerBarnesHut {
 
 			// move each node
 			energySum = 0.0f;
-			for (int i = 0; i < nodeNr; i++) {
+			for (int k = 0; k < moveCount; k++) {
+				final int i = moving[k];
 				final float oldEnergy = getEnergy(i, octTree);
 					
 				// compute direction of the move of the node
@@ -181,10 +363,15 @@ public class MinimizerBarnesHut {
 
 				// line search: compute length of the move
 				oldPos[0] = pos[i][0]; oldPos[1] = pos[i][1]; oldPos[2] = pos[i][2]; 
+				if (stepScale != null) {
+					energySum += adaptiveStep(i, octTree, oldEnergy, oldPos, bestDir);
+					continue;
+				}
 				float bestEnergy = oldEnergy;
 				int bestMultiple = 0;
-				bestDir[0] /= 32; bestDir[1] /= 32; bestDir[2] /= 32;
-				for (int multiple = 32;
+				final int maxMultiple = 1 << lineSearchDepth;
+				bestDir[0] /= maxMultiple; bestDir[1] /= maxMultiple; bestDir[2] /= maxMultiple;
+				for (int multiple = maxMultiple;
 					 multiple >= 1 && (bestMultiple==0 || bestMultiple/2==multiple);
 					 multiple /= 2) {
 					pos[i][0] = oldPos[0] + bestDir[0] * multiple;
@@ -197,8 +384,8 @@ public class MinimizerBarnesHut {
 					}
 				}
 
-				for (int multiple = 64; 
-					 multiple <= 128 && bestMultiple == multiple/2; 
+				for (int multiple = 2*maxMultiple; 
+					 multiple <= 4*maxMultiple && bestMultiple == multiple/2; 
 					 multiple *= 2) {
 					pos[i][0] = oldPos[0] + bestDir[0] * multiple;
 					pos[i][1] = oldPos[1] + bestDir[1] * multiple; 
@@ -215,14 +402,199 @@ public class MinimizerBarnesHut {
 				pos[i][2] = oldPos[2] + bestDir[2] * bestMultiple;
 				if (bestMultiple > 0) {
 					octTree.moveNode(oldPos, pos[i], repuWeights[i]);
+					updatePosition(i);
 				}
 				energySum += bestEnergy;
 			}
+
+			if (checkpoint != null && step % checkpointInterval == 0 && step < nrIterations) {
+				try {
+					checkpoint.save(step, nrIterations, finalRepuFactor, checkpointKey, pos);
+				} catch (IOException e) {
+					System.err.println("Cannot write checkpoint " + checkpoint.getFile() + ": " + e);
+				}
+			}
 //			System.out.println("iteration " + step 
 //			  + "   energy " + energySum
 //			  + "   repulsion " + repuFactor);
+			if (progress != null && !progress.update(step, nrIterations, pos)) {
+				return;
+			}
 		}
 //		printStatistics(octTree);
+		if (checkpoint != null) checkpoint.delete();
+	}
+
+	/**
+	 * Moves the given nodes to the cells of their current positions in the
+	 * octtree.  Since the last insertion, <code>moveNode</code> has kept
+	 * the barycenters up to date but not the cells.  All nodes are removed
+	 * before any is added, since adding a node may push a leaf down to the
+	 * cell of its current position, where it could no longer be found.
+	 * 
+	 * The tree must be rebuilt instead if a node has left the cuboid of the
+	 * root, if a node is not found (it was dropped for exceeding the depth
+	 * limit), or if the tree would become empty.  The tree is then left
+	 * partly updated.
+	 * @param octTree  octtree containing all nodes
+	 * @param nodes    nodes to re-insert, in the first <code>count</code> elements
+	 * @param treePos  for each of these nodes, the position at which it was
+	 *   inserted; updated to the current position
+	 * @return whether the nodes were re-inserted; otherwise the tree must be rebuilt
+	 */
+	private boolean reinsertNodes(final OctTree octTree, final int[] nodes, final int count, 
+			final float[][] treePos) {
+		if (octTree.index >= 0) return false; // a single leaf is as cheap to rebuild
+		for (int k = 0; k < count; k++) {
+			final int i = nodes[k];
+			if (repuWeights[i] == 0.0f) continue;
+			for (int d = 0; d < 3; d++) {
+				if (pos[i][d] < octTree.minPos[d] || pos[i][d] > octTree.maxPos[d]) return false;
+			}
+		}
+		for (int k = 0; k < count; k++) {
+			final int i = nodes[k];
+			if (repuWeights[i] == 0.0f) continue;
+			if (octTree.removeNode(i, treePos[i], pos[i], repuWeights[i]) != OctTree.REMOVED) return false;
+		}
+		for (int k = 0; k < count; k++) {
+			final int i = nodes[k];
+			if (repuWeights[i] == 0.0f) continue;
+			octTree.addNode(i, pos[i], repuWeights[i], 0);
+			treePos[i][0] = pos[i][0]; treePos[i][1] = pos[i][1]; treePos[i][2] = pos[i][2];
+		}
+		return true;
+	}
+
+	/**
+	 * Moves a node with the adaptive step strategy: tries the node's current
+	 * step factor and, if that does not lower its energy, a shorter step.
+	 * The factor grows after a successful first trial and shrinks otherwise.
+	 * @param index   index of the node
+	 * @param octTree repulsing octtree
+	 * @param oldEnergy energy of the node at <code>oldPos</code>
+	 * @param oldPos  current position of the node
+	 * @param dir     normalized direction of the move
+	 * @return energy of the node after the move
+	 */
+	private float adaptiveStep(final int index, final OctTree octTree, 
+			final float oldEnergy, final float[] oldPos, final float[] dir) {
+		float scale = stepScale[index];
+		for (int trial = 0; trial < 2; trial++) {
+			pos[index][0] = oldPos[0] + dir[0] * scale;
+			pos[index][1] = oldPos[1] + dir[1] * scale;
+			pos[index][2] = oldPos[2] + dir[2] * scale;
+			final float curEnergy = getEnergy(index, octTree);
+			if (curEnergy < oldEnergy) {
+				stepScale[index] = (trial == 0) 
+					? Math.min(scale * STEP_GROWTH, MAX_STEP) : Math.max(scale, MIN_STEP);
+				octTree.moveNode(oldPos, pos[index], repuWeights[index]);
+				updatePosition(index);
+				return curEnergy;
+			}
+			scale *= STEP_SHRINK;
+		}
+		stepScale[index] = Math.max(scale, MIN_STEP);
+		pos[index][0] = oldPos[0]; pos[index][1] = oldPos[1]; pos[index][2] = oldPos[2];
+		return oldEnergy;
+	}
+
+	/**
+	 * Computes the total energy at the current positions, with the repulsion
+	 * factor of the final iterations (without pulsing).
+	 * @return sum of the energies of all nodes.
+	 */
+	double computeEnergy() {
+		final float oldRepuFactor = repuFactor;
+		repuFactor = computeRepuFactor();
+		for (int i = 0; i < nodeNr; i++) updatePosition(i);
+		computeBaryCenter();
+		OctTree octTree = buildOctTree();
+		if (dualTree != null) dualTree.compute(octTree, pos);
+		double energySum = 0.0;
+		for (int i = 0; i < nodeNr; i++) energySum += getEnergy(i, octTree);
+		repuFactor = oldRepuFactor;
+		return energySum;
+	}
+
+	/**
+	 * Computes the repulsion force on each node at the current positions
+	 * with the current approximation settings.
+	 * @return repulsion force of each node.
+	 */
+	float[][] computeRepulsionForces() {
+		repuFactor = computeRepuFactor();
+		OctTree octTree = buildOctTree();
+		if (dualTree != null) dualTree.compute(octTree, pos);
+		float[][] forces = new float[nodeNr][3];
+		for (int i = 0; i < nodeNr; i++) {
+			if (dualTree != null) {
+				dualTree.addDirection(i, pos, forces[i]);
+				for (int j = 0; j < 3; j++) forces[i][j] *= repuFactor * repuWeights[i];
+			} else {
+				addRepulsionDir(i, octTree, forces[i]);
+			}
+		}
+		return forces;
+	}
+
+	/**
+	 * Computes the exact repulsion force on each node at the current
+	 * positions, with O(n^2) node pairs.
+	 * @return repulsion force of each node.
+	 */
+	float[][] computeExactRepulsionForces() {
+		repuFactor = computeRepuFactor();
+		float[][] forces = new float[nodeNr][3];
+		for (int i = 0; i < nodeNr; i++) {
+			if (repuWeights[i] == 0.0f) continue;
+			double fx = 0.0, fy = 0.0, fz = 0.0;
+			for (int k = 0; k < nodeNr; k++) {
+				if (k == i || repuWeights[k] == 0.0f) continue;
+				float dist = getDist(pos[i], pos[k]);
+				if (dist == 0.0f) continue;
+				double tmp = repuWeights[k] * power(dist, repuExponent-2);
+				fx += (pos[i][0] - pos[k][0]) * tmp;
+				fy += (pos[i][1] - pos[k][1]) * tmp;
+				fz += (pos[i][2] - pos[k][2]) * tmp;
+			}
+			forces[i][0] = (float) (fx * repuFactor * repuWeights[i]);
+			forces[i][1] = (float) (fy * repuFactor * repuWeights[i]);
+			forces[i][2] = (float) (fz * repuFactor * repuWeights[i]);
+		}
+		return forces;
+	}
+
+	/**
+	 * Computes the factor by which the current positions must be scaled,
+	 * about any point, to minimize the total energy.  With attraction
+	 * <code>A</code>, gravitation <code>G</code> and pairwise repulsion
+	 * <code>R</code> measured at the current positions, scaling by
+	 * <code>s</code> gives the energy
+	 * <code>s^a (A + G) / a - repuFactor s^r R / r</code> (with the
+	 * logarithm for <code>r = 0</code>), which is minimal at
+	 * <code>s^(a - r) = repuFactor R / (A + G)</code>.  The repulsion is
+	 * approximated with the octtree.
+	 * @return the scale factor, or 1 if the positions have no attraction or repulsion.
+	 */
+	float computeEquilibriumScale() {
+		repuFactor = computeRepuFactor();
+		for (int i = 0; i < nodeNr; i++) updatePosition(i);
+		computeBaryCenter();
+		OctTree octTree = buildOctTree();
+		double attraction = 0.0, repulsion = 0.0, repuSum = 0.0, repuSquares = 0.0;
+		for (int i = 0; i < nodeNr; i++) {
+			// each edge and each pair is counted at both of its nodes
+			attraction += getAttractionEnergy(i) * attrExponent / 2 + getGravitationEnergy(i) * attrExponent;
+			if (repuExponent != 0.0f) {
+				repulsion += getRepulsionEnergy(i, octTree) * -repuExponent / (2 * repuFactor);
+			}
+			repuSum += repuWeights[i];
+			repuSquares += repuWeights[i] * repuWeights[i];
+		}
+		if (repuExponent == 0.0f) repulsion = (repuSum * repuSum - repuSquares) / 2;
+		if (attraction <= 0.0 || repulsion <= 0.0) return 1.0f;
+		return (float)Math.pow(repuFactor * repulsion / attraction, 1.0 / (attrExponent - repuExponent));
 	}
 
 	/**
@@ -247,6 +619,32 @@ public class MinimizerBarnesHut {
 		return 1.0f;
     }
 
+	/**
+	 * Returns a hash of everything besides the positions that determines
+	 * the result of a run: the attraction lists and weights, the repulsion
+	 * weights, the movable nodes and the energy model and search parameters.
+	 */
+	private long computeCheckpointKey() {
+		long key = nodeNr;
+		for (int i = 0; i < nodeNr; i++) {
+			key = 31 * key + attrIndexes[i].length;
+			for (int k = 0; k < attrIndexes[i].length; k++) {
+				key = 31 * key + attrIndexes[i][k];
+				key = 31 * key + Float.floatToIntBits(attrWeights[i][k]);
+			}
+			key = 31 * key + Float.floatToIntBits(repuWeights[i]);
+			key = 31 * key + (movable == null || movable[i] ? 1 : 0);
+		}
+		key = 31 * key + Float.floatToIntBits(attrExponent);
+		key = 31 * key + Float.floatToIntBits(repuExponent);
+		key = 31 * key + Float.floatToIntBits(gravFactor);
+		key = 31 * key + Float.floatToIntBits(theta);
+		key = 31 * key + (dualTree != null ? 1 : 0);
+		key = 31 * key + lineSearchDepth;
+		key = 31 * key + (stepScale != null ? 1 : 0);
+		return key;
+	}
+
 
 	/**
 	 * Returns the Euclidean distance between the positions pos1 and pos2.
@@ -274,7 +672,7 @@ public class MinimizerBarnesHut {
 		}
 		
 		float dist = getDist(pos[index], tree.position);
-		if (tree.index < 0 && dist < 2.0f * tree.width()) {
+		if (tree.index < 0 && dist < theta * tree.width()) {
 			float energy = 0.0f;
 			for (int i = 0; i < tree.children.length; i++) {
 				energy += getRepulsionEnergy(index, tree.children[i]);
@@ -286,7 +684,7 @@ public class MinimizerBarnesHut {
 			return -repuFactor * repuWeights[index] * tree.weight * (float)Math.log(dist);
 		} else {
 			return -repuFactor * repuWeights[index] * tree.weight
-				* (float)Math.pow(dist, repuExponent) / repuExponent;
+				* power(dist, repuExponent) / repuExponent;
 		}
 	}
 
@@ -296,14 +694,15 @@ public class MinimizerBarnesHut {
 	 * @return attraction energy of the node with the specified index
 	 */
 	private float getAttractionEnergy(final int index) {
+		final float x = pos[index][0], y = pos[index][1], z = pos[index][2];
 		float energy = 0.0f;
-		for (int i = 0; i < attrIndexes[index].length; i++) {
-			if (attrIndexes[index][i] != index) {
-				float dist = getDist(pos[attrIndexes[index][i]], pos[index]);
-				energy += attrWeights[index][i] * Math.pow(dist, attrExponent) / attrExponent;
-			}
+		for (int k = attrStart[index]; k < attrStart[index+1]; k++) {
+			final int j = attrTarget[k];
+			final float xDiff = posX[j] - x, yDiff = posY[j] - y, zDiff = posZ[j] - z;
+			final float dist = (float)Math.sqrt(xDiff*xDiff + yDiff*yDiff + zDiff*zDiff);
+			energy += attrWeight[k] * power(dist, attrExponent);
 		}
-		return energy;
+		return energy / attrExponent;
 	}
 	
 	/** 
@@ -313,7 +712,7 @@ public class MinimizerBarnesHut {
 	 */
 	private float getGravitationEnergy(final int index) {
         float dist = getDist(pos[index], baryCenter);
-        return gravFactor * repuFactor * repuWeights[index] * (float)Math.pow(dist, attrExponent) / attrExponent;
+        return gravFactor * repuFactor * repuWeights[index] * power(dist, attrExponent) / attrExponent;
 	}
 
 	/**
@@ -322,7 +721,10 @@ public class MinimizerBarnesHut {
 	 * @return  energy of the node with the specified index
  	 */
     private float getEnergy(final int index, final OctTree octTree) {
-		return getRepulsionEnergy(index, octTree)
+		float repulsion = (dualTree != null)
+			? repuFactor * repuWeights[index] * dualTree.getPotential(index, pos[index], pos)
+			: getRepulsionEnergy(index, octTree);
+		return repulsion
 			+ getAttractionEnergy(index) + getGravitationEnergy(index);
     }
 
@@ -342,7 +744,7 @@ public class MinimizerBarnesHut {
 		}
 		
 		float dist = getDist(pos[index], tree.position);
-		if (tree.index < 0 && dist < 2.0f * tree.width()) {
+		if (tree.index < 0 && dist < theta * tree.width()) {
 			float dir2 = 0.0f;
 			for (int i = 0; i < tree.children.length; i++) {
 				dir2 += addRepulsionDir(index, tree.children[i], dir);
@@ -352,7 +754,7 @@ public class MinimizerBarnesHut {
 
 		if (dist != 0.0) {
 			float tmp =   repuFactor * repuWeights[index] * tree.weight 
-					    * (float)Math.pow(dist, repuExponent-2);
+					    * power(dist, repuExponent-2);
 			for (int j = 0; j < 3; j++) {
 				dir[j] -= (tree.position[j] - pos[index][j]) * tmp;
 			}
@@ -370,18 +772,19 @@ public class MinimizerBarnesHut {
 	 * @return approximate second derivation of the attraction energy
 	 */
 	private float addAttractionDir(final int index, final float[] dir) {
-		float dir2 = 0.0f;
-		for (int i = 0; i < attrIndexes[index].length; i++) {
-			if (attrIndexes[index][i] == index) continue;
-			float dist = getDist(pos[attrIndexes[index][i]], pos[index]);
+		final float x = pos[index][0], y = pos[index][1], z = pos[index][2];
+		float dirX = 0.0f, dirY = 0.0f, dirZ = 0.0f, tmpSum = 0.0f;
+		for (int k = attrStart[index]; k < attrStart[index+1]; k++) {
+			final int j = attrTarget[k];
+			final float xDiff = posX[j] - x, yDiff = posY[j] - y, zDiff = posZ[j] - z;
+			final float dist = (float)Math.sqrt(xDiff*xDiff + yDiff*yDiff + zDiff*zDiff);
 			if (dist == 0.0f) continue;
-			float tmp = attrWeights[index][i] * (float)Math.pow(dist, attrExponent-2);
-			dir2 += tmp * Math.abs(attrExponent-1);
-			for (int j = 0; j < 3; j++) {
-				dir[j] += (pos[attrIndexes[index][i]][j] - pos[index][j]) * tmp;
-			}
+			final float tmp = attrWeight[k] * power(dist, attrExponent-2);
+			tmpSum += tmp;
+			dirX += xDiff * tmp; dirY += yDiff * tmp; dirZ += zDiff * tmp;
 		}
-		return dir2;
+		dir[0] += dirX; dir[1] += dirY; dir[2] += dirZ;
+		return tmpSum * Math.abs(attrExponent-1);
 	}
 
 	/**
@@ -393,7 +796,7 @@ public class MinimizerBarnesHut {
 	 */
 	private float addGravitationDir(final int index, final float[] dir) {
         float dist = getDist(pos[index], baryCenter);
-		float tmp = gravFactor * repuFactor * repuWeights[index] * (float)Math.pow(dist, attrExponent-2);
+		float tmp = gravFactor * repuFactor * repuWeights[index] * power(dist, attrExponent-2);
         for (int j = 0; j < 3; j++) {
             dir[j] += (baryCenter[j] - pos[index][j]) * tmp;
         }
@@ -409,7 +812,15 @@ public class MinimizerBarnesHut {
     private void getDirection(final int index, final OctTree octTree, final float[] dir) {
 		dir[0] = 0.0f; dir[1] = 0.0f; dir[2] = 0.0f;
 
-		float dir2 = addRepulsionDir(index, octTree, dir);
+		float dir2;
+		if (dualTree != null) {
+			dir2 = dualTree.addDirection(index, pos, dir) * repuFactor * repuWeights[index];
+			dir[0] *= repuFactor * repuWeights[index];
+			dir[1] *= repuFactor * repuWeights[index];
+			dir[2] *= repuFactor * repuWeights[index];
+		} else {
+			dir2 = addRepulsionDir(index, octTree, dir);
+		}
 		dir2 += addAttractionDir(index, dir);
 		dir2 += addGravitationDir(index, dir);
 
@@ -430,6 +841,32 @@ public class MinimizerBarnesHut {
     }    
 
 
+	/**
+	 * Copies the position of the specified node to the coordinate arrays.
+	 * @param index index of the node
+	 */
+	private void updatePosition(final int index) {
+		posX[index] = pos[index][0];
+		posY[index] = pos[index][1];
+		posZ[index] = pos[index][2];
+	}
+
+	/**
+	 * Returns <code>base</code> raised to <code>exponent</code>, avoiding
+	 * <code>Math.pow</code> for the small integer exponents of the common
+	 * energy models.
+	 */
+	static float power(final float base, final float exponent) {
+		if (exponent == 1.0f) return base;
+		if (exponent == 2.0f) return base * base;
+		if (exponent == 3.0f) return base * base * base;
+		if (exponent == 0.0f) return 1.0f;
+		if (exponent == -1.0f) return 1.0f / base;
+		if (exponent == -2.0f) return 1.0f / (base * base);
+		if (exponent == -3.0f) return 1.0f / (base * base * base);
+		return (float)Math.pow(base, exponent);
+	}
+
 	/**
 	 * Builds the octtree.
 	 */
@@ -523,6 +960,13 @@ public class MinimizerBarnesHut {
 	 * @author Andreas Noack
 	 */
 	static class OctTree {
+		/** Result of <code>removeNode</code>: the graph node is not in this tree node. */
+		static final int NOT_FOUND = 0;
+		/** Result of <code>removeNode</code>: the graph node was removed. */
+		static final int REMOVED = 1;
+		/** Result of <code>removeNode</code>: the graph node was removed, and this tree node is now empty. */
+		static final int EMPTY = 2;
+		
 		/** For leafs, the unique index of the graph node; for non-leafs -1. */
 		protected int index;
 		/** Children of this tree node. */
@@ -639,6 +1083,51 @@ public class MinimizerBarnesHut {
 			}
 		}
 
+		/**
+		 * Removes a graph node from the octtree.
+		 * 
+		 * @param nodeIndex  unique index of the graph node
+		 * @param cellPos    position at which the graph node was added, 
+		 *                   which determines its cells
+		 * @param nodePos    current position of the graph node, as last
+		 *                   passed to <code>moveNode</code>
+		 * @param nodeWeight weight of the graph node
+		 * @return <code>NOT_FOUND</code>, leaving the tree unchanged; 
+		 *   <code>REMOVED</code>; or <code>EMPTY</code>, after which the parent must drop this tree node
+		 */
+		public int removeNode(int nodeIndex, float[] cellPos, float[] nodePos, float nodeWeight) {
+			if (index >= 0) {
+				if (index != nodeIndex) return NOT_FOUND;
+				weight = 0.0f;
+				return EMPTY;
+			}
+			
+			int childIndex = 0;
+			for (int i = 0; i < 3; i++) {
+				if (cellPos[i] > (minPos[i]+maxPos[i])/2) {
+					childIndex += 1 << i;
+				}
+			}
+			if (children[childIndex] == null) return NOT_FOUND;
+			int result = children[childIndex].removeNode(nodeIndex, cellPos, nodePos, nodeWeight);
+			if (result == NOT_FOUND) return NOT_FOUND;
+			if (result == EMPTY) children[childIndex] = null;
+			
+			boolean empty = true;
+			for (int i = 0; i < children.length; i++) {
+				if (children[i] != null) empty = false;
+			}
+			if (empty) {
+				weight = 0.0f;
+				return EMPTY;
+			}
+			for (int i = 0; i < 3; i++) {
+				position[i] = (position[i]*weight - nodePos[i]*nodeWeight) / (weight-nodeWeight);
+			}
+			weight -= nodeWeight;
+			return REMOVED;
+		}
+
 		/**
 		 * Returns the maximum extension of the octtree.
 		 * 
@@ -656,4 +1145,4 @@ public class MinimizerBarnesHut {
 
 	}
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,272 @@
+/* ------------------------------------------------------------------
+ * MinimizerForceAtlas2.java
+ *
+ * Force-directed minimizer with adaptive speeds, after ForceAtlas2.
+ * ------------------------------------------------------------------
+ */
+package edu.purdue.nodelink.layout;
+
+/**
+ * Force-directed minimizer with the adaptive speeds of ForceAtlas2
+ * (Jacomy et al., PLoS ONE 2014).  Every iteration computes the force on
+ * each node once and moves the node along it, without a line search.  The
+ * length of the move is controlled by the swinging of the node (how much
+ * its force changed direction since the last iteration) and by a global
+ * speed derived from the total swinging and traction of the graph.
+ *
+ * The mass of a node is its repulsion weight plus one.  Repulsion is
+ * <code>scalingRatio * m1 * m2 / d</code> and is approximated with the
+ * octtree of <code>MinimizerBarnesHut</code>; attraction is
+ * <code>w * d</code>, or <code>w * log(1 + d)</code> in LinLog mode; gravity
+ * pulls every node towards the origin with <code>gravity * m</code>.
+ */
+public class MinimizerForceAtlas2 {
+	/** Number of nodes. */
+	private final int nodeNr;
+	/** Position in 3-dimensional space for each node. */
+	private final float pos[][];
+	/** For each node, indexes of its neighbors. */
+	private final int attrIndexes[][];
+	/** For each node, weights of the edges to its neighbors. */
+	private final float attrWeights[][];
+	/** Mass of each node. */
+	private final float mass[];
+
+	/** Force on each node in the current and in the previous iteration. */
+	private float force[][], oldForce[][];
+	/** Global speed and its efficiency, adapted in every iteration. */
+	private float speed = 1.0f, speedEfficiency = 1.0f;
+
+	/** Factor of the repulsion. */
+	private float scalingRatio = 2.0f;
+	/** Factor of the gravity. */
+	private float gravity = 1.0f;
+	/** Logarithmic attraction. */
+	private boolean linLog = false;
+	/** Tolerance for swinging; higher values give faster and less precise layouts. */
+	private float jitterTolerance = 1.0f;
+	/**
+	 * Opening criterion: a tree cell is approximated by its barycenter if its
+	 * distance is at least <code>theta</code> times its width.
+	 */
+	private float theta = 1.0f;
+	/** Receives the positions after each iteration; <code>null</code> for none. */
+	private ProgressUpdate progress = null;
+
+	/**
+	 * Initializes the attributes.
+	 * @param attrIndexes  symmetric neighbor lists of the nodes
+	 *   (not copied and not modified by this class).
+	 * @param attrWeights  edge weights, indexed like <code>attrIndexes</code>
+	 *   (not copied and not modified by this class).
+	 * @param repuWeights  repulsion weight of each node, usually its degree.
+	 * @param pos  position matrix, <code>float[3]</code> per node.  Is not
+	 *   copied and serves as input and output of <code>minimizeEnergy</code>.
+	 */
+	public MinimizerForceAtlas2(final int[][] attrIndexes, final float[][] attrWeights,
+			final float[] repuWeights, final float[][] pos) {
+		this.nodeNr = attrIndexes.length;
+		this.attrIndexes = attrIndexes;
+		this.attrWeights = attrWeights;
+		this.pos = pos;
+		this.mass = new float[nodeNr];
+		for (int i = 0; i < nodeNr; i++) mass[i] = repuWeights[i] + 1.0f;
+	}
+
+	/**
+	 * Sets the factor of the repulsion; larger values spread the layout.
+	 * @param scalingRatio  the factor (2 by default).
+	 */
+	public void setScalingRatio(final float scalingRatio) {
+		this.scalingRatio = scalingRatio;
+	}
+
+	/**
+	 * Sets the factor of the gravity towards the origin.
+	 * @param gravity  the factor (1 by default).
+	 */
+	public void setGravity(final float gravity) {
+		this.gravity = gravity;
+	}
+
+	/**
+	 * Selects logarithmic attraction, which gives tighter clusters.
+	 * @param linLog  true for LinLog mode.
+	 */
+	public void setLinLogMode(final boolean linLog) {
+		this.linLog = linLog;
+	}
+
+	/**
+	 * Sets the tolerance for swinging nodes.
+	 * @param jitterTolerance  the tolerance (1 by default).
+	 */
+	public void setJitterTolerance(final float jitterTolerance) {
+		this.jitterTolerance = jitterTolerance;
+	}
+
+	/**
+	 * Sets the opening criterion of the octtree; see
+	 * <code>MinimizerBarnesHut.setOpeningCriterion</code>.
+	 * @param theta  the opening criterion (1 by default).
+	 */
+	public void setOpeningCriterion(final float theta) {
+		this.theta = theta;
+	}
+
+	/**
+	 * Sets the callback that receives the positions after each iteration.
+	 * If it returns false, the minimization stops after that iteration.
+	 * @param progress  the callback, or <code>null</code> for none.
+	 */
+	public void setProgressUpdate(final ProgressUpdate progress) {
+		this.progress = progress;
+	}
+
+	/**
+	 * Moves the nodes for the given number of iterations, starting from the
+	 * positions in <code>pos</code>.
+	 * @param nrIterations  number of iterations.
+	 */
+	public void minimizeEnergy(final int nrIterations) {
+		if (nodeNr <= 1) return;
+		force = new float[nodeNr][3];
+		oldForce = new float[nodeNr][3];
+		speed = 1.0f;
+		speedEfficiency = 1.0f;
+
+		for (int step = 1; step <= nrIterations; step++) {
+			float[][] tmp = oldForce; oldForce = force; force = tmp;
+			computeForces();
+			adjustSpeed();
+
+			// Move each node according to its swinging
+			for (int i = 0; i < nodeNr; i++) {
+				final float swinging = mass[i] * distance(force[i], oldForce[i], -1.0f);
+				final float factor = speed / (1.0f + (float) Math.sqrt(speed * swinging));
+				pos[i][0] += force[i][0] * factor;
+				pos[i][1] += force[i][1] * factor;
+				pos[i][2] += force[i][2] * factor;
+			}
+
+			if (progress != null && !progress.update(step, nrIterations, pos)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Computes the repulsion, attraction and gravity forces on all nodes.
+	 */
+	private void computeForces() {
+		MinimizerBarnesHut.OctTree octTree = buildOctTree();
+		for (int i = 0; i < nodeNr; i++) {
+			final float[] f = force[i];
+			f[0] = 0.0f; f[1] = 0.0f; f[2] = 0.0f;
+			addRepulsion(i, octTree, f);
+
+			// Attraction
+			final float x = pos[i][0], y = pos[i][1], z = pos[i][2];
+			for (int k = 0; k < attrIndexes[i].length; k++) {
+				final int j = attrIndexes[i][k];
+				if (j == i) continue;
+				final float dx = pos[j][0] - x, dy = pos[j][1] - y, dz = pos[j][2] - z;
+				float factor = attrWeights[i][k];
+				if (linLog) {
+					final float dist = (float) Math.sqrt(dx*dx + dy*dy + dz*dz);
+					if (dist == 0.0f) continue;
+					factor *= (float) Math.log(1.0f + dist) / dist;
+				}
+				f[0] += dx * factor; f[1] += dy * factor; f[2] += dz * factor;
+			}
+
+			// Gravity
+			final float dist = (float) Math.sqrt(x*x + y*y + z*z);
+			if (dist > 0.0f) {
+				final float factor = gravity * mass[i] / dist;
+				f[0] -= x * factor; f[1] -= y * factor; f[2] -= z * factor;
+			}
+		}
+	}
+
+	/**
+	 * Adds the repulsion from the nodes in the tree to the force on a node.
+	 */
+	private void addRepulsion(final int index, final MinimizerBarnesHut.OctTree tree, final float[] f) {
+		if (tree == null || tree.index == index) return;
+		final float dx = pos[index][0] - tree.position[0];
+		final float dy = pos[index][1] - tree.position[1];
+		final float dz = pos[index][2] - tree.position[2];
+		final float dist2 = dx*dx + dy*dy + dz*dz;
+		if (tree.index < 0 && dist2 < theta * theta * tree.width() * tree.width()) {
+			for (int i = 0; i < tree.children.length; i++) {
+				addRepulsion(index, tree.children[i], f);
+			}
+			return;
+		}
+		if (dist2 > 0.0f) {
+			final float factor = scalingRatio * mass[index] * tree.weight / dist2;
+			f[0] += dx * factor; f[1] += dy * factor; f[2] += dz * factor;
+		}
+	}
+
+	/**
+	 * Adapts the global speed to the total swinging and traction, as in
+	 * ForceAtlas2: the speed rises (by at most half per iteration) while
+	 * the nodes move consistently and drops when they oscillate.
+	 */
+	private void adjustSpeed() {
+		double totalSwinging = 0.0, totalTraction = 0.0;
+		for (int i = 0; i < nodeNr; i++) {
+			totalSwinging += mass[i] * distance(force[i], oldForce[i], -1.0f);
+			totalTraction += 0.5 * mass[i] * distance(force[i], oldForce[i], 1.0f);
+		}
+		if (totalSwinging == 0.0) return;
+
+		// Jitter tolerance estimated from the graph size
+		final double optimal = 0.05 * Math.sqrt(nodeNr);
+		final double minJitter = Math.sqrt(optimal), maxJitter = 10.0;
+		double jitter = jitterTolerance
+			* Math.max(minJitter, Math.min(maxJitter, optimal * totalTraction / ((double) nodeNr * nodeNr)));
+		final float minSpeedEfficiency = 0.05f;
+		if (totalSwinging / totalTraction > 2.0) {
+			if (speedEfficiency > minSpeedEfficiency) speedEfficiency *= 0.5f;
+			jitter = Math.max(jitter, jitterTolerance);
+		}
+
+		final double targetSpeed = jitter * speedEfficiency * totalTraction / totalSwinging;
+		if (totalSwinging > jitter * totalTraction) {
+			if (speedEfficiency > minSpeedEfficiency) speedEfficiency *= 0.7f;
+		} else if (speed < 1000.0f) {
+			speedEfficiency *= 1.3f;
+		}
+		speed += (float) Math.min(targetSpeed - speed, 0.5 * speed);
+	}
+
+	/**
+	 * Returns <code>|a + sign * b|</code>.
+	 */
+	private static float distance(final float[] a, final float[] b, final float sign) {
+		final float dx = a[0] + sign * b[0], dy = a[1] + sign * b[1], dz = a[2] + sign * b[2];
+		return (float) Math.sqrt(dx*dx + dy*dy + dz*dz);
+	}
+
+	/**
+	 * Builds the octtree over all nodes, weighted by mass.
+	 */
+	private MinimizerBarnesHut.OctTree buildOctTree() {
+		float[] minPos = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE };
+		float[] maxPos = {-Float.MAX_VALUE,-Float.MAX_VALUE,-Float.MAX_VALUE };
+		for (int i = 0; i < nodeNr; i++) {
+			for (int j = 0; j < 3; j++) {
+				minPos[j] = Math.min(pos[i][j], minPos[j]);
+				maxPos[j] = Math.max(pos[i][j], maxPos[j]);
+			}
+		}
+		MinimizerBarnesHut.OctTree result = new MinimizerBarnesHut.OctTree(0, pos[0], mass[0], minPos, maxPos);
+		for (int i = 1; i < nodeNr; i++) {
+			result.addNode(i, pos[i], mass[i], 0);
+		}
+		return result;
+	}
+}
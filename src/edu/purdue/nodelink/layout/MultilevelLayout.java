@@ -0,0 +1,419 @@
+/* ------------------------------------------------------------------
+ * MultilevelLayout.java
+ *
+ * Multilevel force-directed layout on top of MinimizerBarnesHut.
+ * ------------------------------------------------------------------
+ */
+package edu.purdue.nodelink.layout;
+
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Hashtable;
+import java.util.Random;
+
+import edu.purdue.nodelink.aggregation.AggGraph;
+import edu.purdue.pivotlib.graph.Graph;
+
+/**
+ * Multilevel layout.  The graph is coarsened into a sequence of levels,
+ * where each node of a level is the union of one or more nodes of the
+ * level below.  The coarsest level is laid out from random positions,
+ * and each finer level starts with its nodes placed around the position
+ * of their parent and is refined with a few minimizer iterations.
+ *
+ * The levels are taken from the aggregation hierarchy of an
+ * <code>AggGraph</code> when one is given and it has been aggregated;
+ * otherwise they are computed by heavy-edge matching, which produces the
+ * same kind of pairwise merge hierarchy from the graph structure alone.
+ */
+public class MultilevelLayout implements Layout {
+
+	/** Stop coarsening when a level has at most this many nodes. */
+	private int coarsestSize = 50;
+	/** Stop coarsening when a level keeps more than this fraction of the nodes. */
+	private float minReduction = 0.9f;
+	/** Minimizer iterations for the coarsest level. */
+	private int coarsestIterations = 100;
+	/** Minimizer iterations for each finer level. */
+	private int levelIterations = 20;
+	/** Opening criterion of the repulsion octtree. */
+	private float openingCriterion = 2.0f;
+	/** Whether the repulsion uses the dual-tree approximation. */
+	private boolean dualTree = false;
+	/** Depth of the line search of the minimizer. */
+	private int lineSearchDepth = 5;
+
+	private AggGraph agg;
+	/** Seed of the random number generator; equal seeds give equal layouts. */
+	private long seed = 0L;
+	private Random random;
+
+	/**
+	 * One level of the hierarchy: the layout graph of the level, and
+	 * for each of its nodes the index of the parent in the next coarser level.
+	 */
+	private static class Level {
+		LayoutGraph graph;
+		int[] parent;
+		Level(LayoutGraph graph) {
+			this.graph = graph;
+		}
+	}
+
+	public MultilevelLayout() {}
+
+	/**
+	 * Creates a multilevel layout that uses the aggregation hierarchy of
+	 * the given aggregate graph for its levels.
+	 * @param agg aggregate graph whose hierarchy drives the coarsening.
+	 */
+	public MultilevelLayout(AggGraph agg) {
+		this.agg = agg;
+	}
+
+	/**
+	 * Sets the seed for the random choices of the layout.
+	 * @param seed the seed (0 by default).
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public void setCoarsestSize(int coarsestSize) {
+		this.coarsestSize = coarsestSize;
+	}
+
+	public void setCoarsestIterations(int coarsestIterations) {
+		this.coarsestIterations = coarsestIterations;
+	}
+
+	public void setLevelIterations(int levelIterations) {
+		this.levelIterations = levelIterations;
+	}
+
+	/**
+	 * Selects the repulsion approximation of the minimizer on all levels.
+	 * @param dualTree         true for the dual-tree approximation.
+	 * @param openingCriterion opening criterion of the octtree.
+	 */
+	public void setRepulsion(boolean dualTree, float openingCriterion) {
+		this.dualTree = dualTree;
+		this.openingCriterion = openingCriterion;
+	}
+
+	/**
+	 * Sets the line search depth of the minimizer on all levels.
+	 * @param lineSearchDepth the depth (5 by default).
+	 */
+	public void setLineSearchDepth(int lineSearchDepth) {
+		this.lineSearchDepth = lineSearchDepth;
+	}
+
+	public void layout(Graph g, Dimension dim) {
+		float[][] positions = layout(new LayoutGraph(g), g);
+		LayoutGraph.writePositions(g, positions, dim);
+	}
+
+	/**
+	 * Computes a multilevel layout of the given layout graph.
+	 * @param graph layout graph, node <code>i</code> is vertex row <code>i</code> of <code>g</code>.
+	 * @param g     the graph itself, used to match an aggregation hierarchy.
+	 * @return position of each node.
+	 */
+	public float[][] layout(LayoutGraph graph, Graph g) {
+		random = new Random(seed);
+
+		// Build the hierarchy, finest level first
+		ArrayList<Level> levels = new ArrayList<Level>();
+		levels.add(new Level(graph));
+		if (agg != null && agg.getGraph() == g) {
+			buildAggregationLevels(levels);
+		}
+		if (levels.size() == 1) {
+			buildMatchingLevels(levels);
+		}
+
+		// Lay out the coarsest level from random positions
+		Level coarsest = levels.get(levels.size() - 1);
+		float[][] positions = new float[coarsest.graph.getNodeCount()][3];
+		for (int i = 0; i < positions.length; i++) {
+			positions[i][0] = random.nextFloat() - 0.5f;
+			positions[i][1] = random.nextFloat() - 0.5f;
+		}
+		minimize(coarsest.graph, positions, coarsestIterations);
+
+		// Place each finer level around its parents and refine
+		for (int l = levels.size() - 2; l >= 0; l--) {
+			Level level = levels.get(l);
+			positions = prolong(level, positions);
+			minimize(level.graph, positions, levelIterations);
+		}
+		return positions;
+	}
+
+	public String toString() {
+		return "MultilevelLayout[seed=" + seed + ",coarsestSize=" + coarsestSize
+			+ ",coarsestIterations=" + coarsestIterations + ",levelIterations=" + levelIterations
+			+ ",hierarchy=" + (agg != null ? "aggregation" : "matching")
+			+ (dualTree || openingCriterion != 2.0f ? ",dualTree=" + dualTree + ",theta=" + openingCriterion : "")
+			+ (lineSearchDepth != 5 ? ",lineSearchDepth=" + lineSearchDepth : "") + "]";
+	}
+
+	private void minimize(LayoutGraph graph, float[][] positions, int iterations) {
+		MinimizerBarnesHut minimizer = new MinimizerBarnesHut(
+				graph.getAttrIndexes(), graph.getAttrWeights(), graph.getRepuWeights(),
+				LinLogLayout.ATTR_EXPONENT, LinLogLayout.REPU_EXPONENT, LinLogLayout.GRAV_FACTOR, positions);
+		minimizer.setOpeningCriterion(openingCriterion);
+		minimizer.setDualTree(dualTree);
+		minimizer.setLineSearchDepth(lineSearchDepth);
+		minimizer.minimizeEnergy(iterations);
+	}
+
+	/**
+	 * Places the nodes of a level on a small circle around the position
+	 * of their parent in the coarser level.
+	 */
+	private float[][] prolong(Level level, float[][] coarse) {
+		float radius = 0.1f * meanEdgeLength(level.graph, level.parent, coarse);
+		float[][] result = new float[level.parent.length][3];
+		for (int i = 0; i < result.length; i++) {
+			float[] p = coarse[level.parent[i]];
+			double angle = 2 * Math.PI * random.nextDouble();
+			float r = radius * random.nextFloat();
+			result[i][0] = p[0] + r * (float) Math.cos(angle);
+			result[i][1] = p[1] + r * (float) Math.sin(angle);
+			result[i][2] = p[2];
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the mean length of the edges between different parents,
+	 * measured at the parents' positions.
+	 */
+	private static float meanEdgeLength(LayoutGraph graph, int[] parent, float[][] coarse) {
+		double sum = 0.0;
+		int cnt = 0;
+		int[][] attrIndexes = graph.getAttrIndexes();
+		for (int i = 0; i < attrIndexes.length; i++) {
+			float[] p = coarse[parent[i]];
+			for (int k = 0; k < attrIndexes[i].length; k++) {
+				float[] q = coarse[parent[attrIndexes[i][k]]];
+				if (p == q) continue;
+				float dx = p[0] - q[0], dy = p[1] - q[1], dz = p[2] - q[2];
+				sum += Math.sqrt(dx*dx + dy*dy + dz*dz);
+				cnt++;
+			}
+		}
+		return cnt == 0 ? 1.0f : (float) (sum / cnt);
+	}
+
+	/**
+	 * Coarsens by heavy-edge matching: each node is paired with its
+	 * unmatched neighbor of highest edge weight, and nodes left unmatched
+	 * join the group of their heaviest neighbor.
+	 */
+	private void buildMatchingLevels(ArrayList<Level> levels) {
+		Level level = levels.get(levels.size() - 1);
+		while (level.graph.getNodeCount() > coarsestSize) {
+			int nodeNr = level.graph.getNodeCount();
+			int[][] attrIndexes = level.graph.getAttrIndexes();
+			float[][] attrWeights = level.graph.getAttrWeights();
+
+			int[] parent = new int[nodeNr];
+			for (int i = 0; i < nodeNr; i++) parent[i] = -1;
+			int coarseNr = 0;
+
+			// Visit the nodes in random order
+			int[] order = new int[nodeNr];
+			for (int i = 0; i < nodeNr; i++) order[i] = i;
+			for (int i = nodeNr - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				int tmp = order[i]; order[i] = order[j]; order[j] = tmp;
+			}
+			for (int o = 0; o < nodeNr; o++) {
+				int i = order[o];
+				if (parent[i] >= 0) continue;
+				int best = -1;
+				float bestWeight = 0.0f;
+				for (int k = 0; k < attrIndexes[i].length; k++) {
+					int j = attrIndexes[i][k];
+					if (j != i && parent[j] < 0 && attrWeights[i][k] > bestWeight) {
+						best = j;
+						bestWeight = attrWeights[i][k];
+					}
+				}
+				if (best >= 0) {
+					parent[i] = coarseNr;
+					parent[best] = coarseNr;
+					coarseNr++;
+				}
+			}
+			for (int i = 0; i < nodeNr; i++) {
+				if (parent[i] >= 0) continue;
+				int best = -1;
+				float bestWeight = 0.0f;
+				for (int k = 0; k < attrIndexes[i].length; k++) {
+					int j = attrIndexes[i][k];
+					if (j != i && parent[j] >= 0 && attrWeights[i][k] > bestWeight) {
+						best = j;
+						bestWeight = attrWeights[i][k];
+					}
+				}
+				parent[i] = best >= 0 ? parent[best] : coarseNr++;
+			}
+
+			if (coarseNr > minReduction * nodeNr) break;
+			level.parent = parent;
+			level = new Level(contract(level.graph, parent, coarseNr));
+			levels.add(level);
+		}
+	}
+
+	/**
+	 * Derives the levels from the aggregation hierarchy.  Level <code>h</code>
+	 * consists of the maximal aggregates of height at most <code>h</code>;
+	 * only levels that reduce the node count noticeably are kept.
+	 */
+	private void buildAggregationLevels(ArrayList<Level> levels) {
+
+		// Collect the aggregates of the hierarchy below the current cut
+		Hashtable<AggGraph.AggNode, AggGraph.AggNode> parents = new Hashtable<AggGraph.AggNode, AggGraph.AggNode>();
+		Hashtable<AggGraph.AggNode, Integer> heights = new Hashtable<AggGraph.AggNode, Integer>();
+		AggGraph.AggNode[] leaves = new AggGraph.AggNode[levels.get(0).graph.getNodeCount()];
+		int maxHeight = 0;
+		for (AggGraph.AggNode node : agg.getNodes()) {
+			maxHeight = Math.max(maxHeight, collect(node, parents, heights, leaves));
+		}
+		for (int i = 0; i < leaves.length; i++) {
+			if (leaves[i] == null) return;
+		}
+		if (maxHeight == 0) return;
+
+		// Map each row to its aggregate at increasing heights
+		AggGraph.AggNode[] current = leaves.clone();
+		Level level = levels.get(0);
+		int[] rowToNode = new int[leaves.length];
+		for (int i = 0; i < rowToNode.length; i++) rowToNode[i] = i;
+		for (int h = 1; h <= maxHeight && level.graph.getNodeCount() > coarsestSize; h++) {
+			for (int i = 0; i < current.length; i++) {
+				AggGraph.AggNode p = parents.get(current[i]);
+				while (p != null && heights.get(p) <= h) {
+					current[i] = p;
+					p = parents.get(p);
+				}
+			}
+
+			// Number the aggregates of this height
+			Hashtable<AggGraph.AggNode, Integer> index = new Hashtable<AggGraph.AggNode, Integer>();
+			int[] rowToCoarse = new int[current.length];
+			for (int i = 0; i < current.length; i++) {
+				Integer idx = index.get(current[i]);
+				if (idx == null) {
+					idx = index.size();
+					index.put(current[i], idx);
+				}
+				rowToCoarse[i] = idx;
+			}
+			int coarseNr = index.size();
+			if (coarseNr > minReduction * level.graph.getNodeCount() && h < maxHeight) continue;
+
+			// Parent of each node of the previous level
+			int[] parent = new int[level.graph.getNodeCount()];
+			for (int i = 0; i < rowToNode.length; i++) {
+				parent[rowToNode[i]] = rowToCoarse[i];
+			}
+			level.parent = parent;
+			level = new Level(contract(level.graph, parent, coarseNr));
+			levels.add(level);
+			rowToNode = rowToCoarse;
+		}
+	}
+
+	/**
+	 * Records parent and height of all aggregates below the given node.
+	 * @return height of the node.
+	 */
+	private static int collect(AggGraph.AggNode node,
+			Hashtable<AggGraph.AggNode, AggGraph.AggNode> parents,
+			Hashtable<AggGraph.AggNode, Integer> heights,
+			AggGraph.AggNode[] leaves) {
+		int height = 0;
+		if (node.isLeaf()) {
+			Collection<Integer> items = node.getAllItems();
+			for (Integer item : items) {
+				if (item < leaves.length) leaves[item] = node;
+			}
+		}
+		else {
+			for (int i = 0; i < node.getAggregateCount(); i++) {
+				AggGraph.AggNode child = (AggGraph.AggNode) node.getAggregate(i);
+				parents.put(child, node);
+				height = Math.max(height, collect(child, parents, heights, leaves) + 1);
+			}
+		}
+		heights.put(node, height);
+		return height;
+	}
+
+	/**
+	 * Contracts the given graph along the parent map.  Edge weights between
+	 * groups are summed, and edges inside a group are kept as self-loops so
+	 * that the total attraction (and thus the scale chosen by the minimizer)
+	 * is the same on every level.
+	 */
+	static LayoutGraph contract(LayoutGraph graph, int[] parent, int coarseNr) {
+		int nodeNr = graph.getNodeCount();
+		int[][] attrIndexes = graph.getAttrIndexes();
+		float[][] attrWeights = graph.getAttrWeights();
+		float[] repuWeights = graph.getRepuWeights();
+
+		// Members of each coarse node in compressed rows
+		int[] start = new int[coarseNr + 1];
+		for (int i = 0; i < nodeNr; i++) start[parent[i] + 1]++;
+		for (int c = 0; c < coarseNr; c++) start[c + 1] += start[c];
+		int[] fill = new int[coarseNr];
+		int[] members = new int[nodeNr];
+		for (int i = 0; i < nodeNr; i++) members[start[parent[i]] + fill[parent[i]]++] = i;
+
+		int[][] coarseIndexes = new int[coarseNr][];
+		float[][] coarseWeights = new float[coarseNr][];
+		float[] coarseRepu = new float[coarseNr];
+		int[] slot = new int[coarseNr];
+		for (int c = 0; c < coarseNr; c++) slot[c] = -1;
+		int[] targets = new int[16];
+		float[] weights = new float[16];
+		for (int c = 0; c < coarseNr; c++) {
+			int cnt = 0;
+			for (int m = start[c]; m < start[c + 1]; m++) {
+				int i = members[m];
+				coarseRepu[c] += repuWeights[i];
+				for (int k = 0; k < attrIndexes[i].length; k++) {
+					int t = parent[attrIndexes[i][k]];
+					if (slot[t] < 0) {
+						if (cnt == targets.length) {
+							int[] newTargets = new int[2 * cnt];
+							float[] newWeights = new float[2 * cnt];
+							System.arraycopy(targets, 0, newTargets, 0, cnt);
+							System.arraycopy(weights, 0, newWeights, 0, cnt);
+							targets = newTargets;
+							weights = newWeights;
+						}
+						slot[t] = cnt;
+						targets[cnt] = t;
+						weights[cnt] = 0.0f;
+						cnt++;
+					}
+					weights[slot[t]] += attrWeights[i][k];
+				}
+			}
+			coarseIndexes[c] = new int[cnt];
+			coarseWeights[c] = new float[cnt];
+			System.arraycopy(targets, 0, coarseIndexes[c], 0, cnt);
+			System.arraycopy(weights, 0, coarseWeights[c], 0, cnt);
+			for (int k = 0; k < cnt; k++) slot[targets[k]] = -1;
+		}
+		return new LayoutGraph(coarseIndexes, coarseWeights, coarseRepu);
+	}
+}
@@ -0,0 +1,336 @@
+/* ------------------------------------------------------------------
+ * PivotMDSLayout.java
+ *
+ * Pivot MDS layout with sparse stress majorization.
+ * ------------------------------------------------------------------
+ */
+package edu.purdue.nodelink.layout;
+
+import java.awt.Dimension;
+import java.util.Arrays;
+import java.util.Random;
+
+import edu.purdue.pivotlib.graph.Graph;
+
+/**
+ * Distance-based layout.  Pivot MDS (Brandes and Pich) computes breadth-first
+ * distances from <code>k</code> pivots chosen by max-min selection,
+ * double-centers the <code>n x k</code> distance matrix and projects it on
+ * the two dominant eigenvectors of its <code>k x k</code> Gram matrix.  The
+ * result is refined by sparse stress majorization, which approximates the
+ * full stress by the terms for the graph neighbors and for the pivots,
+ * each pivot weighted by the size of its region.
+ *
+ * Everything runs in <code>O(k(n+m))</code> time plus <code>O(nk^2)</code>
+ * for the Gram matrix, on a dense <code>k x n</code> primitive matrix.  The
+ * layout can be used alone or as the starting point for a number of
+ * <code>MinimizerBarnesHut</code> iterations.
+ */
+public class PivotMDSLayout implements Layout {
+
+	/** Number of pivots. */
+	private int pivotCount = 50;
+	/** Number of sparse stress majorization iterations. */
+	private int stressIterations = 20;
+	/** Number of Barnes-Hut iterations after the stress layout; 0 for none. */
+	private int refineIterations = 0;
+	/** Seed of the random number generator; equal seeds give equal layouts. */
+	private long seed = 0L;
+	private Random random;
+
+	/**
+	 * Sets the seed for the random choices of the layout.
+	 * @param seed the seed (0 by default).
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public void setPivotCount(int pivotCount) {
+		this.pivotCount = pivotCount;
+	}
+
+	public void setStressIterations(int stressIterations) {
+		this.stressIterations = stressIterations;
+	}
+
+	/**
+	 * Sets the number of <code>MinimizerBarnesHut</code> iterations that are
+	 * run with the stress layout as initial positions.
+	 * @param refineIterations number of iterations, 0 (the default) for none.
+	 */
+	public void setRefineIterations(int refineIterations) {
+		this.refineIterations = refineIterations;
+	}
+
+	public void layout(Graph g, Dimension dim) {
+		float[][] positions = layout(new LayoutGraph(g));
+		LayoutGraph.writePositions(g, positions, dim);
+	}
+
+	/**
+	 * Computes the layout of the given layout graph.
+	 * @param graph layout graph.
+	 * @return position of each node.
+	 */
+	public float[][] layout(LayoutGraph graph) {
+		int nodeNr = graph.getNodeCount();
+		float[][] positions = new float[nodeNr][3];
+		if (nodeNr == 0) return positions;
+		random = new Random(seed);
+		int k = Math.max(1, Math.min(pivotCount, nodeNr));
+
+		// Breadth-first distances from max-min pivots
+		int[] pivots = new int[k];
+		float[][] dist = new float[k][];
+		float[] minDist = new float[nodeNr];
+		int[] region = new int[nodeNr];
+		Arrays.fill(minDist, Float.MAX_VALUE);
+		int[] queue = new int[nodeNr];
+		int pivot = random.nextInt(nodeNr);
+		for (int p = 0; p < k; p++) {
+			pivots[p] = pivot;
+			dist[p] = bfs(graph, pivot, queue);
+			int next = pivot;
+			for (int i = 0; i < nodeNr; i++) {
+				if (dist[p][i] < minDist[i]) {
+					minDist[i] = dist[p][i];
+					region[i] = p;
+				}
+				if (minDist[i] > minDist[next]) next = i;
+			}
+			pivot = next;
+		}
+		float[] regionSize = new float[k];
+		for (int i = 0; i < nodeNr; i++) regionSize[region[i]]++;
+
+		// Pivot MDS initialization
+		mds(dist, positions);
+
+		// Sparse stress majorization
+		for (int iter = 0; iter < stressIterations; iter++) {
+			stressIteration(graph, dist, pivots, regionSize, positions);
+		}
+
+		if (refineIterations > 0) {
+			refine(graph, positions);
+		}
+		return positions;
+	}
+
+	public String toString() {
+		return "PivotMDSLayout[seed=" + seed + ",pivots=" + pivotCount
+			+ ",stressIterations=" + stressIterations + ",refineIterations=" + refineIterations + "]";
+	}
+
+	/**
+	 * Computes unweighted graph distances from the source node.  Nodes in
+	 * other components get one more than the largest finite distance.
+	 */
+	private static float[] bfs(LayoutGraph graph, int source, int[] queue) {
+		int nodeNr = graph.getNodeCount();
+		int[][] attrIndexes = graph.getAttrIndexes();
+		float[] dist = new float[nodeNr];
+		Arrays.fill(dist, -1.0f);
+		dist[source] = 0.0f;
+		queue[0] = source;
+		int tail = 1;
+		float maxDist = 0.0f;
+		for (int head = 0; head < tail; head++) {
+			int v = queue[head];
+			for (int k = 0; k < attrIndexes[v].length; k++) {
+				int w = attrIndexes[v][k];
+				if (dist[w] >= 0.0f) continue;
+				dist[w] = dist[v] + 1.0f;
+				maxDist = dist[w];
+				queue[tail++] = w;
+			}
+		}
+		if (tail < nodeNr) {
+			for (int i = 0; i < nodeNr; i++) {
+				if (dist[i] < 0.0f) dist[i] = maxDist + 1.0f;
+			}
+		}
+		return dist;
+	}
+
+	/**
+	 * Classical MDS on the pivot distances: the double-centered squared
+	 * distance matrix <code>C</code> is projected on the two dominant
+	 * eigenvectors of <code>C^T C</code>.  <code>C</code> is evaluated on the
+	 * fly from the distances and the row and column means.
+	 */
+	private void mds(float[][] dist, float[][] positions) {
+		int k = dist.length;
+		int nodeNr = positions.length;
+
+		// Row, column and grand means of the squared distances
+		double[] rowMean = new double[nodeNr];
+		double[] colMean = new double[k];
+		double grandMean = 0.0;
+		for (int p = 0; p < k; p++) {
+			for (int i = 0; i < nodeNr; i++) {
+				double d2 = dist[p][i] * dist[p][i];
+				rowMean[i] += d2;
+				colMean[p] += d2;
+			}
+			grandMean += colMean[p];
+			colMean[p] /= nodeNr;
+		}
+		for (int i = 0; i < nodeNr; i++) rowMean[i] /= k;
+		grandMean /= (double) nodeNr * k;
+
+		// Gram matrix B = C^T C (k x k)
+		double[][] b = new double[k][k];
+		double[] c = new double[k];
+		for (int i = 0; i < nodeNr; i++) {
+			for (int p = 0; p < k; p++) {
+				c[p] = -0.5 * (dist[p][i] * dist[p][i] - rowMean[i] - colMean[p] + grandMean);
+			}
+			for (int p = 0; p < k; p++) {
+				double cp = c[p];
+				for (int q = p; q < k; q++) b[p][q] += cp * c[q];
+			}
+		}
+		for (int p = 0; p < k; p++) {
+			for (int q = 0; q < p; q++) b[p][q] = b[q][p];
+		}
+
+		// Two dominant eigenvectors by power iteration with deflation
+		double[][] eigen = new double[2][];
+		for (int e = 0; e < 2; e++) {
+			double[] v = new double[k];
+			for (int p = 0; p < k; p++) v[p] = random.nextDouble() - 0.5;
+			for (int iter = 0; iter < 100; iter++) {
+				double[] w = new double[k];
+				for (int p = 0; p < k; p++) {
+					for (int q = 0; q < k; q++) w[p] += b[p][q] * v[q];
+				}
+				for (int f = 0; f < e; f++) {
+					double dot = 0.0;
+					for (int p = 0; p < k; p++) dot += w[p] * eigen[f][p];
+					for (int p = 0; p < k; p++) w[p] -= dot * eigen[f][p];
+				}
+				double norm = 0.0;
+				for (int p = 0; p < k; p++) norm += w[p] * w[p];
+				norm = Math.sqrt(norm);
+				if (norm == 0.0) break;
+				double change = 0.0;
+				for (int p = 0; p < k; p++) {
+					w[p] /= norm;
+					change += Math.abs(w[p] - v[p]);
+				}
+				v = w;
+				if (change < 1e-9) break;
+			}
+			eigen[e] = v;
+		}
+
+		// Coordinates x = C v1, y = C v2, scaled back to distance units
+		double[] scale = new double[2];
+		for (int e = 0; e < 2; e++) {
+			double lambda = 0.0;
+			for (int p = 0; p < k; p++) {
+				for (int q = 0; q < k; q++) lambda += eigen[e][p] * b[p][q] * eigen[e][q];
+			}
+			scale[e] = lambda > 0.0 ? 1.0 / Math.pow(lambda, 0.25) : 0.0;
+		}
+		for (int i = 0; i < nodeNr; i++) {
+			double x = 0.0, y = 0.0;
+			for (int p = 0; p < k; p++) {
+				double cp = -0.5 * (dist[p][i] * dist[p][i] - rowMean[i] - colMean[p] + grandMean);
+				x += cp * eigen[0][p];
+				y += cp * eigen[1][p];
+			}
+			positions[i][0] = (float) (x * scale[0]) + 1e-3f * (random.nextFloat() - 0.5f);
+			positions[i][1] = (float) (y * scale[1]) + 1e-3f * (random.nextFloat() - 0.5f);
+		}
+	}
+
+	/**
+	 * One round of localized stress majorization.  Each node moves to the
+	 * weighted mean of the positions proposed by its neighbors (target
+	 * distance 1) and by the pivots (target distance = graph distance,
+	 * weight = region size / distance^2).
+	 */
+	private static void stressIteration(LayoutGraph graph, float[][] dist, int[] pivots,
+			float[] regionSize, float[][] positions) {
+		int nodeNr = graph.getNodeCount();
+		int[][] attrIndexes = graph.getAttrIndexes();
+		double[] term = new double[2];
+		for (int i = 0; i < nodeNr; i++) {
+			float xi = positions[i][0], yi = positions[i][1];
+			double sumX = 0.0, sumY = 0.0, sumW = 0.0;
+			for (int k = 0; k < attrIndexes[i].length; k++) {
+				int j = attrIndexes[i][k];
+				if (j == i) continue;
+				sumW += addStressTerm(xi, yi, positions[j], 1.0f, 1.0, term);
+				sumX += term[0]; sumY += term[1];
+			}
+			for (int p = 0; p < pivots.length; p++) {
+				int j = pivots[p];
+				float d = dist[p][i];
+				if (j == i || d <= 1.0f) continue;
+				sumW += addStressTerm(xi, yi, positions[j], d, regionSize[p] / (d * d), term);
+				sumX += term[0]; sumY += term[1];
+			}
+			if (sumW > 0.0) {
+				positions[i][0] = (float) (sumX / sumW);
+				positions[i][1] = (float) (sumY / sumW);
+			}
+		}
+	}
+
+	/**
+	 * Computes the weighted position proposed for a node at
+	 * <code>(xi, yi)</code> by the node at <code>pj</code> at target distance
+	 * <code>d</code>, and stores it in <code>out</code>.
+	 * @return the weight of the term.
+	 */
+	private static double addStressTerm(float xi, float yi, float[] pj, float d, double w, double[] out) {
+		double dx = xi - pj[0], dy = yi - pj[1];
+		double len = Math.sqrt(dx * dx + dy * dy);
+		if (len > 0.0) {
+			out[0] = w * (pj[0] + d * dx / len);
+			out[1] = w * (pj[1] + d * dy / len);
+		}
+		else {
+			out[0] = w * pj[0];
+			out[1] = w * pj[1];
+		}
+		return w;
+	}
+
+	/**
+	 * Rescales the positions to the size preferred by the minimizer and
+	 * runs the Barnes-Hut minimizer on them.
+	 */
+	private void refine(LayoutGraph graph, float[][] positions) {
+		scaleForMinimizer(graph, positions);
+		MinimizerBarnesHut minimizer = new MinimizerBarnesHut(
+				graph.getAttrIndexes(), graph.getAttrWeights(), graph.getRepuWeights(),
+				LinLogLayout.ATTR_EXPONENT, LinLogLayout.REPU_EXPONENT, LinLogLayout.GRAV_FACTOR, positions);
+		minimizer.minimizeEnergy(refineIterations);
+	}
+
+	/**
+	 * Rescales the positions so that their extent is about the square root
+	 * of the total repulsion weight, the size preferred by the minimizer.
+	 */
+	static void scaleForMinimizer(LayoutGraph graph, float[][] positions) {
+		float minX = Float.MAX_VALUE, maxX = -Float.MAX_VALUE;
+		float minY = Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+		for (float[] p : positions) {
+			minX = Math.min(minX, p[0]); maxX = Math.max(maxX, p[0]);
+			minY = Math.min(minY, p[1]); maxY = Math.max(maxY, p[1]);
+		}
+		float repuSum = 0.0f;
+		for (float w : graph.getRepuWeights()) repuSum += w;
+		float extent = Math.max(maxX - minX, maxY - minY);
+		float scale = extent > 0.0f ? (float) Math.sqrt(Math.max(repuSum, 1.0f)) / extent : 1.0f;
+		for (float[] p : positions) {
+			p[0] *= scale;
+			p[1] *= scale;
+		}
+	}
+}
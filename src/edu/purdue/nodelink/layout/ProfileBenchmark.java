@@ -0,0 +1,65 @@
+/* ------------------------------------------------------------------
+ * ProfileBenchmark.java
+ *
+ * Latency measurements of the layout profiles.
+ * ------------------------------------------------------------------
+ */
+package edu.purdue.nodelink.layout;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import edu.purdue.pivotlib.graph.BasicGraph;
+import edu.purdue.pivotlib.graph.Graph;
+import edu.purdue.pivotlib.io.GraphMLReader;
+
+/**
+ * Measures the latency of each <code>ProfileLayout</code> profile: the time
+ * until the initial layout is available and the total time.  Each profile
+ * is run up to five times, and the fastest run is reported, so that the
+ * first runs serve as warm-up of the JIT compiler.
+ *
+ * Usage: <code>ProfileBenchmark [nodes | file.graphml] [profile...]</code>
+ */
+public class ProfileBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		Graph g;
+		if (args.length > 0 && !Character.isDigit(args[0].charAt(0))) {
+			g = new BasicGraph("graph");
+			new GraphMLReader(new FileInputStream(args[0]), "graph", g).load();
+		}
+		else {
+			g = LayoutBenchmark.randomGraph(args.length > 0 ? Integer.parseInt(args[0]) : 50000, 1L);
+		}
+		System.out.println("Nodes: " + g.getVertexCount() + ", edges: " + g.getEdgeCount());
+
+		ProfileLayout.Profile[] profiles = ProfileLayout.Profile.values();
+		if (args.length > 1) {
+			profiles = new ProfileLayout.Profile[args.length - 1];
+			for (int i = 1; i < args.length; i++) profiles[i - 1] = ProfileLayout.getProfile(args[i]);
+		}
+		System.out.println("profile     initial ms    total ms");
+		for (int p = 0; p < profiles.length; p++) {
+			ProfileLayout layout = new ProfileLayout(profiles[p]);
+
+			// Best of up to five runs, as long as they take less than ten seconds in all
+			final long[] initial = new long[1];
+			long bestInitial = Long.MAX_VALUE, bestTotal = Long.MAX_VALUE, spent = 0;
+			for (int run = 0; run < 5 && spent < 10000000000L; run++) {
+				final long start = System.nanoTime();
+				layout.layout(g, new ProgressUpdate() {
+					public boolean update(int step, int nrIterations, float[][] pos) {
+						if (step == 1) initial[0] = System.nanoTime() - start;
+						return true;
+					}
+				});
+				long total = System.nanoTime() - start;
+				bestInitial = Math.min(bestInitial, initial[0]);
+				bestTotal = Math.min(bestTotal, total);
+				spent += total;
+			}
+			System.out.println(String.format("%-10s %11.1f %11.1f", profiles[p], bestInitial / 1e6, bestTotal / 1e6));
+		}
+	}
+}
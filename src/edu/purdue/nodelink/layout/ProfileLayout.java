@@ -0,0 +1,185 @@
+/* ------------------------------------------------------------------
+ * ProfileLayout.java
+ *
+ * Anytime layout with named quality-versus-time profiles.
+ * ------------------------------------------------------------------
+ */
+package edu.purdue.nodelink.layout;
+
+import java.awt.Dimension;
+
+import edu.purdue.pivotlib.graph.Graph;
+
+/**
+ * Anytime layout configured by a named profile instead of minimizer
+ * constants.  The layout runs in two stages: a cheap initial layout (pivot
+ * MDS, or a multilevel layout for the final profile), which is reported to
+ * the progress listener as soon as it is available, followed by a number of
+ * Barnes-Hut iterations from those positions.  Cancelling after the first
+ * stage returns the best positions so far.
+ *
+ * The latencies below were measured with <code>ProfileBenchmark</code>
+ * (fastest of up to five runs, single-threaded) on the clustered random
+ * graphs of <code>LayoutBenchmark</code>, with about two edges per node:
+ *
+ * <pre>
+ * profile    initial   total 5k   total 50k   target
+ * preview     143 ms      56 ms      143 ms   200 ms at 50k nodes
+ * balanced    909 ms     1.4 s        16 s    2 s at 5k nodes
+ * final        99 s       18 s       235 s    none (offline use)
+ * </pre>
+ *
+ * The initial column is the time until the first positions are reported
+ * at 50k nodes.
+ */
+public class ProfileLayout implements ProgressiveLayout {
+
+	/**
+	 * Quality-versus-time presets.
+	 */
+	public enum Profile {
+		/** Pivot MDS with few pivots and no minimizer iterations. */
+		PREVIEW(12, 2, 0, 0, 0, true, 1.5f, 2),
+		/** Pivot MDS followed by a short dual-tree minimization. */
+		BALANCED(50, 10, 0, 0, 30, true, 1.5f, 3),
+		/** Multilevel layout followed by a full minimization with the default settings. */
+		FINAL(0, 0, 100, 20, 50, false, 2.0f, 5);
+
+		/** Number of pivots of the initial layout; 0 for a multilevel initial layout. */
+		final int pivotCount;
+		/** Stress majorization iterations of the pivot MDS layout. */
+		final int stressIterations;
+		/** Minimizer iterations on the coarsest level of the multilevel layout. */
+		final int coarsestIterations;
+		/** Minimizer iterations on each finer level of the multilevel layout. */
+		final int levelIterations;
+		/** Minimizer iterations after the initial layout. */
+		final int iterations;
+		/** Whether the minimizer uses the dual-tree repulsion. */
+		final boolean dualTree;
+		/** Opening criterion of the octtree. */
+		final float openingCriterion;
+		/** Line search depth of the minimizer. */
+		final int lineSearchDepth;
+
+		Profile(int pivotCount, int stressIterations, int coarsestIterations, int levelIterations,
+				int iterations, boolean dualTree, float openingCriterion, int lineSearchDepth) {
+			this.pivotCount = pivotCount;
+			this.stressIterations = stressIterations;
+			this.coarsestIterations = coarsestIterations;
+			this.levelIterations = levelIterations;
+			this.iterations = iterations;
+			this.dualTree = dualTree;
+			this.openingCriterion = openingCriterion;
+			this.lineSearchDepth = lineSearchDepth;
+		}
+
+		public String toString() {
+			return name().toLowerCase();
+		}
+	}
+
+	private final Profile profile;
+	/** Seed of the random number generator; equal seeds give equal layouts. */
+	private long seed = 0L;
+
+	/**
+	 * Creates a layout with the given profile.
+	 * @param profile the profile.
+	 */
+	public ProfileLayout(Profile profile) {
+		this.profile = profile;
+	}
+
+	/**
+	 * Returns the profile with the given name, ignoring case.
+	 * @param name name of the profile, for example <code>"preview"</code>.
+	 * @return the profile, or <code>null</code> if there is none with that name.
+	 */
+	public static Profile getProfile(String name) {
+		for (Profile profile : Profile.values()) {
+			if (profile.name().equalsIgnoreCase(name)) return profile;
+		}
+		return null;
+	}
+
+	public Profile getProfile() {
+		return profile;
+	}
+
+	/**
+	 * Sets the seed for the random choices of the layout.
+	 * @param seed the seed (0 by default).
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public void layout(Graph g, Dimension dim) {
+		float[][] positions = layout(new LayoutGraph(g), g, null);
+		LayoutGraph.writePositions(g, positions, dim);
+	}
+
+	public float[][] layout(Graph g, ProgressUpdate progress) {
+		return layout(new LayoutGraph(g), g, progress);
+	}
+
+	/**
+	 * Computes a layout of the given layout graph.  The initial layout counts
+	 * as the first step reported to <code>progress</code>.
+	 * @param graph    layout graph, node <code>i</code> is vertex row <code>i</code> of <code>g</code>.
+	 * @param g        the graph itself; may be <code>null</code>.
+	 * @param progress receives intermediate positions; may be <code>null</code>.
+	 * @return position of each node.
+	 */
+	public float[][] layout(LayoutGraph graph, Graph g, final ProgressUpdate progress) {
+		final int steps = 1 + profile.iterations;
+
+		// Initial layout
+		float[][] positions;
+		if (profile.pivotCount > 0) {
+			PivotMDSLayout mds = new PivotMDSLayout();
+			mds.setSeed(seed);
+			mds.setPivotCount(profile.pivotCount);
+			mds.setStressIterations(profile.stressIterations);
+			positions = mds.layout(graph);
+			PivotMDSLayout.scaleForMinimizer(graph, positions);
+		}
+		else {
+			MultilevelLayout multilevel = new MultilevelLayout();
+			multilevel.setSeed(seed);
+			multilevel.setCoarsestIterations(profile.coarsestIterations);
+			multilevel.setLevelIterations(profile.levelIterations);
+			multilevel.setRepulsion(profile.dualTree, profile.openingCriterion);
+			multilevel.setLineSearchDepth(profile.lineSearchDepth);
+			positions = multilevel.layout(graph, g);
+		}
+		if (progress != null && !progress.update(1, steps, positions)) return positions;
+		if (profile.iterations == 0) return positions;
+
+		// Refinement
+		MinimizerBarnesHut minimizer = new MinimizerBarnesHut(
+				graph.getAttrIndexes(), graph.getAttrWeights(), graph.getRepuWeights(),
+				LinLogLayout.ATTR_EXPONENT, LinLogLayout.REPU_EXPONENT, LinLogLayout.GRAV_FACTOR, positions);
+		minimizer.setOpeningCriterion(profile.openingCriterion);
+		minimizer.setDualTree(profile.dualTree);
+		minimizer.setLineSearchDepth(profile.lineSearchDepth);
+		if (progress != null) {
+			minimizer.setProgressUpdate(new ProgressUpdate() {
+				public boolean update(int step, int nrIterations, float[][] pos) {
+					return progress.update(step + 1, steps, pos);
+				}
+			});
+		}
+		minimizer.minimizeEnergy(profile.iterations);
+		return positions;
+	}
+
+	public String toString() {
+		return "ProfileLayout[profile=" + profile + ",seed=" + seed
+			+ ",pivots=" + profile.pivotCount + ",stressIterations=" + profile.stressIterations
+			+ ",coarsestIterations=" + profile.coarsestIterations + ",levelIterations=" + profile.levelIterations
+			+ ",iterations=" + profile.iterations + ",dualTree=" + profile.dualTree
+			+ ",theta=" + profile.openingCriterion + ",lineSearchDepth=" + profile.lineSearchDepth + "]";
+	}
+}
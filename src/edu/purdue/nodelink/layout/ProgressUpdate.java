@@ -0,0 +1,25 @@
+/* ------------------------------------------------------------------
+ * ProgressUpdate.java
+ *
+ * Callback for reporting the progress of a running layout.
+ * ------------------------------------------------------------------
+ */
+package edu.purdue.nodelink.layout;
+
+/**
+ * Receives the intermediate positions of an iterative layout and decides
+ * whether the layout should continue.
+ */
+public interface ProgressUpdate {
+
+	/**
+	 * Called after each completed iteration, on the thread running the layout.
+	 * The positions are the live positions of the minimizer and must be copied
+	 * if they are to be used after returning.
+	 * @param step         last completed iteration (1-based).
+	 * @param nrIterations total number of iterations.
+	 * @param pos          current layout position of each node.
+	 * @return false to cancel the layout, true to continue.
+	 */
+	public boolean update(int step, int nrIterations, float[][] pos);
+}
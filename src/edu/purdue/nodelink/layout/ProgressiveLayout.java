@@ -0,0 +1,29 @@
+/* ------------------------------------------------------------------
+ * ProgressiveLayout.java
+ *
+ * Layout that can report intermediate positions while it runs.
+ * ------------------------------------------------------------------
+ */
+package edu.purdue.nodelink.layout;
+
+import edu.purdue.pivotlib.graph.Graph;
+
+/**
+ * Layout that can run in the background and report its intermediate
+ * positions.  Unlike <code>layout(Graph, Dimension)</code>, the progressive
+ * variant does not touch the position columns of the graph, so it can run
+ * on a worker thread while the user interface owns the columns.
+ */
+public interface ProgressiveLayout extends Layout {
+
+	/**
+	 * Computes a layout of the given graph.
+	 * @param g        the graph (only read).
+	 * @param progress receives intermediate positions and may cancel the
+	 *                 layout; may be <code>null</code>.
+	 * @return unscaled layout position of each vertex, by row index; when
+	 *         cancelled, the positions reached so far.  Write them to the
+	 *         graph with <code>LayoutGraph.writePositions</code>.
+	 */
+	public float[][] layout(Graph g, ProgressUpdate progress);
+}
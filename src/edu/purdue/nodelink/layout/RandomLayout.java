@@ -9,8 +9,18 @@ import edu.purdue.pivotlib.graph.Graph;
 
 public class RandomLayout implements Layout {
 	
+	private long seed = 0L;
+	
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+	
+	public String toString() {
+		return "RandomLayout[seed=" + seed + "]";
+	}
+	
 	public void layout(Graph graph, Dimension dim) { 
-		Random random = new Random();
+		Random random = new Random(seed);
 
 		RealColumn xCol = (RealColumn) graph.getVertexTable().getColumn(NodeLinkGraph.X_COLUMN);
 		RealColumn yCol = (RealColumn) graph.getVertexTable().getColumn(NodeLinkGraph.Y_COLUMN);
@@ -0,0 +1,217 @@
+/* ------------------------------------------------------------------
+ * TreeLayout.java
+ *
+ * Linear-time radial layout for trees and forests.
+ * ------------------------------------------------------------------
+ */
+package edu.purdue.nodelink.layout;
+
+import java.awt.Dimension;
+
+import edu.purdue.pivotlib.graph.Graph;
+
+/**
+ * Radial tree layout.  The root of each tree is placed at the center and
+ * every node on the circle given by its depth; the angular wedge of each
+ * subtree is proportional to its number of leaves, so subtrees never
+ * overlap.  Forests are laid out as the subtrees of a virtual center node.
+ * Runs in time linear in the size of the graph and uses no recursion.
+ *
+ * The root of a tree is its vertex without incoming edges if there is
+ * exactly one, as when all edges point away from the root; otherwise, as
+ * when they point towards it, it is a center of the tree.  The layout is
+ * only meaningful for acyclic graphs; see {@link #isTree(Graph)}.
+ */
+public class TreeLayout implements ProgressiveLayout {
+
+	public void layout(Graph g, Dimension dim) {
+		float[][] positions = layout(new LayoutGraph(g), g);
+		LayoutGraph.writePositions(g, positions, dim);
+	}
+
+	/**
+	 * Computes the layout in a single pass; there are no intermediate
+	 * positions to report.
+	 */
+	public float[][] layout(Graph g, ProgressUpdate progress) {
+		return layout(new LayoutGraph(g), g);
+	}
+
+	/**
+	 * Computes the radial layout of the given forest.
+	 * @param graph layout graph of the forest.
+	 * @param g     the graph itself, used to find roots from edge directions.
+	 * @return position of each node.
+	 */
+	public float[][] layout(LayoutGraph graph, Graph g) {
+		int nodeNr = graph.getNodeCount();
+		int[][] attrIndexes = graph.getAttrIndexes();
+		int[] roots = findRoots(graph, g);
+
+		// Breadth-first order, parents and depths; roots hang off a virtual center
+		int[] order = new int[nodeNr];
+		int[] parent = new int[nodeNr];
+		int[] depth = new int[nodeNr];
+		for (int i = 0; i < nodeNr; i++) parent[i] = -2;
+		int rootDepth = roots.length > 1 ? 1 : 0;
+		int tail = 0;
+		for (int r = 0; r < roots.length; r++) {
+			parent[roots[r]] = -1;
+			depth[roots[r]] = rootDepth;
+			order[tail++] = roots[r];
+		}
+		for (int head = 0; head < tail; head++) {
+			int v = order[head];
+			for (int k = 0; k < attrIndexes[v].length; k++) {
+				int c = attrIndexes[v][k];
+				if (parent[c] != -2) continue;
+				parent[c] = v;
+				depth[c] = depth[v] + 1;
+				order[tail++] = c;
+			}
+		}
+
+		// Number of leaves below each node, bottom-up
+		int[] leaves = new int[nodeNr];
+		for (int o = tail - 1; o >= 0; o--) {
+			int v = order[o];
+			if (leaves[v] == 0) leaves[v] = 1;
+			if (parent[v] >= 0) leaves[parent[v]] += leaves[v];
+		}
+		int totalLeaves = 0;
+		for (int r = 0; r < roots.length; r++) totalLeaves += leaves[roots[r]];
+
+		// Assign angular wedges top-down: each node hands out consecutive
+		// parts of its wedge to its children in breadth-first order
+		double[] start = new double[nodeNr];
+		double[] next = new double[nodeNr];
+		double unit = 2 * Math.PI / Math.max(1, totalLeaves);
+		double rootNext = 0.0;
+		float[][] positions = new float[nodeNr][3];
+		for (int o = 0; o < tail; o++) {
+			int v = order[o];
+			if (parent[v] < 0) {
+				start[v] = rootNext;
+				rootNext += leaves[v] * unit;
+			}
+			else {
+				start[v] = next[parent[v]];
+				next[parent[v]] += leaves[v] * unit;
+			}
+			next[v] = start[v];
+			double angle = start[v] + 0.5 * leaves[v] * unit;
+			positions[v][0] = (float) (depth[v] * Math.cos(angle));
+			positions[v][1] = (float) (depth[v] * Math.sin(angle));
+		}
+		return positions;
+	}
+
+	public String toString() {
+		return "TreeLayout";
+	}
+
+	/**
+	 * Finds one root per connected component: the vertex without incoming
+	 * edges if it is the only one of the component, otherwise a center
+	 * found by peeling off leaves.  Edges pointing towards the root leave
+	 * every leaf without incoming edges, so a vertex that is not unique
+	 * says nothing about the root.
+	 */
+	private static int[] findRoots(LayoutGraph graph, Graph g) {
+		int nodeNr = graph.getNodeCount();
+		int[][] attrIndexes = graph.getAttrIndexes();
+		int[][] components = ComponentLayout.findComponents(graph);
+
+		boolean[] hasIncoming = new boolean[nodeNr];
+		for (int e = 0; e < g.getEdgeCount(); e++) {
+			int from = g.getFromColumn().getIntValueAt(e);
+			int to = g.getToColumn().getIntValueAt(e);
+			if (from != to) hasIncoming[to] = true;
+		}
+
+		// Leaf peeling: the last vertex removed in each component is a center
+		int[] degree = new int[nodeNr];
+		int[] queue = new int[nodeNr];
+		boolean[] removed = new boolean[nodeNr];
+		int tail = 0;
+		for (int i = 0; i < nodeNr; i++) {
+			for (int k = 0; k < attrIndexes[i].length; k++) {
+				if (attrIndexes[i][k] != i) degree[i]++;
+			}
+			if (degree[i] <= 1) queue[tail++] = i;
+		}
+		int[] lastRemoved = new int[nodeNr];
+		for (int head = 0; head < tail; head++) {
+			int v = queue[head];
+			removed[v] = true;
+			lastRemoved[v] = head;
+			for (int k = 0; k < attrIndexes[v].length; k++) {
+				int w = attrIndexes[v][k];
+				if (w == v || removed[w]) continue;
+				if (--degree[w] == 1) queue[tail++] = w;
+			}
+		}
+
+		int[] roots = new int[components.length];
+		for (int c = 0; c < components.length; c++) {
+			int root = -1, sources = 0;
+			for (int i : components[c]) {
+				if (!hasIncoming[i] && sources++ == 0) root = i;
+			}
+			if (sources != 1) {
+				root = components[c][0];
+				for (int i : components[c]) {
+					if (removed[i] && lastRemoved[i] > lastRemoved[root]) root = i;
+				}
+			}
+			roots[c] = root;
+		}
+		return roots;
+	}
+
+	/**
+	 * Returns whether the graph is a tree: connected, with one undirected
+	 * edge less than it has vertices, and without cycles.  Edge directions,
+	 * duplicate edges and the reverse edges added by
+	 * <code>expandUndirected</code> are ignored.
+	 * @param g the graph.
+	 * @return true if the graph is a tree.
+	 */
+	public static boolean isTree(Graph g) {
+		if (g.getVertexCount() == 0) return false;
+		LayoutGraph graph = new LayoutGraph(g);
+		return countForestEdges(graph) == graph.getNodeCount() - 1;
+	}
+
+	/**
+	 * Returns whether the graph is a forest, i.e. has no cycles.
+	 * @param g the graph.
+	 * @return true if the graph is a forest.
+	 */
+	public static boolean isForest(Graph g) {
+		return countForestEdges(new LayoutGraph(g)) >= 0;
+	}
+
+	/**
+	 * Counts the undirected edges of an acyclic graph.
+	 * @return the number of undirected edges, 
+	 *         or -1 if the graph contains a cycle or self-loop.
+	 */
+	private static int countForestEdges(LayoutGraph graph) {
+		int nodeNr = graph.getNodeCount();
+		int[][] attrIndexes = graph.getAttrIndexes();
+		int[] parent = new int[nodeNr];
+		for (int i = 0; i < nodeNr; i++) parent[i] = i;
+		int edgeNr = 0;
+		for (int i = 0; i < nodeNr; i++) {
+			for (int k = 0; k < attrIndexes[i].length; k++) {
+				int j = attrIndexes[i][k];
+				if (j == i) return -1;
+				if (j < i) continue;
+				if (!ComponentLayout.union(parent, i, j)) return -1;
+				edgeNr++;
+			}
+		}
+		return edgeNr;
+	}
+}
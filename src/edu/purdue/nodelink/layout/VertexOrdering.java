@@ -0,0 +1,290 @@
+/* ------------------------------------------------------------------
+ * VertexOrdering.java
+ *
+ * Locality-improving vertex orderings for the layout arrays.
+ * ------------------------------------------------------------------
+ */
+package edu.purdue.nodelink.layout;
+
+import java.util.Arrays;
+
+/**
+ * Renumbers the nodes of a layout graph so that nodes that interact are
+ * close together in memory.  Vertex ids come in file order, so the
+ * neighbor accesses of the minimizer otherwise jump randomly through the
+ * position arrays, which is slow once they no longer fit in the cache.
+ *
+ * An ordering is an array <code>order</code> where <code>order[k]</code>
+ * is the original index (table row) of the node that gets the new index
+ * <code>k</code>.
+ */
+public class VertexOrdering {
+
+	public enum Method {
+		/** Keep the original order. */
+		NONE,
+		/** Breadth-first order, component by component. */
+		BFS,
+		/** Reverse Cuthill-McKee: breadth-first by increasing degree from a peripheral node, reversed. */
+		RCM,
+		/** Order along a Hilbert curve over the initial positions. */
+		HILBERT
+	}
+
+	private VertexOrdering() {}
+
+	/**
+	 * Computes an ordering with the given method.
+	 * @param method    the method.
+	 * @param graph     the layout graph.
+	 * @param positions node positions; only used by <code>HILBERT</code>.
+	 * @return the ordering, or <code>null</code> for <code>NONE</code>.
+	 */
+	public static int[] compute(Method method, LayoutGraph graph, float[][] positions) {
+		switch (method) {
+		case BFS: return breadthFirst(graph);
+		case RCM: return reverseCuthillMcKee(graph);
+		case HILBERT: return hilbert(positions);
+		default: return null;
+		}
+	}
+
+	/**
+	 * Breadth-first order; every component starts at its lowest index.
+	 */
+	public static int[] breadthFirst(LayoutGraph graph) {
+		int nodeNr = graph.getNodeCount();
+		int[][] attrIndexes = graph.getAttrIndexes();
+		int[] order = new int[nodeNr];
+		boolean[] visited = new boolean[nodeNr];
+		int cnt = 0;
+		for (int start = 0; start < nodeNr; start++) {
+			if (visited[start]) continue;
+			visited[start] = true;
+			int head = cnt;
+			order[cnt++] = start;
+			while (head < cnt) {
+				int i = order[head++];
+				for (int k = 0; k < attrIndexes[i].length; k++) {
+					int j = attrIndexes[i][k];
+					if (!visited[j]) {
+						visited[j] = true;
+						order[cnt++] = j;
+					}
+				}
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * Reverse Cuthill-McKee order.  Each component starts from a
+	 * pseudo-peripheral node: a node of minimum degree in the last level
+	 * of a breadth-first search from a node of minimum degree.
+	 */
+	public static int[] reverseCuthillMcKee(LayoutGraph graph) {
+		int nodeNr = graph.getNodeCount();
+		int[][] attrIndexes = graph.getAttrIndexes();
+		int[] order = new int[nodeNr];
+		boolean[] visited = new boolean[nodeNr];
+		int[] level = new int[nodeNr];
+		int[] scratch = new int[nodeNr];
+		int[] neighbors = new int[16];
+
+		// Components in order of their minimum degree node (counting sort by degree)
+		int maxDegree = 0;
+		for (int i = 0; i < nodeNr; i++) maxDegree = Math.max(maxDegree, attrIndexes[i].length);
+		int[] degreeStart = new int[maxDegree + 2];
+		for (int i = 0; i < nodeNr; i++) degreeStart[attrIndexes[i].length + 1]++;
+		for (int d = 0; d <= maxDegree; d++) degreeStart[d + 1] += degreeStart[d];
+		int[] byDegree = new int[nodeNr];
+		for (int i = 0; i < nodeNr; i++) byDegree[degreeStart[attrIndexes[i].length]++] = i;
+
+		int cnt = 0;
+		for (int s = 0; s < nodeNr; s++) {
+			int start = byDegree[s];
+			if (visited[start]) continue;
+			start = peripheralNode(attrIndexes, start, visited, level, scratch);
+
+			visited[start] = true;
+			int head = cnt;
+			order[cnt++] = start;
+			while (head < cnt) {
+				int i = order[head++];
+
+				// Unvisited neighbors by increasing degree
+				int count = 0;
+				for (int k = 0; k < attrIndexes[i].length; k++) {
+					int j = attrIndexes[i][k];
+					if (visited[j]) continue;
+					visited[j] = true;
+					if (count == neighbors.length) {
+						int[] grown = new int[2 * count];
+						System.arraycopy(neighbors, 0, grown, 0, count);
+						neighbors = grown;
+					}
+					neighbors[count++] = j;
+				}
+				for (int a = 1; a < count; a++) {
+					int j = neighbors[a], b = a - 1;
+					while (b >= 0 && attrIndexes[neighbors[b]].length > attrIndexes[j].length) {
+						neighbors[b + 1] = neighbors[b];
+						b--;
+					}
+					neighbors[b + 1] = j;
+				}
+				for (int a = 0; a < count; a++) order[cnt++] = neighbors[a];
+			}
+		}
+
+		// Reverse
+		for (int a = 0, b = nodeNr - 1; a < b; a++, b--) {
+			int tmp = order[a]; order[a] = order[b]; order[b] = tmp;
+		}
+		return order;
+	}
+
+	/**
+	 * Finds a pseudo-peripheral node of the component of <code>start</code>
+	 * among the unvisited nodes, with two rounds of breadth-first search.
+	 */
+	private static int peripheralNode(int[][] attrIndexes, int start, boolean[] visited, int[] level, int[] queue) {
+		for (int round = 0; round < 2; round++) {
+			Arrays.fill(level, -1);
+			level[start] = 0;
+			int head = 0, cnt = 0;
+			queue[cnt++] = start;
+			while (head < cnt) {
+				int i = queue[head++];
+				for (int k = 0; k < attrIndexes[i].length; k++) {
+					int j = attrIndexes[i][k];
+					if (level[j] < 0 && !visited[j]) {
+						level[j] = level[i] + 1;
+						queue[cnt++] = j;
+					}
+				}
+			}
+			int last = level[queue[cnt - 1]];
+			int best = start;
+			for (int k = cnt - 1; k >= 0 && level[queue[k]] == last; k--) {
+				if (best == start || attrIndexes[queue[k]].length < attrIndexes[best].length) best = queue[k];
+			}
+			if (best == start) break;
+			start = best;
+		}
+		return start;
+	}
+
+	/**
+	 * Order along a Hilbert curve over the x and y coordinates.
+	 */
+	public static int[] hilbert(float[][] positions) {
+		int nodeNr = positions.length;
+		float minX = Float.MAX_VALUE, maxX = -Float.MAX_VALUE;
+		float minY = Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+		for (int i = 0; i < nodeNr; i++) {
+			minX = Math.min(minX, positions[i][0]); maxX = Math.max(maxX, positions[i][0]);
+			minY = Math.min(minY, positions[i][1]); maxY = Math.max(maxY, positions[i][1]);
+		}
+		float scale = 65535.0f / Math.max(Math.max(maxX - minX, maxY - minY), Float.MIN_VALUE);
+
+		// Sort by curve index, with the node index in the low bits
+		long[] keys = new long[nodeNr];
+		for (int i = 0; i < nodeNr; i++) {
+			int x = (int) ((positions[i][0] - minX) * scale);
+			int y = (int) ((positions[i][1] - minY) * scale);
+			keys[i] = (hilbertIndex(x, y) << 31) | i;
+		}
+		Arrays.sort(keys);
+		int[] order = new int[nodeNr];
+		for (int k = 0; k < nodeNr; k++) order[k] = (int) (keys[k] & 0x7FFFFFFFL);
+		return order;
+	}
+
+	/**
+	 * Returns the index of the point (x, y) on the Hilbert curve over a
+	 * 65536 x 65536 grid.
+	 */
+	static long hilbertIndex(int x, int y) {
+		final int n = 1 << 16;
+		long d = 0;
+		for (int s = n / 2; s > 0; s >>= 1) {
+			int rx = (x & s) > 0 ? 1 : 0;
+			int ry = (y & s) > 0 ? 1 : 0;
+			d += (long) s * s * ((3 * rx) ^ ry);
+			if (ry == 0) {
+				if (rx == 1) {
+					x = n - 1 - x;
+					y = n - 1 - y;
+				}
+				int t = x; x = y; y = t;
+			}
+		}
+		return d;
+	}
+
+	/**
+	 * Returns the inverse of an ordering: the new index of each original node.
+	 */
+	public static int[] inverse(int[] order) {
+		int[] rank = new int[order.length];
+		for (int k = 0; k < order.length; k++) rank[order[k]] = k;
+		return rank;
+	}
+
+	/**
+	 * Renumbers the nodes of a layout graph.
+	 * @param graph the layout graph.
+	 * @param order the ordering.
+	 * @return the graph whose node <code>k</code> is node <code>order[k]</code>
+	 *         of the given graph, with sorted neighbor lists.
+	 */
+	public static LayoutGraph permute(LayoutGraph graph, int[] order) {
+		int nodeNr = graph.getNodeCount();
+		int[] rank = inverse(order);
+		int[][] attrIndexes = graph.getAttrIndexes();
+		float[][] attrWeights = graph.getAttrWeights();
+		float[] repuWeights = graph.getRepuWeights();
+		int[][] newIndexes = new int[nodeNr][];
+		float[][] newWeights = new float[nodeNr][];
+		float[] newRepu = new float[nodeNr];
+		long[] keys = new long[0];
+		for (int k = 0; k < nodeNr; k++) {
+			int i = order[k];
+			int degree = attrIndexes[i].length;
+			if (keys.length < degree) keys = new long[Math.max(degree, 2 * keys.length)];
+			for (int l = 0; l < degree; l++) {
+				keys[l] = ((long) rank[attrIndexes[i][l]] << 32) | l;
+			}
+			Arrays.sort(keys, 0, degree);
+			newIndexes[k] = new int[degree];
+			newWeights[k] = new float[degree];
+			for (int l = 0; l < degree; l++) {
+				newIndexes[k][l] = (int) (keys[l] >>> 32);
+				newWeights[k][l] = attrWeights[i][(int) keys[l]];
+			}
+			newRepu[k] = repuWeights[i];
+		}
+		return new LayoutGraph(newIndexes, newWeights, newRepu);
+	}
+
+	/**
+	 * Puts rows into the new order: <code>result[k]</code> is a copy of
+	 * <code>rows[order[k]]</code>, so the rows are also allocated in the new order.
+	 */
+	public static float[][] permute(float[][] rows, int[] order) {
+		float[][] result = new float[order.length][];
+		for (int k = 0; k < order.length; k++) result[k] = rows[order[k]].clone();
+		return result;
+	}
+
+	/**
+	 * Puts rows back into the original order: <code>result[order[k]] = rows[k]</code>.
+	 * The rows themselves are not copied.
+	 */
+	public static float[][] restore(float[][] rows, int[] order) {
+		float[][] result = new float[order.length][];
+		for (int k = 0; k < order.length; k++) result[order[k]] = rows[k];
+		return result;
+	}
+}
@@ -3,6 +3,8 @@ package edu.purdue.nodelink.ui;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
@@ -14,12 +16,16 @@ import java.awt.geom.Point2D;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
+import java.util.concurrent.locks.Lock;
+
+import javax.swing.Timer;
 
 import edu.purdue.nodelink.aggregation.AggGraph;
 import edu.purdue.nodelink.layout.Layout;
 import edu.purdue.nodelink.visualization.AggNodeLinkGraph;
+import edu.purdue.nodelink.visualization.TiledLayer;
+import edu.umd.cs.piccolo.PCamera;
 import edu.umd.cs.piccolo.PCanvas;
-import edu.umd.cs.piccolo.PLayer;
 import edu.umd.cs.piccolo.PNode;
 import edu.umd.cs.piccolo.event.PBasicInputEventHandler;
 import edu.umd.cs.piccolo.event.PInputEvent;
@@ -29,14 +35,43 @@ import edu.umd.cs.piccolo.nodes.PPath;
 public class AggNodeLinkCanvas extends PCanvas implements PropertyChangeListener {
 	
 	private static final long serialVersionUID = 1L;
-	private PLayer nodeLayer, edgeLayer;
+	private TiledLayer sceneLayer;
 	private AggNodeLinkGraph nodeLinkGraph;
+	/// Whether the aggregation follows the camera scale instead of the mouse wheel
+	private boolean semanticZoom = false;
+	private LayoutRunner layoutRunner = new LayoutRunner() {
+		protected void showPositions(double[] x, double[] y) {
+			if (nodeLinkGraph != null) nodeLinkGraph.setPositions(x, y);
+		}
+		protected void positionsChanged() {
+			nodeLinkGraph.getGraph().positionsChanged();
+		}
+	};
+	
+	/** Camera scale factor of one mouse wheel step in semantic zoom mode. */
+	private static final double WHEEL_ZOOM = 1.25;
+	
+	/** Shortest time between two semantic zoom passes while the view changes, in milliseconds. */
+	private static final int SEMANTIC_ZOOM_MILLIS = 100;
+	
+	/// Applies the semantic zoom once for all view changes since it was started
+	private Timer semanticZoomTimer = new Timer(SEMANTIC_ZOOM_MILLIS, new ActionListener() {
+		public void actionPerformed(ActionEvent e) {
+			applySemanticZoom();
+		}
+	});
 	
 	private class AggControlTool implements KeyListener {
-		public void keyPressed(KeyEvent e) {}
+		public void keyPressed(KeyEvent e) {
+			if (e.getKeyCode() == KeyEvent.VK_ESCAPE) cancelLayout();
+		}
 		public void keyReleased(KeyEvent e) {}
 		public void keyTyped(KeyEvent e) {
-			if (Character.isDigit(e.getKeyChar())) { 
+			if (isLayoutRunning()) return;
+			if (e.getKeyChar() == 'z') { 
+				setSemanticZoom(!semanticZoom);
+			}
+			else if (Character.isDigit(e.getKeyChar())) { 
 				int level = e.getKeyChar() - '0';
 				if (level == 0) level = 10;
 				nodeLinkGraph.setVisibleItemRatio(level / 10.0);
@@ -143,18 +178,34 @@ public class AggNodeLinkCanvas extends PCanvas implements PropertyChangeListener
 
 	public AggNodeLinkCanvas(int width, int height) {
         setPreferredSize(new Dimension(width, height));
+        semanticZoomTimer.setRepeats(false);
 
-        // Initialize, and create a layer for the edges (always underneath the nodes)
-        nodeLayer = getLayer();
-        edgeLayer = new PLayer();
-        getRoot().addChild(edgeLayer);
-        getCamera().addLayer(0, edgeLayer);
+        // Replace the default layer by one that caches the scene in tiles; 
+        // the edges are added first, so they are always underneath the nodes
+        getRoot().removeChild(getCamera().removeLayer(0));
+        sceneLayer = new TiledLayer();
+        getRoot().addChild(sceneLayer);
+        getCamera().addLayer(sceneLayer);
+        
+        // Only materialize the hulls near the camera view
+        PropertyChangeListener viewListener = new PropertyChangeListener() {
+			public void propertyChange(PropertyChangeEvent evt) {
+				viewChanged();
+			}
+        };
+        getCamera().addPropertyChangeListener(PCamera.PROPERTY_VIEW_TRANSFORM, viewListener);
+        getCamera().addPropertyChangeListener(PNode.PROPERTY_BOUNDS, viewListener);
         
         // Add a mouse wheel listener
         addMouseWheelListener(new MouseWheelListener() {
 			public void mouseWheelMoved(MouseWheelEvent e) {
-				if (nodeLinkGraph == null) return;
-				if (e.getWheelRotation() < 0) {
+				if (nodeLinkGraph == null || isLayoutRunning()) return;
+				if (semanticZoom) { 
+					Point2D p = getCamera().localToView(new Point2D.Double(e.getX(), e.getY()));
+					double factor = Math.pow(WHEEL_ZOOM, -e.getWheelRotation());
+					getCamera().scaleViewAboutPoint(factor, p.getX(), p.getY());
+				}
+				else if (e.getWheelRotation() < 0) {
 					nodeLinkGraph.drillDown(1);
 				}
 				else { 
@@ -176,27 +227,102 @@ public class AggNodeLinkCanvas extends PCanvas implements PropertyChangeListener
 	}
 	
 	public void setGraph(AggGraph graph) { 
+		Lock sceneLock = sceneLayer.getSceneLock().writeLock();
 		
 		if (nodeLinkGraph != null) { 
-			nodeLayer.removeAllChildren();
-			edgeLayer.removeAllChildren();
+			layoutRunner.reset();
+			sceneLock.lock();
+			try { 
+				sceneLayer.removeAllChildren();
+			}
+			finally { 
+				sceneLock.unlock();
+			}
 			nodeLinkGraph.getGraph().removePropertyChangeListener(this);
 		}
 		
 		// Create the new graph
 		nodeLinkGraph = new AggNodeLinkGraph(graph);
+		nodeLinkGraph.setSceneLock(sceneLock);
 		graph.addPropertyChangeListener(this);
 
-		// Add the roots to the layers
-        nodeLayer.addChild(nodeLinkGraph.getNodeRoot());
-        edgeLayer.addChild(nodeLinkGraph.getEdgeRoot());
+		// Add the roots to the layer
+		sceneLock.lock();
+		try { 
+			sceneLayer.addChild(nodeLinkGraph.getEdgeRoot());
+			sceneLayer.addChild(nodeLinkGraph.getNodeRoot());
+		}
+		finally { 
+			sceneLock.unlock();
+		}
+        viewChanged();
+	}
+	
+	/**
+	 * Switches semantic zoom on or off.  In semantic zoom, the mouse wheel
+	 * zooms the camera and the aggregation is chosen from the camera scale 
+	 * (see <code>AggNodeLinkGraph.applySemanticZoom</code>); otherwise the
+	 * wheel rolls up and drills down the aggregation.
+	 */
+	public void setSemanticZoom(boolean semanticZoom) { 
+		this.semanticZoom = semanticZoom;
+		viewChanged();
+	}
+	
+	public boolean isSemanticZoom() { 
+		return semanticZoom;
+	}
+	
+	/**
+	 * Follows a change of the camera.  The hulls near the view are updated
+	 * at once; the semantic zoom, which walks the whole aggregation, runs at
+	 * most once per <code>SEMANTIC_ZOOM_MILLIS</code> for a stream of camera
+	 * changes such as a drag or a zoom animation.
+	 */
+	private void viewChanged() { 
+		if (nodeLinkGraph == null) return;
+		if (semanticZoom && !semanticZoomTimer.isRunning()) { 
+			semanticZoomTimer.start();
+		}
+		nodeLinkGraph.setViewBounds(getCamera().getViewBounds());
+	}
+	
+	private void applySemanticZoom() { 
+		if (nodeLinkGraph == null || !semanticZoom || isLayoutRunning()) return;
+		nodeLinkGraph.applySemanticZoom(getCamera().getViewBounds(), getCamera().getViewScale());
+		nodeLinkGraph.setViewBounds(getCamera().getViewBounds());
 	}
 	
 	public void layout(Layout layout) { 
 		if (nodeLinkGraph != null) { 
 			layout.layout(nodeLinkGraph.getGraph().getGraph(), getSize());
+			nodeLinkGraph.getGraph().positionsChanged();
 		}
 	}
+	
+	/**
+	 * Runs the layout on a background thread.  Progressive layouts stream
+	 * their intermediate positions, which the canvas animates between.
+	 * A running layout is cancelled first.
+	 * @param layout     the layout.
+	 * @param onFinished run on the event thread once the positions are final,
+	 *                   also if the layout failed; may be null.
+	 */
+	public void layoutAsync(Layout layout, Runnable onFinished) { 
+		if (nodeLinkGraph == null) return;
+		layoutRunner.start(nodeLinkGraph.getGraph().getGraph(), layout, getSize(), onFinished);
+	}
+	
+	/**
+	 * Cancels the running background layout; the positions reached so far are kept.
+	 */
+	public void cancelLayout() { 
+		layoutRunner.cancel();
+	}
+	
+	public boolean isLayoutRunning() { 
+		return layoutRunner.isRunning();
+	}
 
 	public void propertyChange(PropertyChangeEvent evt) {
 		repaint();
@@ -0,0 +1,112 @@
+/* ------------------------------------------------------------------
+ * LayoutRunner.java
+ *
+ * Runs the layouts of a view in the background and animates them.
+ * ------------------------------------------------------------------
+ */
+package edu.purdue.nodelink.ui;
+
+import java.awt.Dimension;
+
+import edu.purdue.nodelink.layout.Layout;
+import edu.purdue.nodelink.layout.LayoutGraph;
+import edu.purdue.pivotlib.graph.Graph;
+
+/**
+ * Runs the layouts of one view on a <code>LayoutWorker</code>, one at a
+ * time, and animates the view between their snapshots.  The view supplies
+ * how intermediate positions are shown and how it takes up the positions
+ * stored in the graph once a layout has ended, whether it finished, was
+ * cancelled or failed.  All methods must be called on the Swing event thread.
+ */
+public abstract class LayoutRunner {
+
+	/** Iterations and milliseconds between two layout snapshots. */
+	private static final int SNAPSHOT_ITERATIONS = 5;
+	private static final int SNAPSHOT_MILLIS = 200;
+
+	private LayoutWorker worker;
+	private PositionAnimator animator = new PositionAnimator() {
+		protected void apply(double[] x, double[] y) {
+			showPositions(x, y);
+		}
+	};
+
+	/**
+	 * Shows intermediate positions without storing them in the graph.
+	 * @param x x coordinate of each vertex, by row index.
+	 * @param y y coordinate of each vertex, by row index.
+	 */
+	protected abstract void showPositions(double[] x, double[] y);
+
+	/**
+	 * Shows the positions stored in the position columns of the graph.
+	 */
+	protected abstract void positionsChanged();
+
+	/**
+	 * Runs a layout on a background thread.  Progressive layouts stream
+	 * their intermediate positions, which are animated between.  A running
+	 * layout is cancelled first.
+	 * @param graph      graph to lay out.
+	 * @param layout     the layout.
+	 * @param dim        target dimension.
+	 * @param onFinished run once the positions are final, also if the
+	 *                   layout failed; may be null.
+	 */
+	public void start(final Graph graph, final Layout layout, final Dimension dim, final Runnable onFinished) {
+		cancel();
+		final LayoutWorker[] current = new LayoutWorker[1];
+		animator.reset();
+		current[0] = new LayoutWorker(graph, layout, dim, new LayoutWorker.Listener() {
+			public void snapshot(float[][] positions) {
+				if (current[0] != worker) return;
+				double[] x = new double[positions.length];
+				double[] y = new double[positions.length];
+				LayoutGraph.fitPositions(positions, dim, x, y);
+				animator.animateTo(x, y, SNAPSHOT_MILLIS);
+			}
+			public void finished(float[][] positions, boolean cancelled) {
+				if (current[0] != worker) return;
+				if (positions != null) LayoutGraph.writePositions(graph, positions, dim);
+				ended(onFinished);
+			}
+			public void failed(Throwable error) {
+				if (current[0] != worker) return;
+				System.err.println("Layout " + layout + " failed: " + error);
+				ended(onFinished);
+			}
+		});
+		current[0].setSnapshotInterval(SNAPSHOT_ITERATIONS, SNAPSHOT_MILLIS);
+		worker = current[0];
+		worker.start();
+	}
+
+	private void ended(Runnable onFinished) {
+		worker = null;
+		animator.stop();
+		positionsChanged();
+		if (onFinished != null) onFinished.run();
+	}
+
+	/**
+	 * Cancels the running layout; the positions reached so far are kept.
+	 */
+	public void cancel() {
+		if (worker != null) worker.cancel();
+	}
+
+	/**
+	 * Cancels the running layout and ignores its results, for when the
+	 * view is about to show another graph.
+	 */
+	public void reset() {
+		cancel();
+		worker = null;
+		animator.reset();
+	}
+
+	public boolean isRunning() {
+		return worker != null;
+	}
+}
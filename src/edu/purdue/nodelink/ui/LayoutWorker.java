@@ -0,0 +1,168 @@
+/* ------------------------------------------------------------------
+ * LayoutWorker.java
+ *
+ * Background thread running a layout and streaming its progress to
+ * the Swing event thread.
+ * ------------------------------------------------------------------
+ */
+package edu.purdue.nodelink.ui;
+
+import java.awt.Dimension;
+
+import javax.swing.SwingUtilities;
+
+import edu.purdue.nodelink.layout.CachedLayout;
+import edu.purdue.nodelink.layout.Layout;
+import edu.purdue.nodelink.layout.LayoutGraph;
+import edu.purdue.nodelink.layout.ProgressUpdate;
+import edu.purdue.nodelink.layout.ProgressiveLayout;
+import edu.purdue.pivotlib.graph.Graph;
+
+/**
+ * Runs a layout on a background thread.  A <code>ProgressiveLayout</code>
+ * publishes a copy of its positions every <code>snapshotIterations</code>
+ * iterations or <code>snapshotMillis</code> milliseconds, whichever comes
+ * first, and can be cancelled between iterations.  Other layouts run to
+ * completion on a copy of the graph, made when the worker is created, so
+ * that the position columns of the graph are only written on the Swing
+ * event thread, by the listener.
+ *
+ * All listener calls are made on the Swing event thread, and every run
+ * ends with a call to either <code>finished</code> or <code>failed</code>.
+ */
+public class LayoutWorker extends Thread implements ProgressUpdate {
+
+	/**
+	 * Receives the results of a layout worker on the Swing event thread.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called with intermediate positions of a progressive layout.
+		 * @param positions unscaled layout positions, by row index.
+		 */
+		public void snapshot(float[][] positions);
+
+		/**
+		 * Called once the layout has finished or has been cancelled.
+		 * @param positions unscaled layout positions, by row index; if the
+		 *                  layout was not progressive, the positions it wrote
+		 *                  to the copy of the graph, already fitted to the
+		 *                  target dimension.
+		 * @param cancelled true if the layout was cancelled.
+		 */
+		public void finished(float[][] positions, boolean cancelled);
+
+		/**
+		 * Called instead of <code>finished</code> if the layout threw;
+		 * the positions of the graph are unchanged.
+		 * @param error what the layout threw.
+		 */
+		public void failed(Throwable error);
+	}
+
+	private Graph graph;
+	private Graph copy;
+	private Layout layout;
+	private Dimension dim;
+	private Listener listener;
+	private int snapshotIterations = 5;
+	private long snapshotMillis = 200;
+	private volatile boolean cancelled = false;
+	private int lastStep = 0;
+	private long lastTime;
+
+	/**
+	 * Creates a worker; call <code>start()</code> to run it.  Copies the
+	 * graph if the layout is not progressive, so it must be called on the
+	 * thread that owns the graph, normally the Swing event thread.
+	 * @param graph    graph to lay out; its structure must not change while the worker runs.
+	 * @param layout   the layout.
+	 * @param dim      target dimension, for layouts that are not progressive.
+	 * @param listener receives snapshots and the final result.
+	 */
+	public LayoutWorker(Graph graph, Layout layout, Dimension dim, Listener listener) {
+		super("LayoutWorker");
+		setDaemon(true);
+		this.graph = graph;
+		this.layout = layout;
+		this.dim = dim;
+		this.listener = listener;
+		if (!isProgressive(layout)) copy = LayoutGraph.copyForLayout(graph);
+	}
+
+	/**
+	 * Sets how often snapshots are published.
+	 * @param iterations publish after this many iterations...
+	 * @param millis     ...or after this many milliseconds, whichever comes first.
+	 */
+	public void setSnapshotInterval(int iterations, long millis) {
+		this.snapshotIterations = Math.max(1, iterations);
+		this.snapshotMillis = millis;
+	}
+
+	/**
+	 * Asks the layout to stop after its current iteration.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	public static boolean isProgressive(Layout layout) {
+		if (layout instanceof CachedLayout) return ((CachedLayout) layout).isProgressive();
+		return layout instanceof ProgressiveLayout;
+	}
+
+	public void run() {
+		float[][] positions = null;
+		Throwable error = null;
+		lastTime = System.currentTimeMillis();
+		try {
+			if (isProgressive(layout)) {
+				positions = ((ProgressiveLayout) layout).layout(graph, this);
+			}
+			else {
+				layout.layout(copy, dim);
+				positions = LayoutGraph.readPositions(copy);
+			}
+		}
+		catch (Throwable e) {
+			error = e;
+		}
+		finally {
+			final float[][] result = positions;
+			final Throwable failure = error;
+			final boolean wasCancelled = cancelled;
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					if (failure != null) listener.failed(failure);
+					else listener.finished(result, wasCancelled);
+				}
+			});
+		}
+	}
+
+	public boolean update(int step, int nrIterations, float[][] pos) {
+		if (cancelled) return false;
+		long now = System.currentTimeMillis();
+		if (step < nrIterations && (step - lastStep >= snapshotIterations || now - lastTime >= snapshotMillis)) {
+			lastStep = step;
+			lastTime = now;
+			final float[][] snapshot = new float[pos.length][2];
+			for (int i = 0; i < pos.length; i++) {
+				snapshot[i][0] = pos[i][0];
+				snapshot[i][1] = pos[i][1];
+			}
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					if (!cancelled) listener.snapshot(snapshot);
+				}
+			});
+		}
+		return !cancelled;
+	}
+}
@@ -13,6 +13,14 @@ public class NodeLinkCanvas extends PCanvas {
 	private static final long serialVersionUID = 1L;
 	private PLayer nodeLayer, edgeLayer;
 	private NodeLinkGraph nodeLinkGraph;
+	private LayoutRunner layoutRunner = new LayoutRunner() {
+		protected void showPositions(double[] x, double[] y) {
+			if (nodeLinkGraph != null) nodeLinkGraph.setPositions(x, y);
+		}
+		protected void positionsChanged() {
+			nodeLinkGraph.update();
+		}
+	};
 
 	public NodeLinkCanvas(int width, int height) {
         setPreferredSize(new Dimension(width, height));
@@ -31,6 +39,7 @@ public class NodeLinkCanvas extends PCanvas {
 	public void setGraph(Graph g) { 
 		
 		if (nodeLinkGraph != null) { 
+			layoutRunner.reset();
 			nodeLayer.removeAllChildren();
 			edgeLayer.removeAllChildren();
 		}
@@ -49,4 +58,28 @@ public class NodeLinkCanvas extends PCanvas {
 			nodeLinkGraph.update();
 		}
 	}
+	
+	/**
+	 * Runs the layout on a background thread.  Progressive layouts stream
+	 * their intermediate positions, which the canvas animates between.
+	 * A running layout is cancelled first.
+	 * @param layout     the layout.
+	 * @param onFinished run on the event thread once the positions are final,
+	 *                   also if the layout failed; may be null.
+	 */
+	public void layoutAsync(Layout layout, Runnable onFinished) { 
+		if (nodeLinkGraph == null) return;
+		layoutRunner.start(nodeLinkGraph.getGraph(), layout, getSize(), onFinished);
+	}
+	
+	/**
+	 * Cancels the running background layout; the positions reached so far are kept.
+	 */
+	public void cancelLayout() { 
+		layoutRunner.cancel();
+	}
+	
+	public boolean isLayoutRunning() { 
+		return layoutRunner.isRunning();
+	}
 }
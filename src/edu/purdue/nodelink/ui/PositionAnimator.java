@@ -0,0 +1,85 @@
+/* ------------------------------------------------------------------
+ * PositionAnimator.java
+ *
+ * Smooth transitions between successive node position snapshots.
+ * ------------------------------------------------------------------
+ */
+package edu.purdue.nodelink.ui;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.Timer;
+
+/**
+ * Interpolates node positions from the currently shown positions to a new
+ * target with a Swing timer.  A new target interrupts the running
+ * transition and starts from wherever it had got to, so a stream of
+ * layout snapshots becomes one continuous motion.
+ */
+public abstract class PositionAnimator implements ActionListener {
+
+	private static final int FRAME_MILLIS = 25;
+
+	private Timer timer = new Timer(FRAME_MILLIS, this);
+	private double[] startX, startY, targetX, targetY;
+	private double[] x, y;
+	private long startTime;
+	private long duration;
+
+	/**
+	 * Shows the given positions; called on the Swing event thread.
+	 * @param x x coordinate of each node.
+	 * @param y y coordinate of each node.
+	 */
+	protected abstract void apply(double[] x, double[] y);
+
+	/**
+	 * Starts a transition to the given positions.
+	 * @param x        target x coordinate of each node.
+	 * @param y        target y coordinate of each node.
+	 * @param duration length of the transition in milliseconds.
+	 */
+	public void animateTo(double[] x, double[] y, long duration) {
+		if (this.x == null || this.x.length != x.length || duration <= 0) {
+			timer.stop();
+			this.x = x.clone();
+			this.y = y.clone();
+			apply(this.x, this.y);
+			return;
+		}
+		startX = this.x.clone();
+		startY = this.y.clone();
+		targetX = x;
+		targetY = y;
+		startTime = System.currentTimeMillis();
+		this.duration = duration;
+		timer.start();
+	}
+
+	/**
+	 * Stops the running transition, leaving the nodes where they are.
+	 */
+	public void stop() {
+		timer.stop();
+	}
+
+	/**
+	 * Forgets the shown positions, so the next target is shown directly.
+	 */
+	public void reset() {
+		timer.stop();
+		x = y = null;
+	}
+
+	public void actionPerformed(ActionEvent e) {
+		double t = Math.min(1.0, (System.currentTimeMillis() - startTime) / (double) duration);
+		double s = t * t * (3.0 - 2.0 * t);
+		for (int i = 0; i < x.length; i++) {
+			x[i] = startX[i] + (targetX[i] - startX[i]) * s;
+			y[i] = startY[i] + (targetY[i] - startY[i]) * s;
+		}
+		apply(x, y);
+		if (t >= 1.0) timer.stop();
+	}
+}
@@ -3,11 +3,16 @@ package edu.purdue.nodelink.visualization;
 import java.awt.Color;
 import java.awt.event.MouseEvent;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Hashtable;
+import java.util.LinkedHashSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import edu.purdue.nodelink.aggregation.AggGraph;
 import edu.purdue.nodelink.aggregation.GraphHierAggregation;
@@ -25,11 +30,52 @@ public class AggNodeLinkGraph implements PropertyChangeListener {
 	
 	public static final double NODE_RADIUS = 5.0;
 	
+	/// Default on-screen spacing in pixels below which semantic zoom merges aggregates
+	public static final double SEMANTIC_SPACING = 16.0;
+	
 	private AggGraph agg;
+	/// Piccolo nodes of the materialized inner aggregates; leaves are glyphs in leafRoot
 	private Hashtable<AggGraph.AggNode, PNode> nodes = new Hashtable<AggGraph.AggNode, PNode>();
 	private Hashtable<PNode, AggGraph.AggNode> reverseNodes = new Hashtable<PNode, AggGraph.AggNode>();
-	private Hashtable<AggGraph.AggNode, Point2D> layout = new Hashtable<AggGraph.AggNode, Point2D>();
-	private PNode nodeRoot = new PNode(), edgeRoot = new PNode();
+	/// Edge slot of each pair of neighboring aggregates, stored under both endpoints
+	private Hashtable<AggGraph.AggNode, Hashtable<AggGraph.AggNode, Integer>> edges = new Hashtable<AggGraph.AggNode, Hashtable<AggGraph.AggNode, Integer>>();
+	private PNode nodeRoot = new PNode();
+	private BatchedGlyphNode leafRoot = new BatchedGlyphNode();
+	private BatchedEdgeNode edgeRoot = new BatchedEdgeNode();
+	/// Glyph slot of each vertex row (-1 if its leaf is not shown), and leaf of each glyph slot
+	private int[] leafGlyphs;
+	private AggGraph.AggNode[] glyphLeaves;
+	
+	/// Slot of each shown inner aggregate, its aggregate and hull bounding box by slot, and free slots
+	private Hashtable<AggGraph.AggNode, Integer> hullSlots = new Hashtable<AggGraph.AggNode, Integer>();
+	private AggGraph.AggNode[] slotHulls = new AggGraph.AggNode[16];
+	private float[] hullBoxes = new float[64];
+	private int hullSlotCount = 0;
+	private int[] freeHullSlots = new int[16];
+	private int freeHullCount = 0;
+	private SpatialIndex hullIndex = new SpatialIndex();
+	private boolean hullIndexDirty = false;
+	/// Camera view, and the region whose hulls have Piccolo nodes; null for everything
+	private Rectangle2D viewBounds = null, materialized = null;
+	/// On-screen spacing in pixels that semantic zoom maintains
+	private double semanticSpacing = SEMANTIC_SPACING;
+	/// Held while the scene changes, see setSceneLock
+	private Lock sceneLock = new ReentrantLock();
+	
+	/// Expands an aggregate when it is clicked
+	private PBasicInputEventHandler expandHandler = new PBasicInputEventHandler() {
+		public void mouseClicked(PInputEvent event) {
+			if (event.getButton() != MouseEvent.BUTTON1) return;
+			if (event.getPickedNode() == leafRoot) {
+				Point2D p = event.getPositionRelativeTo(leafRoot);
+				int glyph = leafRoot.pickGlyph(p.getX(), p.getY());
+				if (glyph != -1) expand(glyphLeaves[glyph]);
+			}
+			else {
+				expand(reverseNodes.get(event.getPickedNode()));
+			}
+		}
+	};
 		
 	public AggNodeLinkGraph(AggGraph graph) {
 		this.agg = graph;
@@ -42,11 +88,12 @@ public class AggNodeLinkGraph implements PropertyChangeListener {
 		graph.getGraph().getVertexTable().addColumn(xCol);		
 		graph.getGraph().getVertexTable().addColumn(yCol);
 		
-		// Initialize layout
-		for (int i = 0; i < graph.getAggregateCount(); i++) { 
-			AggGraph.AggNode node = graph.getNode(i);
-			layout.put(node, new Point2D.Double(0, 0));
-		}
+		// Leaves are drawn underneath the aggregate hulls
+		leafGlyphs = new int[graph.getVertexCount()];
+		glyphLeaves = new AggGraph.AggNode[graph.getVertexCount()];
+		Arrays.fill(leafGlyphs, -1);
+		leafRoot.addInputEventListener(expandHandler);
+		nodeRoot.addChild(leafRoot);
 		
 		// Build the graph 
 		buildGraph();
@@ -60,12 +107,56 @@ public class AggNodeLinkGraph implements PropertyChangeListener {
 		}
 		
 		// Add all the edges
+		buildEdges();
+	}
+	
+	private void buildEdges() { 
+		edgeRoot.removeAllEdges();
+		edges.clear();
 		for (int i = 0; i < agg.getAggregateCount(); i++) { 
-			AggGraph.AggNode node = agg.getNode(i);
-			for (AggGraph.AggNode neighbor : node.getNeighbors()) {
-				if (node == neighbor) continue;
-				addEdge(node, neighbor);
+			addEdges(agg.getNode(i));
+		}
+	}
+	
+	/**
+	 * Applies an aggregation change to the scene: removes the nodes and edges
+	 * of the replaced aggregates and adds nodes and edges for the new ones.
+	 * All other scene nodes are left alone.
+	 * @param beforeNodes aggregates that were removed from the graph.
+	 * @param afterNodes  aggregates that were added to the graph.
+	 */
+	private void applyChange(Collection<?> beforeNodes, Collection<?> afterNodes) { 
+		
+		// Remove the replaced aggregates and their incident edges
+		for (Object o : beforeNodes) { 
+			AggGraph.AggNode n = (AggGraph.AggNode) o;
+			if (!isShown(n)) continue;
+			if (n.isLeaf()) { 
+				int glyph = leafGlyphs[n.getItem(0)];
+				leafRoot.removeGlyph(glyph);
+				leafGlyphs[n.getItem(0)] = -1;
+				glyphLeaves[glyph] = null;
 			}
+			else { 
+				dematerialize(n);
+				freeHullSlot(hullSlots.remove(n));
+			}
+			Hashtable<AggGraph.AggNode, Integer> incident = edges.remove(n);
+			if (incident == null) continue;
+			for (AggGraph.AggNode neighbor : incident.keySet()) {
+				edgeRoot.removeEdge(incident.get(neighbor));
+				Hashtable<AggGraph.AggNode, Integer> neighborEdges = edges.get(neighbor);
+				if (neighborEdges != null) neighborEdges.remove(n);
+			}
+		}
+		
+		// Add the new aggregates, then route their edges
+		for (Object o : afterNodes) { 
+			AggGraph.AggNode n = (AggGraph.AggNode) o;
+			if (!isShown(n)) addNode(n);
+		}
+		for (Object o : afterNodes) { 
+			addEdges((AggGraph.AggNode) o);
 		}
 	}
 	
@@ -126,53 +217,265 @@ public class AggNodeLinkGraph implements PropertyChangeListener {
 		return edgeRoot;
 	}
 	
+	/**
+	 * Sets the lock that is held while the scene changes, such as the write
+	 * lock of the <code>TiledLayer</code> that paints the roots.
+	 */
+	public void setSceneLock(Lock lock) { 
+		this.sceneLock = lock;
+	}
+	
 	public void clear() { 
+		sceneLock.lock();
+		try { 
+			clearScene();
+		}
+		finally { 
+			sceneLock.unlock();
+		}
+	}
+	
+	private void clearScene() { 
 		nodeRoot.removeAllChildren();
-		edgeRoot.removeAllChildren();
+		nodeRoot.addChild(leafRoot);
+		leafRoot.removeAllGlyphs();
+		Arrays.fill(leafGlyphs, -1);
+		Arrays.fill(glyphLeaves, null);
+		edgeRoot.removeAllEdges();
 		nodes.clear();
 		reverseNodes.clear();
+		edges.clear();
+		hullSlots.clear();
+		Arrays.fill(slotHulls, null);
+		hullSlotCount = 0;
+		freeHullCount = 0;
+		hullIndexDirty = true;
 	}
 	
-	private PPath addNode(AggGraph.AggNode n) {
-
-		PPath node;
+	/**
+	 * Rebuilds the scene from the current aggregation and position columns.
+	 */
+	public void update() { 
+		sceneLock.lock();
+		try { 
+			clearScene();
+			buildGraph();
+		}
+		finally { 
+			sceneLock.unlock();
+		}
+	}
+	
+	/**
+	 * Moves the leaf nodes to the given positions (by vertex row) without
+	 * storing them in the position columns; used to show intermediate
+	 * layouts.  The edges of the leaves are moved along in their slots;
+	 * aggregate hulls are not changed until the next update.
+	 */
+	public void setPositions(double[] x, double[] y) { 
+		sceneLock.lock();
+		try { 
+			for (int i = 0; i < agg.getAggregateCount(); i++) { 
+				AggGraph.AggNode n = agg.getNode(i);
+				if (!n.isLeaf() || !isShown(n)) continue;
+				int item = n.getItem(0);
+				if (item < x.length) leafRoot.setPosition(leafGlyphs[item], x[item] + NODE_RADIUS, y[item] + NODE_RADIUS);
+			}
+			for (int i = 0; i < agg.getAggregateCount(); i++) { 
+				AggGraph.AggNode n = agg.getNode(i);
+				if (n.isLeaf() && isShown(n)) moveEdges(n);
+			}
+		}
+		finally { 
+			sceneLock.unlock();
+		}
+	}
+	
+	/**
+	 * Sets the part of the graph shown by the camera.  Only the aggregate
+	 * hulls that meet this region, plus a margin of half its size on every
+	 * side, have Piccolo nodes; the others are created when the view comes
+	 * near them.  Leaves and edges are drawn by the batched nodes, which
+	 * cull against the clip themselves.
+	 * @param view the view bounds in graph coordinates, or <code>null</code> or an
+	 *   empty rectangle to materialize all hulls.
+	 */
+	public void setViewBounds(Rectangle2D view) { 
+		if (view != null && view.isEmpty()) view = null;
+		viewBounds = view == null ? null : (Rectangle2D) view.clone();
+		if (view != null && materialized != null && materialized.contains(view)
+				&& 16 * view.getWidth() * view.getHeight() >= materialized.getWidth() * materialized.getHeight()) {
+			return;
+		}
+		sceneLock.lock();
+		try { 
+			updateMaterialized();
+		}
+		finally { 
+			sceneLock.unlock();
+		}
+	}
+	
+	/**
+	 * Creates the Piccolo nodes of the hulls in the region around the view and
+	 * removes those outside of it.
+	 */
+	private void updateMaterialized() { 
+		if (viewBounds == null) { 
+			materialized = null;
+		}
+		else { 
+			double w = viewBounds.getWidth(), h = viewBounds.getHeight(); 
+			materialized = new Rectangle2D.Double(viewBounds.getX() - w / 2, viewBounds.getY() - h / 2, 2 * w, 2 * h);
+		}
+		
+		// Find the hulls in the region
+		boolean[] wanted = new boolean[hullSlotCount];
+		int count = hullSlotCount;
+		int[] found = null;
+		if (materialized == null) { 
+			Arrays.fill(wanted, true);
+		}
+		else { 
+			if (hullIndexDirty) { 
+				hullIndex.build(hullBoxes, hullSlotCount);
+				hullIndexDirty = false;
+			}
+			found = hullIndex.query(materialized.getMinX(), materialized.getMinY(), materialized.getMaxX(), materialized.getMaxY());
+			count = found.length;
+			for (int k = 0; k < count; k++) wanted[found[k]] = true;
+		}
+		
+		// Remove the nodes outside the region, then add those inside
+		for (AggGraph.AggNode n : new ArrayList<AggGraph.AggNode>(nodes.keySet())) { 
+			if (!wanted[hullSlots.get(n)]) dematerialize(n);
+		}
+		for (int k = 0; k < count; k++) { 
+			AggGraph.AggNode n = slotHulls[found == null ? k : found[k]];
+			if (n != null && !nodes.containsKey(n)) materialize(n);
+		}
+	}
+	
+	/**
+	 * Returns whether an aggregate is currently shown, whether or not its
+	 * hull has a Piccolo node.
+	 */
+	private boolean isShown(AggGraph.AggNode n) { 
+		if (n.isLeaf()) { 
+			int glyph = leafGlyphs[n.getItem(0)];
+			return glyph != -1 && glyphLeaves[glyph] == n;
+		}
+		return hullSlots.containsKey(n);
+	}
+	
+	/**
+	 * Returns the point where the edges of a drawn aggregate meet.
+	 */
+	private Point2D getCenter(AggGraph.AggNode n) { 
+		if (n.isLeaf()) { 
+			int glyph = leafGlyphs[n.getItem(0)];
+			return new Point2D.Double(leafRoot.getX(glyph), leafRoot.getY(glyph));
+		}
+		int k = 4 * hullSlots.get(n);
+		return new Point2D.Double((hullBoxes[k] + hullBoxes[k + 2]) / 2, (hullBoxes[k + 1] + hullBoxes[k + 3]) / 2);
+	}
+	
+	private void addNode(AggGraph.AggNode n) {
 		
         RealColumn xCol = (RealColumn) agg.getGraph().getVertexTable().getColumn(X_COLUMN);
         RealColumn yCol = (RealColumn) agg.getGraph().getVertexTable().getColumn(Y_COLUMN);
 		
 		// Is this a leaf?
 		if (n.isLeaf()) { 
-			node = PPath.createEllipse(0, 0, (float) (2 * NODE_RADIUS), (float) (2 * NODE_RADIUS));
-	        node.setChildrenPickable(false);
-	        
-	        Integer item = n.getItem(0);
+	        int item = n.getItem(0);
 	        double x = xCol.getRealValueAt(item);
 	        double y = yCol.getRealValueAt(item);
 	        
-	        node.setOffset(x, y);
+	        int glyph = leafRoot.addGlyph(x + NODE_RADIUS, y + NODE_RADIUS, 2 * NODE_RADIUS, null);
+	        leafGlyphs[item] = glyph;
+	        glyphLeaves[glyph] = n;
+	        return;
 		}
+		
+		// Get the convex hull, merged from the hulls of the children
+		double[] hull = getHull(n, xCol, yCol);
+		int slot = allocateHullSlot(n, hull);
+		if (materialized == null || intersectsHull(slot, materialized)) materialize(n);
+	}
+	
+	private int allocateHullSlot(AggGraph.AggNode n, double[] hull) { 
+		int slot;
+		if (freeHullCount > 0) { 
+			slot = freeHullSlots[--freeHullCount];
+		}
+		else { 
+			if (hullSlotCount == slotHulls.length) { 
+				AggGraph.AggNode[] grownHulls = new AggGraph.AggNode[2 * hullSlotCount];
+				System.arraycopy(slotHulls, 0, grownHulls, 0, hullSlotCount);
+				slotHulls = grownHulls;
+				float[] grownBoxes = new float[8 * hullSlotCount];
+				System.arraycopy(hullBoxes, 0, grownBoxes, 0, 4 * hullSlotCount);
+				hullBoxes = grownBoxes;
+			}
+			slot = hullSlotCount++;
+		}
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		for (int i = 0; i < hull.length; i += 2) { 
+			minX = Math.min(minX, hull[i]);
+			maxX = Math.max(maxX, hull[i]);
+			minY = Math.min(minY, hull[i + 1]);
+			maxY = Math.max(maxY, hull[i + 1]);
+		}
+		hullBoxes[4 * slot] = (float) minX;
+		hullBoxes[4 * slot + 1] = (float) minY;
+		hullBoxes[4 * slot + 2] = (float) maxX;
+		hullBoxes[4 * slot + 3] = (float) maxY;
+		slotHulls[slot] = n;
+		hullSlots.put(n, slot);
+		hullIndexDirty = true;
+		return slot;
+	}
+	
+	private void freeHullSlot(int slot) { 
+		hullBoxes[4 * slot] = Float.NaN;
+		slotHulls[slot] = null;
+		if (freeHullCount == freeHullSlots.length) {
+			int[] grown = new int[2 * freeHullCount];
+			System.arraycopy(freeHullSlots, 0, grown, 0, freeHullCount);
+			freeHullSlots = grown;
+		}
+		freeHullSlots[freeHullCount++] = slot;
+		hullIndexDirty = true;
+	}
+	
+	private boolean intersectsHull(int slot, Rectangle2D region) { 
+		int k = 4 * slot;
+		return hullBoxes[k] <= region.getMaxX() && hullBoxes[k + 2] >= region.getMinX() 
+			&& hullBoxes[k + 1] <= region.getMaxY() && hullBoxes[k + 3] >= region.getMinY();
+	}
+	
+	/**
+	 * Creates the Piccolo node for the hull of a shown inner aggregate.
+	 */
+	private void materialize(AggGraph.AggNode n) {
+		
+		PPath node;
+		
+        RealColumn xCol = (RealColumn) agg.getGraph().getVertexTable().getColumn(X_COLUMN);
+        RealColumn yCol = (RealColumn) agg.getGraph().getVertexTable().getColumn(Y_COLUMN);
+		
 		// Create a convex hull for the aggregated node
-		else {	
-			
-			// Compute the convex hull
-			ConvexHull hull = new ConvexHull();
-			Collection<Integer> items = n.getAllItems();
-			for (Integer item : items) {
-				
-				// Find the center point
-		        double x = xCol.getRealValueAt(item);
-		        double y = yCol.getRealValueAt(item);
-		        
-		        // Expand the hull in all compass directions
-		        hull.addPoint(new Point2D.Double(x - NODE_RADIUS, y));
-		        hull.addPoint(new Point2D.Double(x + NODE_RADIUS, y));
-		        hull.addPoint(new Point2D.Double(x, y - NODE_RADIUS));
-		        hull.addPoint(new Point2D.Double(x, y + NODE_RADIUS));
+		{	
+			double[] hull = getHull(n, xCol, yCol);
+			Point2D[] path = new Point2D[hull.length / 2 + 1];
+			for (int i = 0; i < path.length - 1; i++) {
+				path[i] = new Point2D.Double(hull[2 * i], hull[2 * i + 1]);
 			}
-			hull.computeHull();
+			path[path.length - 1] = path[0];
 			
 			// Create the Piccolo node
-			node = PPath.createPolyline(hull.getPath());
+			node = PPath.createPolyline(path);
 	        node.setChildrenPickable(false);
 	        
 	        node.setPaint(new Color(1.0f, 0.0f, 1.0f));
@@ -182,16 +485,84 @@ public class AggNodeLinkGraph implements PropertyChangeListener {
         nodeRoot.addChild(node);
 		nodes.put(n, node);
 		reverseNodes.put(node, n);
+		node.addInputEventListener(expandHandler);
+	}
+	
+	private void dematerialize(AggGraph.AggNode n) { 
+		PNode node = nodes.remove(n);
+		if (node == null) return;
+		reverseNodes.remove(node);
+		nodeRoot.removeChild(node);
+	}
+	
+	/**
+	 * Returns the convex hull of an aggregate.  The hull of an aggregate is
+	 * the hull of its children's hulls, so it is computed bottom-up from the
+	 * hulls cached with the aggregates, which stay valid until the positions
+	 * change (<code>AggGraph.positionsChanged</code>).  Leaves contribute the
+	 * four compass points of their node.
+	 * @return hull vertices as interleaved x and y coordinates.
+	 */
+	private double[] getHull(AggGraph.AggNode n, RealColumn xCol, RealColumn yCol) {
+		int version = agg.getPositionVersion();
+		double[] cached = n.getHull(version);
+		if (cached != null) return cached;
 
-		node.addInputEventListener(new PBasicInputEventHandler() {
-			public void mouseClicked(PInputEvent event) {
-				if (event.getButton() == MouseEvent.BUTTON1) { 
-					expand(reverseNodes.get(event.getPickedNode()));
+		// Post-order walk over the aggregates without a valid hull
+		ArrayList<AggGraph.AggNode> stack = new ArrayList<AggGraph.AggNode>();
+		ConvexHull hull = new ConvexHull();
+		stack.add(n);
+		while (!stack.isEmpty()) {
+			AggGraph.AggNode curr = stack.get(stack.size() - 1);
+			boolean ready = true;
+			for (int i = 0; i < curr.getAggregateCount(); i++) {
+				AggGraph.AggNode child = (AggGraph.AggNode) curr.getAggregate(i);
+				if (child.isNode() && child.getHull(version) == null) {
+					stack.add(child);
+					ready = false;
 				}
 			}
-		});
+			if (!ready) continue;
+			stack.remove(stack.size() - 1);
 
-        return node;
+			hull.clear();
+			addItemPoints(curr, xCol, yCol, hull);
+			for (int i = 0; i < curr.getAggregateCount(); i++) {
+				AggGraph.AggNode child = (AggGraph.AggNode) curr.getAggregate(i);
+				if (child.isLeaf()) {
+					addItemPoints(child, xCol, yCol, hull);
+				}
+				else {
+					double[] childHull = child.getHull(version);
+					for (int k = 0; k < childHull.length; k += 2) {
+						hull.addPoint(childHull[k], childHull[k + 1]);
+					}
+				}
+			}
+			hull.computeHull();
+			double[] result = new double[2 * hull.getHullSize()];
+			for (int i = 0; i < hull.getHullSize(); i++) {
+				result[2 * i] = hull.getHullX(i);
+				result[2 * i + 1] = hull.getHullY(i);
+			}
+			curr.setHull(result, version);
+		}
+		return n.getHull(version);
+	}
+	
+	/**
+	 * Adds the four compass points of the items stored directly in an aggregate.
+	 */
+	private static void addItemPoints(AggGraph.AggNode n, RealColumn xCol, RealColumn yCol, ConvexHull hull) {
+		for (int i = 0; i < n.getItemCount(); i++) {
+			int item = n.getItem(i);
+	        double x = xCol.getRealValueAt(item);
+	        double y = yCol.getRealValueAt(item);
+	        hull.addPoint(x - NODE_RADIUS, y);
+	        hull.addPoint(x + NODE_RADIUS, y);
+	        hull.addPoint(x, y - NODE_RADIUS);
+	        hull.addPoint(x, y + NODE_RADIUS);
+		}
 	}
 	
 	public void setVisibleItemRatio(double ratio) { 
@@ -226,23 +597,173 @@ public class AggNodeLinkGraph implements PropertyChangeListener {
 		agg.thaw();
 	}
 	
+	public double getSemanticSpacing() { 
+		return semanticSpacing;
+	}
+	
+	/**
+	 * Sets the on-screen density that <code>applySemanticZoom</code> aims for.
+	 * @param spacing smallest on-screen size, in pixels, of a shown aggregate.
+	 */
+	public void setSemanticSpacing(double spacing) { 
+		this.semanticSpacing = spacing;
+	}
+	
+	/**
+	 * Chooses the aggregation cut from the camera: aggregates near the view
+	 * that are larger than twice the spacing on screen are expanded,
+	 * aggregates that are no larger than the spacing or lie away from the
+	 * view are collapsed back into their parents, and unaggregated nodes
+	 * whose centers share a screen cell of the spacing are merged.  The cut
+	 * therefore never holds more than a few aggregates per cell of the view,
+	 * however far the camera is zoomed out.  The gap between the expand and
+	 * collapse sizes keeps the cut stable under small camera changes.
+	 * @param view  the view bounds in graph coordinates.
+	 * @param scale the view scale of the camera, in pixels per graph unit.
+	 */
+	public void applySemanticZoom(Rectangle2D view, double scale) { 
+		if (view == null || view.isEmpty() || scale <= 0.0) return;
+		double cell = semanticSpacing / scale;
+		double w = view.getWidth(), h = view.getHeight(); 
+		Rectangle2D region = new Rectangle2D.Double(view.getX() - w / 2, view.getY() - h / 2, 2 * w, 2 * h);
+		
+		RealColumn xCol = (RealColumn) agg.getGraph().getVertexTable().getColumn(X_COLUMN);
+		RealColumn yCol = (RealColumn) agg.getGraph().getVertexTable().getColumn(Y_COLUMN);
+		Rectangle2D box = new Rectangle2D.Double();
+		
+		agg.freeze();
+		
+		// Expand aggregates that are large on screen, down to their descendants
+		ArrayList<AggGraph.AggNode> stack = new ArrayList<AggGraph.AggNode>(agg.getNodes());
+		while (!stack.isEmpty()) { 
+			AggGraph.AggNode n = stack.remove(stack.size() - 1);
+			if (n.isLeaf()) continue;
+			getBox(n, xCol, yCol, box);
+			if (Math.max(box.getWidth(), box.getHeight()) > 2 * cell && box.intersects(region)) { 
+				agg.expand(n);
+				for (int i = 0; i < n.getAggregateCount(); i++) { 
+					stack.add((AggGraph.AggNode) n.getAggregate(i));
+				}
+			}
+		}
+		
+		// Collapse parents that are small on screen or away from the view
+		LinkedHashSet<AggGraph.AggNode> parents = new LinkedHashSet<AggGraph.AggNode>();
+		for (AggGraph.AggNode n : agg.getNodes()) { 
+			if (n.getParent() != null) parents.add(n.getParent());
+		}
+		while (!parents.isEmpty()) { 
+			AggGraph.AggNode p = parents.iterator().next();
+			parents.remove(p);
+			if (agg.isCurrent(p)) continue;
+			getBox(p, xCol, yCol, box);
+			if (Math.max(box.getWidth(), box.getHeight()) > cell && box.intersects(region)) continue;
+			if (!agg.collapse(p)) continue;
+			if (p.getParent() != null) parents.add(p.getParent());
+		}
+		
+		// Merge small nodes without a hierarchy that share a screen cell
+		Hashtable<Long, ArrayList<AggGraph.AggNode>> cells = new Hashtable<Long, ArrayList<AggGraph.AggNode>>();
+		for (AggGraph.AggNode n : agg.getNodes()) { 
+			if (n.getParent() != null) continue;
+			getBox(n, xCol, yCol, box);
+			if (Math.max(box.getWidth(), box.getHeight()) > cell || !region.contains(box.getCenterX(), box.getCenterY())) continue;
+			long col = (long) Math.floor((box.getCenterX() - region.getX()) / cell);
+			long row = (long) Math.floor((box.getCenterY() - region.getY()) / cell);
+			Long key = (row << 32) + col;
+			ArrayList<AggGraph.AggNode> members = cells.get(key);
+			if (members == null) { 
+				members = new ArrayList<AggGraph.AggNode>();
+				cells.put(key, members);
+			}
+			members.add(n);
+		}
+		for (ArrayList<AggGraph.AggNode> members : cells.values()) { 
+			if (members.size() > 1) agg.aggregate(members);
+		}
+		
+		agg.thaw();
+	}
+	
+	/**
+	 * Gets the bounding box of an aggregate, including the node radius.
+	 */
+	private void getBox(AggGraph.AggNode n, RealColumn xCol, RealColumn yCol, Rectangle2D box) { 
+		if (n.isLeaf()) { 
+			int item = n.getItem(0);
+			double x = xCol.getRealValueAt(item), y = yCol.getRealValueAt(item);
+			box.setFrame(x - NODE_RADIUS, y - NODE_RADIUS, 2 * NODE_RADIUS, 2 * NODE_RADIUS);
+			return;
+		}
+		double[] hull = getHull(n, xCol, yCol);
+		box.setFrame(hull[0], hull[1], 0, 0);
+		for (int i = 2; i < hull.length; i += 2) { 
+			box.add(hull[i], hull[i + 1]);
+		}
+	}
+	
+	/**
+	 * Adds the edges from an aggregate to all its neighbors in the scene
+	 * that are not connected to it yet.
+	 */
+	private void addEdges(AggGraph.AggNode node) {
+		for (AggGraph.AggNode neighbor : node.getNeighbors()) {
+			if (node == neighbor || !isShown(neighbor)) continue;
+			Hashtable<AggGraph.AggNode, Integer> incident = edges.get(node);
+			if (incident != null && incident.containsKey(neighbor)) continue;
+			addEdge(node, neighbor);
+		}
+	}
+	
 	private void addEdge(AggGraph.AggNode from, AggGraph.AggNode to) {
-        PPath edge = new PPath();
-		PNode node1 = nodes.get(from);
-		PNode node2 = nodes.get(to);
-		Point2D start = node1.getFullBoundsReference().getCenter2D();
-		Point2D end = node2.getFullBoundsReference().getCenter2D();
-		edge.moveTo((float) start.getX(), (float) start.getY());
-		edge.lineTo((float) end.getX(), (float) end.getY());
-		edgeRoot.addChild(edge);
+		Point2D start = getCenter(from);
+		Point2D end = getCenter(to);
+		int edge = edgeRoot.addEdge(start.getX(), start.getY(), end.getX(), end.getY());
+		putEdge(from, to, edge);
+		putEdge(to, from, edge);
+	}
+	
+	/**
+	 * Moves the edges of a shown leaf to the current centers of their
+	 * endpoints.  An edge between two leaves is moved by the leaf with the
+	 * lower glyph slot only.
+	 */
+	private void moveEdges(AggGraph.AggNode leaf) {
+		Hashtable<AggGraph.AggNode, Integer> incident = edges.get(leaf);
+		if (incident == null) return;
+		int glyph = leafGlyphs[leaf.getItem(0)];
+		Point2D start = getCenter(leaf);
+		for (AggGraph.AggNode neighbor : incident.keySet()) {
+			if (neighbor.isLeaf() && leafGlyphs[neighbor.getItem(0)] < glyph) continue;
+			Point2D end = getCenter(neighbor);
+			edgeRoot.setEdge(incident.get(neighbor), start.getX(), start.getY(), end.getX(), end.getY());
+		}
+	}
+	
+	private void putEdge(AggGraph.AggNode from, AggGraph.AggNode to, int edge) {
+		Hashtable<AggGraph.AggNode, Integer> incident = edges.get(from);
+		if (incident == null) { 
+			incident = new Hashtable<AggGraph.AggNode, Integer>();
+			edges.put(from, incident);
+		}
+		incident.put(to, edge);
 	}
 
 	public void propertyChange(PropertyChangeEvent e) {
-		// Clear the graph 
-		nodeRoot.removeAllChildren();
-		edgeRoot.removeAllChildren();
-		
-		// Rebuild the graph
-		buildGraph();
+		// Apply aggregation changes as a diff; rebuild for anything else
+		if (AggGraph.PROPERTY_AGGREGATION.equals(e.getPropertyName()) 
+				&& e.getOldValue() instanceof Collection<?> && e.getNewValue() instanceof Collection<?>) { 
+			sceneLock.lock();
+			try { 
+				applyChange((Collection<?>) e.getOldValue(), (Collection<?>) e.getNewValue());
+			}
+			finally { 
+				sceneLock.unlock();
+			}
+		}
+		else {
+			// Clear and rebuild the graph
+			update();
+		}
 	}
 }
@@ -0,0 +1,252 @@
+/* ------------------------------------------------------------------
+ * BatchedEdgeNode.java
+ *
+ * Piccolo node that draws all edges of a view in one paint call.
+ * ------------------------------------------------------------------
+ */
+package edu.purdue.nodelink.visualization;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.Stroke;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+
+import edu.umd.cs.piccolo.PNode;
+import edu.umd.cs.piccolo.util.PBounds;
+import edu.umd.cs.piccolo.util.PPaintContext;
+
+/**
+ * Draws a set of straight edges from primitive coordinate arrays instead of
+ * one <code>PPath</code> per edge.  Every edge occupies a slot that keeps
+ * its index until the edge is removed; freed slots are reused.  Painting
+ * skips edges whose bounding box misses the clip of the paint context,
+ * which is the part of the camera view being repainted, and strokes the
+ * rest in batches of one path each.  When the clip covers only a small part
+ * of the edges, they are found with a <code>SpatialIndex</code>, so the cost
+ * of painting depends on the number of edges on screen.  Painting does not
+ * modify the node, so it may be painted from several threads at once as
+ * long as it is not changed meanwhile.
+ *
+ * The node is not pickable.
+ */
+public class BatchedEdgeNode extends PNode {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Number of segments stroked as one path. */
+	private static final int BATCH_SIZE = 4096;
+
+	/** Endpoint coordinates x1, y1, x2, y2 of each slot; NaN for free slots. */
+	private float[] coords = new float[64];
+	/** Number of slots in use, including free ones. */
+	private int slotCount = 0;
+	/** Stack of free slots. */
+	private int[] freeSlots = new int[16];
+	private int freeCount = 0;
+	/** Whether the bounds and the index must be recomputed from the coordinates. */
+	private boolean boundsDirty = false, indexDirty = false;
+	private SpatialIndex index = new SpatialIndex();
+
+	private Paint strokePaint = Color.BLACK;
+	private Stroke stroke = new BasicStroke(1.0f);
+
+	public BatchedEdgeNode() {
+		setPickable(false);
+	}
+
+	/**
+	 * Adds an edge.
+	 * @return the slot of the edge, valid until it is removed.
+	 */
+	public int addEdge(double x1, double y1, double x2, double y2) {
+		int edge;
+		if (freeCount > 0) {
+			edge = freeSlots[--freeCount];
+		}
+		else {
+			if (4 * slotCount == coords.length) {
+				float[] grown = new float[2 * coords.length];
+				System.arraycopy(coords, 0, grown, 0, coords.length);
+				coords = grown;
+			}
+			edge = slotCount++;
+		}
+		setEdge(edge, x1, y1, x2, y2);
+		return edge;
+	}
+
+	/**
+	 * Moves the endpoints of an edge.
+	 * @param edge slot returned by <code>addEdge</code>.
+	 */
+	public void setEdge(int edge, double x1, double y1, double x2, double y2) {
+		int k = 4 * edge;
+		coords[k] = (float) x1;
+		coords[k + 1] = (float) y1;
+		coords[k + 2] = (float) x2;
+		coords[k + 3] = (float) y2;
+		changed();
+	}
+
+	/**
+	 * Removes an edge and frees its slot.
+	 * @param edge slot returned by <code>addEdge</code>.
+	 */
+	public void removeEdge(int edge) {
+		if (Float.isNaN(coords[4 * edge])) return;
+		coords[4 * edge] = Float.NaN;
+		if (freeCount == freeSlots.length) {
+			int[] grown = new int[2 * freeSlots.length];
+			System.arraycopy(freeSlots, 0, grown, 0, freeCount);
+			freeSlots = grown;
+		}
+		freeSlots[freeCount++] = edge;
+		changed();
+	}
+
+	public void removeAllEdges() {
+		slotCount = 0;
+		freeCount = 0;
+		changed();
+	}
+
+	/**
+	 * Returns the number of edges, not counting free slots.
+	 */
+	public int getEdgeCount() {
+		return slotCount - freeCount;
+	}
+
+	/**
+	 * Returns the number of slots, including free ones.
+	 */
+	public int getSlotCount() {
+		return slotCount;
+	}
+
+	/**
+	 * Copies the endpoints of an edge.
+	 * @param edge   a slot below <code>getSlotCount()</code>.
+	 * @param coords receives x1, y1, x2 and y2.
+	 * @return whether the slot holds an edge; false for free slots.
+	 */
+	public boolean getEdge(int edge, double[] coords) {
+		int k = 4 * edge;
+		if (Float.isNaN(this.coords[k])) return false;
+		for (int i = 0; i < 4; i++) coords[i] = this.coords[k + i];
+		return true;
+	}
+
+	public Paint getStrokePaint() {
+		return strokePaint;
+	}
+
+	public void setStrokePaint(Paint strokePaint) {
+		this.strokePaint = strokePaint;
+		invalidatePaint();
+	}
+
+	public Stroke getStroke() {
+		return stroke;
+	}
+
+	public void setStroke(Stroke stroke) {
+		this.stroke = stroke;
+		invalidatePaint();
+	}
+
+	/**
+	 * Defers the bounds update to the next validation, so that bulk changes
+	 * only scan the coordinates once.
+	 */
+	private void changed() {
+		boundsDirty = true;
+		indexDirty = true;
+		invalidateFullBounds();
+		invalidatePaint();
+	}
+
+	protected boolean validateFullBounds() {
+		if (boundsDirty) {
+			boundsDirty = false;
+			float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+			float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+			for (int k = 0; k < 4 * slotCount; k += 4) {
+				if (Float.isNaN(coords[k])) continue;
+				minX = Math.min(minX, Math.min(coords[k], coords[k + 2]));
+				maxX = Math.max(maxX, Math.max(coords[k], coords[k + 2]));
+				minY = Math.min(minY, Math.min(coords[k + 1], coords[k + 3]));
+				maxY = Math.max(maxY, Math.max(coords[k + 1], coords[k + 3]));
+			}
+
+			// Repaint the old area in case the bounds shrink
+			repaint();
+			if (minX > maxX) {
+				resetBounds();
+			}
+			else {
+				double margin = getStrokeMargin();
+				setBounds(minX - margin, minY - margin, maxX - minX + 2 * margin, maxY - minY + 2 * margin);
+			}
+		}
+		return super.validateFullBounds();
+	}
+
+	/**
+	 * Finds the edges whose bounding boxes meet a rectangle, rebuilding the
+	 * index first if necessary.
+	 */
+	private synchronized int[] query(double minX, double minY, double maxX, double maxY) {
+		if (indexDirty) {
+			index.build(coords, slotCount);
+			indexDirty = false;
+		}
+		return index.query(minX, minY, maxX, maxY);
+	}
+
+	private double getStrokeMargin() {
+		return stroke instanceof BasicStroke ? ((BasicStroke) stroke).getLineWidth() / 2.0 : 0.5;
+	}
+
+	protected void paint(PPaintContext paintContext) {
+		if (getEdgeCount() == 0) return;
+		Graphics2D g2 = paintContext.getGraphics();
+		g2.setPaint(strokePaint);
+		g2.setStroke(stroke);
+
+		// Only stroke the edges whose bounding box meets the clip
+		Rectangle2D clip = paintContext.getLocalClip();
+		double margin = getStrokeMargin();
+		float minX = (float) (clip.getMinX() - margin), maxX = (float) (clip.getMaxX() + margin);
+		float minY = (float) (clip.getMinY() - margin), maxY = (float) (clip.getMaxY() + margin);
+		int[] visible = null;
+		int visibleCount = slotCount;
+		PBounds bounds = getBoundsReference();
+		if (clip.getWidth() * clip.getHeight() < 0.5 * bounds.getWidth() * bounds.getHeight()) {
+			visible = query(minX, minY, maxX, maxY);
+			visibleCount = visible.length;
+			Arrays.sort(visible);
+		}
+		int batch = 0;
+		GeneralPath path = new GeneralPath();
+		for (int j = 0; j < visibleCount; j++) {
+			int k = 4 * (visible == null ? j : visible[j]);
+			float x1 = coords[k], y1 = coords[k + 1], x2 = coords[k + 2], y2 = coords[k + 3];
+			if (Float.isNaN(x1)) continue;
+			if ((x1 < minX && x2 < minX) || (x1 > maxX && x2 > maxX)) continue;
+			if ((y1 < minY && y2 < minY) || (y1 > maxY && y2 > maxY)) continue;
+			path.moveTo(x1, y1);
+			path.lineTo(x2, y2);
+			if (++batch == BATCH_SIZE) {
+				g2.draw(path);
+				path.reset();
+				batch = 0;
+			}
+		}
+		if (batch > 0) g2.draw(path);
+	}
+}
@@ -0,0 +1,595 @@
+/* ------------------------------------------------------------------
+ * BatchedGlyphNode.java
+ *
+ * Piccolo node that draws all node glyphs of a view in one paint call.
+ * ------------------------------------------------------------------
+ */
+package edu.purdue.nodelink.visualization;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.RenderingHints;
+import java.awt.Stroke;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+import edu.umd.cs.piccolo.PNode;
+import edu.umd.cs.piccolo.util.PBounds;
+import edu.umd.cs.piccolo.util.PPaintContext;
+
+/**
+ * Draws circular node glyphs, with optional labels, from primitive arrays
+ * of center, diameter and fill color instead of one <code>PPath</code> per
+ * node.  Every glyph occupies a slot that keeps its index until the glyph
+ * is removed; freed slots are reused.  Painting skips glyphs outside the
+ * clip of the paint context and fills and strokes the rest in batches.
+ *
+ * The glyphs are kept in a <code>SpatialIndex</code> that is rebuilt lazily
+ * after changes.  Painting uses it when the clip covers only a small part
+ * of the glyphs, and picking always does: Piccolo picks this node only where
+ * a glyph is, and the glyph under a point is found with <code>pickGlyph</code>.
+ * Like picking, painting does not modify the node, so it may be painted
+ * from several threads at once as long as it is not changed meanwhile.
+ *
+ * Labels are only drawn once the font is at least
+ * <code>getMinLabelSize</code> pixels high on screen, and only those that
+ * do not overlap a label of higher priority, such as that of a node of
+ * higher degree.  Which labels are shown is decided for all labels at once
+ * at the power of two scale at or below the drawing scale, so that
+ * separately painted parts of the view agree.  The selection is kept until
+ * glyphs or labels are added, removed or changed; moving glyphs keeps it,
+ * so that drags and animations do not redo it on every frame, until
+ * <code>updateLabels</code> is called.  The labels themselves are drawn
+ * from images cached per string.
+ */
+public class BatchedGlyphNode extends PNode {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Number of glyphs stroked as one path. */
+	private static final int BATCH_SIZE = 4096;
+	/** Distance of the label baseline above the top of the glyph. */
+	static final float LABEL_OFFSET = 3.0f;
+	/** Default smallest label font size drawn, in pixels. */
+	public static final double MIN_LABEL_SIZE = 6.0;
+	/** Least space between shown labels, in pixels. */
+	private static final float LABEL_PADDING = 4.0f;
+
+	/** Center and diameter of each slot; NaN x for free slots. */
+	private float[] x = new float[16], y = new float[16], size = new float[16];
+	/** Fill color of each slot as ARGB; 0 for no fill. */
+	private int[] color = new int[16];
+	/** Label of each slot; <code>null</code> until the first label is set. */
+	private String[] labels = null;
+	/** Label priority of each slot; <code>null</code> until the first priority is set. */
+	private float[] priority = null;
+	/** Number of slots in use, including free ones. */
+	private int slotCount = 0;
+	/** Stack of free slots. */
+	private int[] freeSlots = new int[16];
+	private int freeCount = 0;
+	/** Whether the bounds and the pick index must be recomputed. */
+	private boolean boundsDirty = false, indexDirty = false;
+
+	/** Bounding box of each slot, as indexed by <code>index</code>. */
+	private float[] boxes = new float[0];
+	private SpatialIndex index = new SpatialIndex();
+	/** Largest distance of a label from the bounding box of its glyph. */
+	private float labelReach = 0.0f;
+	/** Labels that do not overlap at zoom level <code>shownLevel</code>; <code>null</code> until decided again. */
+	private BitSet shownLabels = null;
+	private int shownLevel = 0;
+	private double minLabelSize = MIN_LABEL_SIZE;
+
+	private Paint strokePaint = Color.BLACK;
+	private Stroke stroke = new BasicStroke(1.0f);
+	private Font labelFont = new Font("Helvetica", Font.PLAIN, 12);
+	private LabelCache labelCache = new LabelCache(labelFont, strokePaint);
+
+	/**
+	 * Adds a glyph.
+	 * @param fill fill color, or <code>null</code> for an outline only.
+	 * @return the slot of the glyph, valid until it is removed.
+	 */
+	public int addGlyph(double cx, double cy, double diameter, Color fill) {
+		int glyph;
+		if (freeCount > 0) {
+			glyph = freeSlots[--freeCount];
+		}
+		else {
+			if (slotCount == x.length) grow(2 * x.length);
+			glyph = slotCount++;
+		}
+		size[glyph] = (float) diameter;
+		color[glyph] = fill == null ? 0 : fill.getRGB();
+		if (labels != null) labels[glyph] = null;
+		if (priority != null) priority[glyph] = 0.0f;
+		x[glyph] = (float) cx;
+		y[glyph] = (float) cy;
+		changed();
+		return glyph;
+	}
+
+	private void grow(int capacity) {
+		x = copyOf(x, capacity);
+		y = copyOf(y, capacity);
+		size = copyOf(size, capacity);
+		int[] grownColor = new int[capacity];
+		System.arraycopy(color, 0, grownColor, 0, slotCount);
+		color = grownColor;
+		if (labels != null) {
+			String[] grownLabels = new String[capacity];
+			System.arraycopy(labels, 0, grownLabels, 0, slotCount);
+			labels = grownLabels;
+		}
+		if (priority != null) priority = copyOf(priority, capacity);
+	}
+
+	private float[] copyOf(float[] array, int capacity) {
+		float[] result = new float[capacity];
+		System.arraycopy(array, 0, result, 0, slotCount);
+		return result;
+	}
+
+	/**
+	 * Moves the center of a glyph.  The labels shown stay the same until
+	 * <code>updateLabels</code> is called.
+	 * @param glyph slot returned by <code>addGlyph</code>.
+	 */
+	public void setPosition(int glyph, double cx, double cy) {
+		x[glyph] = (float) cx;
+		y[glyph] = (float) cy;
+		moved();
+	}
+
+	/**
+	 * Decides again which labels are shown; call it once moved glyphs
+	 * have settled.
+	 */
+	public void updateLabels() {
+		shownLabels = null;
+		invalidatePaint();
+	}
+
+	public double getX(int glyph) {
+		return x[glyph];
+	}
+
+	public double getY(int glyph) {
+		return y[glyph];
+	}
+
+	public double getSize(int glyph) {
+		return size[glyph];
+	}
+
+	/**
+	 * Returns whether a slot is free, i.e. its glyph was removed.
+	 */
+	public boolean isFree(int glyph) {
+		return Float.isNaN(x[glyph]);
+	}
+
+	/**
+	 * Returns the number of slots, including free ones.
+	 */
+	public int getSlotCount() {
+		return slotCount;
+	}
+
+	/**
+	 * Returns the fill color of a glyph, or <code>null</code> for an outline only.
+	 */
+	public Color getColor(int glyph) {
+		return color[glyph] == 0 ? null : new Color(color[glyph], true);
+	}
+
+	/**
+	 * Sets the fill color of a glyph.
+	 * @param fill the color, or <code>null</code> for an outline only.
+	 */
+	public void setColor(int glyph, Color fill) {
+		color[glyph] = fill == null ? 0 : fill.getRGB();
+		repaintGlyph(glyph);
+	}
+
+	/**
+	 * Sets the label drawn above a glyph.
+	 * @param label the label, or <code>null</code> for none.
+	 */
+	public void setLabel(int glyph, String label) {
+		if (labels == null) {
+			if (label == null) return;
+			labels = new String[x.length];
+		}
+		labels[glyph] = label;
+		changed();
+	}
+
+	public String getLabel(int glyph) {
+		return labels == null ? null : labels[glyph];
+	}
+
+	/**
+	 * Sets the priority of the label of a glyph; where labels overlap, only
+	 * the one of highest priority is drawn.  Priorities are 0 by default.
+	 */
+	public void setLabelPriority(int glyph, double labelPriority) {
+		if (priority == null) {
+			if (labelPriority == 0.0) return;
+			priority = new float[x.length];
+		}
+		priority[glyph] = (float) labelPriority;
+		changed();
+	}
+
+	public double getLabelPriority(int glyph) {
+		return priority == null ? 0.0 : priority[glyph];
+	}
+
+	public double getMinLabelSize() {
+		return minLabelSize;
+	}
+
+	/**
+	 * Sets the smallest font size, in pixels on screen, at which labels
+	 * are drawn; below it the labels would be unreadable anyway.
+	 */
+	public void setMinLabelSize(double minLabelSize) {
+		this.minLabelSize = minLabelSize;
+		invalidatePaint();
+	}
+
+	/**
+	 * Removes a glyph and frees its slot.
+	 * @param glyph slot returned by <code>addGlyph</code>.
+	 */
+	public void removeGlyph(int glyph) {
+		if (Float.isNaN(x[glyph])) return;
+		x[glyph] = Float.NaN;
+		if (labels != null) labels[glyph] = null;
+		if (freeCount == freeSlots.length) {
+			int[] grown = new int[2 * freeSlots.length];
+			System.arraycopy(freeSlots, 0, grown, 0, freeCount);
+			freeSlots = grown;
+		}
+		freeSlots[freeCount++] = glyph;
+		changed();
+	}
+
+	public void removeAllGlyphs() {
+		slotCount = 0;
+		freeCount = 0;
+		labels = null;
+		priority = null;
+		changed();
+	}
+
+	/**
+	 * Returns the number of glyphs, not counting free slots.
+	 */
+	public int getGlyphCount() {
+		return slotCount - freeCount;
+	}
+
+	public Paint getStrokePaint() {
+		return strokePaint;
+	}
+
+	public void setStrokePaint(Paint strokePaint) {
+		this.strokePaint = strokePaint;
+		labelCache.clear(labelFont, getLabelPaint());
+		invalidatePaint();
+	}
+
+	public Stroke getStroke() {
+		return stroke;
+	}
+
+	public void setStroke(Stroke stroke) {
+		this.stroke = stroke;
+		invalidatePaint();
+	}
+
+	public Font getLabelFont() {
+		return labelFont;
+	}
+
+	public void setLabelFont(Font labelFont) {
+		this.labelFont = labelFont;
+		labelCache.clear(labelFont, getLabelPaint());
+		changed();
+	}
+
+	private void changed() {
+		shownLabels = null;
+		moved();
+	}
+
+	private void moved() {
+		boundsDirty = true;
+		indexDirty = true;
+		invalidateFullBounds();
+		invalidatePaint();
+	}
+
+	private void repaintGlyph(int glyph) {
+		float r = size[glyph] / 2 + getStrokeMargin();
+		repaintFrom(new PBounds(x[glyph] - r, y[glyph] - r, 2 * r, 2 * r), this);
+	}
+
+	private float getStrokeMargin() {
+		return stroke instanceof BasicStroke ? ((BasicStroke) stroke).getLineWidth() / 2.0f : 0.5f;
+	}
+
+	protected boolean validateFullBounds() {
+		if (boundsDirty) {
+			boundsDirty = false;
+			float margin = getStrokeMargin();
+			double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+			double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+			labelReach = 0.0f;
+			for (int i = 0; i < slotCount; i++) {
+				if (Float.isNaN(x[i])) continue;
+				float r = size[i] / 2 + margin;
+				minX = Math.min(minX, x[i] - r);
+				maxX = Math.max(maxX, x[i] + r);
+				minY = Math.min(minY, y[i] - r);
+				maxY = Math.max(maxY, y[i] + r);
+				if (labels != null && labels[i] != null) {
+					Rectangle2D text = getLabelBounds(i);
+					minY = Math.min(minY, text.getMinY());
+					maxX = Math.max(maxX, text.getMaxX());
+					labelReach = (float) Math.max(labelReach, Math.max(text.getMaxX() - x[i] - r, y[i] - r - text.getMinY()));
+				}
+			}
+
+			// Repaint the old area in case the bounds shrink
+			repaint();
+			if (minX > maxX) {
+				resetBounds();
+			}
+			else {
+				setBounds(minX, minY, maxX - minX, maxY - minY);
+			}
+		}
+		return super.validateFullBounds();
+	}
+
+	private Rectangle2D getLabelBounds(int glyph) {
+		Rectangle2D text = labelFont.getStringBounds(labels[glyph], PPaintContext.RENDER_QUALITY_HIGH_FRC);
+		float left = x[glyph] - size[glyph] / 2, baseline = y[glyph] - size[glyph] / 2 - LABEL_OFFSET;
+		return new Rectangle2D.Double(left + text.getX(), baseline + text.getY(), text.getWidth(), text.getHeight());
+	}
+
+	private Paint getLabelPaint() {
+		return strokePaint != null ? strokePaint : Color.BLACK;
+	}
+
+	/**
+	 * Returns the labels drawn at a scale: none if the font is less than
+	 * <code>getMinLabelSize</code> pixels high, otherwise those selected at
+	 * the power of two scale at or below it.
+	 * @param scale the drawing scale, in pixels per unit.
+	 * @return the slots whose labels are drawn; must not be modified.
+	 */
+	BitSet getShownLabels(double scale) {
+		if (labels == null || labelFont.getSize2D() * scale < minLabelSize) return new BitSet();
+		return getShownLabels((int) Math.floor(Math.log(scale) / Math.log(2.0) + 1e-6));
+	}
+
+	/**
+	 * Returns the labels that are shown at a zoom level: in order of
+	 * decreasing priority, each label that keeps its distance from the
+	 * labels accepted before it, found through a grid of accepted labels.
+	 * @param level zoom level; the scale is <code>2^level</code>.
+	 */
+	private synchronized BitSet getShownLabels(int level) {
+		if (shownLabels != null && shownLevel == level) return shownLabels;
+		ArrayList<Integer> order = new ArrayList<Integer>();
+		for (int i = 0; i < slotCount; i++) {
+			if (labels[i] != null && !Float.isNaN(x[i])) order.add(i);
+		}
+		if (priority != null) {
+			Collections.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return Float.compare(priority[b], priority[a]);
+				}
+			});
+		}
+
+		// Grid of accepted labels, with cells about a few labels across
+		double padding = LABEL_PADDING / Math.pow(2.0, level);
+		double cell = 4.0 * labelFont.getSize2D() + padding;
+		HashMap<Long, ArrayList<Rectangle2D>> grid = new HashMap<Long, ArrayList<Rectangle2D>>();
+		BitSet shown = new BitSet(slotCount);
+		for (int i : order) {
+			Rectangle2D text = getLabelBounds(i);
+			text.setRect(text.getX() - padding / 2, text.getY() - padding / 2, text.getWidth() + padding, text.getHeight() + padding);
+			int col0 = (int) Math.floor(text.getMinX() / cell), col1 = (int) Math.floor(text.getMaxX() / cell);
+			int row0 = (int) Math.floor(text.getMinY() / cell), row1 = (int) Math.floor(text.getMaxY() / cell);
+			boolean free = true;
+			for (int row = row0; row <= row1 && free; row++) {
+				for (int col = col0; col <= col1 && free; col++) {
+					ArrayList<Rectangle2D> accepted = grid.get(((long) col << 32) | (row & 0xffffffffL));
+					if (accepted == null) continue;
+					for (Rectangle2D other : accepted) {
+						if (other.intersects(text)) {
+							free = false;
+							break;
+						}
+					}
+				}
+			}
+			if (!free) continue;
+			shown.set(i);
+			for (int row = row0; row <= row1; row++) {
+				for (int col = col0; col <= col1; col++) {
+					Long key = ((long) col << 32) | (row & 0xffffffffL);
+					ArrayList<Rectangle2D> accepted = grid.get(key);
+					if (accepted == null) {
+						accepted = new ArrayList<Rectangle2D>(4);
+						grid.put(key, accepted);
+					}
+					accepted.add(text);
+				}
+			}
+		}
+		shownLabels = shown;
+		shownLevel = level;
+		return shown;
+	}
+
+	/**
+	 * Returns the topmost glyph whose disk contains the given point.
+	 * @return slot of the glyph, or -1 if there is none.
+	 */
+	public int pickGlyph(double px, double py) {
+		return pickGlyph(px, py, px, py);
+	}
+
+	/**
+	 * Returns the topmost glyph whose disk meets the given rectangle.
+	 * @return slot of the glyph, or -1 if there is none.
+	 */
+	public int pickGlyph(Rectangle2D rect) {
+		return pickGlyph(rect.getMinX(), rect.getMinY(), rect.getMaxX(), rect.getMaxY());
+	}
+
+	private int pickGlyph(double minX, double minY, double maxX, double maxY) {
+		if (getGlyphCount() == 0) return -1;
+		float margin = getStrokeMargin();
+		int[] found = query(minX - margin, minY - margin, maxX + margin, maxY + margin);
+		int result = -1;
+		for (int k = 0; k < found.length; k++) {
+			int i = found[k];
+			if (i <= result) continue;
+
+			// Distance from the center to the nearest point of the rectangle
+			double dx = Math.max(minX - x[i], Math.max(0, x[i] - maxX));
+			double dy = Math.max(minY - y[i], Math.max(0, y[i] - maxY));
+			double r = size[i] / 2 + margin;
+			if (dx * dx + dy * dy <= r * r) result = i;
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the glyphs whose bounding boxes meet a rectangle, rebuilding
+	 * the index first if necessary.
+	 * @return the glyphs found, unordered.
+	 */
+	private synchronized int[] query(double minX, double minY, double maxX, double maxY) {
+		if (indexDirty) {
+			indexDirty = false;
+			if (boxes.length < 4 * slotCount) boxes = new float[4 * x.length];
+			for (int i = 0; i < slotCount; i++) {
+				float r = size[i] / 2;
+				boxes[4 * i] = x[i] - r;
+				boxes[4 * i + 1] = y[i] - r;
+				boxes[4 * i + 2] = x[i] + r;
+				boxes[4 * i + 3] = y[i] + r;
+			}
+			index.build(boxes, slotCount);
+		}
+		return index.query(minX, minY, maxX, maxY);
+	}
+
+	public boolean intersects(Rectangle2D localBounds) {
+		return pickGlyph(localBounds) != -1;
+	}
+
+	protected void paint(PPaintContext paintContext) {
+		if (getGlyphCount() == 0) return;
+		Graphics2D g2 = paintContext.getGraphics();
+		g2.setStroke(stroke);
+
+		// Only draw the glyphs whose bounding box meets the clip
+		Rectangle2D clip = paintContext.getLocalClip();
+		float margin = getStrokeMargin();
+		double minX = clip.getMinX(), maxX = clip.getMaxX();
+		double minY = clip.getMinY(), maxY = clip.getMaxY();
+		PBounds bounds = getBoundsReference();
+		boolean useIndex = clip.getWidth() * clip.getHeight() < 0.5 * bounds.getWidth() * bounds.getHeight();
+		int[] visible = null;
+		int visibleCount = slotCount;
+		if (useIndex) {
+			visible = query(minX - margin, minY - margin, maxX + margin, maxY + margin);
+			visibleCount = visible.length;
+			Arrays.sort(visible);
+		}
+		int batch = 0, fillColor = 0;
+		GeneralPath fillPath = new GeneralPath(), strokePath = new GeneralPath();
+		Ellipse2D.Float ellipse = new Ellipse2D.Float();
+		for (int j = 0; j < visibleCount; j++) {
+			int i = visible == null ? j : visible[j];
+			float r = size[i] / 2 + margin;
+			if (Float.isNaN(x[i]) || x[i] + r < minX || x[i] - r > maxX || y[i] + r < minY || y[i] - r > maxY) continue;
+			ellipse.setFrame(x[i] - size[i] / 2, y[i] - size[i] / 2, size[i], size[i]);
+
+			// Glyphs of the same color are filled together
+			if (color[i] != 0) {
+				if (color[i] != fillColor) {
+					fill(g2, fillPath, fillColor);
+					fillColor = color[i];
+				}
+				fillPath.append(ellipse, false);
+			}
+			strokePath.append(ellipse, false);
+			if (++batch == BATCH_SIZE) {
+				fill(g2, fillPath, fillColor);
+				stroke(g2, strokePath);
+				batch = 0;
+			}
+		}
+		fill(g2, fillPath, fillColor);
+		stroke(g2, strokePath);
+
+		// Labels on top of all glyphs, if they are large enough to read
+		double scale = Math.sqrt(Math.abs(g2.getTransform().getDeterminant()));
+		BitSet shown = getShownLabels(scale);
+		if (!shown.isEmpty()) {
+			Object interpolation = g2.getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+			if (paintContext.getRenderQuality() == PPaintContext.HIGH_QUALITY_RENDERING) {
+				g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			}
+			if (useIndex) {
+				visible = query(minX - labelReach, minY - labelReach, maxX + labelReach, maxY + labelReach);
+				visibleCount = visible.length;
+				Arrays.sort(visible);
+			}
+			for (int j = 0; j < visibleCount; j++) {
+				int i = visible == null ? j : visible[j];
+				if (!shown.get(i)) continue;
+				float left = x[i] - size[i] / 2, baseline = y[i] - size[i] / 2 - LABEL_OFFSET;
+				if (left > maxX || baseline < minY || baseline - labelFont.getSize2D() > maxY) continue;
+				labelCache.drawLabel(g2, labels[i], left, baseline, scale);
+			}
+			if (interpolation != null) g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+		}
+	}
+
+	private void fill(Graphics2D g2, GeneralPath fillPath, int argb) {
+		if (argb == 0 || fillPath.getCurrentPoint() == null) return;
+		g2.setPaint(new Color(argb, true));
+		g2.fill(fillPath);
+		fillPath.reset();
+	}
+
+	private void stroke(Graphics2D g2, GeneralPath strokePath) {
+		if (strokePaint == null || strokePath.getCurrentPoint() == null) return;
+		g2.setPaint(strokePaint);
+		g2.draw(strokePath);
+		strokePath.reset();
+	}
+}
@@ -8,140 +8,205 @@
 package edu.purdue.nodelink.visualization;
 
 import java.awt.geom.Point2D;
+import java.math.BigDecimal;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 
+/**
+ * Convex hull of a set of points, computed with Andrew's monotone chain
+ * algorithm in O(n log n).  The points are kept in primitive coordinate
+ * arrays, and the orientation test is exact: the floating-point cross
+ * product is used when it is safely away from zero, and exact decimal
+ * arithmetic otherwise, so collinear and duplicate points are handled
+ * consistently.  Collinear points are not part of the hull.
+ */
 public class ConvexHull {
 
-	private static class Line {
-		private Point2D p1, p2;		
-		public Line(Point2D p1, Point2D p2) {
-			this.p1 = p1;
-			this.p2 = p2;
-		}
-		public int relativeCCW(Point2D point) {
-			return Line.relativeCCW(p1.getX(), p1.getY(), p2.getX(), p2.getY(), point.getX(), point.getY());
-		}
-		public static int relativeCCW(double x1, double y1, double x2, double y2, double px, double py) {
-			
-			// Coincident points
-			if ((x1 == x2 && y1 == y2) || (x1 == px && y1 == py)) return 0;
-			 
-			// Translate to the origin
-			x2 -= x1;
-			y2 -= y1;
-			px -= x1;
-			py -= y1;
-			 
-			double slope2 = y2 / x2;
-			double slopep = py / px;
-			if (slope2 == slopep || (x2 == 0 && px == 0)) {
-				return 0;
-			}
-			if (x2 >= 0 && slope2 >= 0) {
-				return px >= 0 // Quadrant 1.
-				 	? (slope2 > slopep ? 1 : -1)
-				 	: (slope2 < slopep ? 1 : -1);
-			}
-			if (y2 > 0) {
-				return px < 0 // Quadrant 2.
-					? (slope2 > slopep ? 1 : -1)
-					: (slope2 < slopep ? 1 : -1);
-			}
-			if (slope2 >= 0.0) {
-				return px >= 0 // Quadrant 3.
-				 	? (slope2 < slopep ? 1 : -1)
-				 	: (slope2 > slopep ? 1 : -1);
-			}
-			return px < 0 // Quadrant 4.
-			 	? (slope2 < slopep ? 1 : -1)
-			 	: (slope2 > slopep ? 1 : -1);
-		}
-	}
-	
-	private ArrayList<Point2D> points = new ArrayList<Point2D>();	
-	private ArrayList<Point2D> hull = new ArrayList<Point2D>();	
+	/**
+	 * Relative error bound of the floating-point orientation test
+	 * (Shewchuk, "Adaptive Precision Floating-Point Arithmetic", 1997).
+	 */
+	private static final double ORIENTATION_BOUND = (3.0 + 16.0 * Math.ulp(1.0) / 2) * Math.ulp(1.0) / 2;
+
+	private double[] xs = new double[16], ys = new double[16];
+	private int count = 0;
+	private double[] hullX = new double[0], hullY = new double[0];
+	private int hullCount = 0;
 	
 	public ConvexHull() {}
 	
 	public void clear() { 
-		points.clear();
-		hull.clear();
+		count = 0;
+		hullCount = 0;
+	}
+	
+	public void addPoint(double x, double y) {
+		if (count == xs.length) {
+			xs = grow(xs, 2 * count);
+			ys = grow(ys, 2 * count);
+		}
+		xs[count] = x;
+		ys[count] = y;
+		count++;
 	}
 	
 	public void addPoint(Point2D point) { 
-		points.add(point);
+		addPoint(point.getX(), point.getY());
+	}
+	
+	public int getPointCount() {
+		return count;
+	}
+	
+	/**
+	 * Returns the number of hull vertices after <code>computeHull</code>.
+	 */
+	public int getHullSize() {
+		return hullCount;
+	}
+	
+	public double getHullX(int i) {
+		return hullX[i];
+	}
+	
+	public double getHullY(int i) {
+		return hullY[i];
 	}
 	
 	public ArrayList<Point2D> getHull() {
+		ArrayList<Point2D> hull = new ArrayList<Point2D>(hullCount);
+		for (int i = 0; i < hullCount; i++) {
+			hull.add(new Point2D.Double(hullX[i], hullY[i]));
+		}
 		return hull;
 	}
 	
+	/**
+	 * Returns the closed hull polygon: the hull vertices followed by the first one.
+	 */
 	public Point2D[] getPath() {
-		Point2D[] ps = new Point2D[hull.size() + 1];
-		for (int i = 0; i < hull.size(); i++) {
-			ps[i] = hull.get(i);
+		if (hullCount == 0) return new Point2D[0];
+		Point2D[] ps = new Point2D[hullCount + 1];
+		for (int i = 0; i < hullCount; i++) {
+			ps[i] = new Point2D.Double(hullX[i], hullY[i]);
 		}
-		ps[hull.size()] = ps[0];
+		ps[hullCount] = ps[0];
 		return ps;
 	}
 
+	/**
+	 * Computes the hull of the points added so far (Andrew's monotone
+	 * chain, O(n log n)).  The vertices are in counter-clockwise order
+	 * for a y axis pointing up, starting at the point with the smallest
+	 * x (and then y) coordinate.  Points strictly inside the hull may be
+	 * dropped from the point set.
+	 */
 	public void computeHull() {
-		// Gift-wrapping convex hull computation (Jarvis) - O(nh)
-	
-		// Clear the old hull
-		hull.clear();
-			
-		// Sort by y coordinate
-		Collections.sort(points, new Comparator<Point2D> () {
-			public int compare(Point2D p1, Point2D p2) {
-				return p1.getY() < p2.getY() ? -1 : p1.getY() > p2.getY() ? 1 : 0; 
-			}					
-		});
-			
-		// Start with the extreme y-value---it is known to be on the hull
-		hull.add(points.get(0));
-		boolean addedVertex = true;
-		while (addedVertex) {
-			
-			// Get the current point (A)
-			Point2D currPoint = hull.get(hull.size() - 1);
-			
-			// Find a point B so that all points are to the left of AB
-			Point2D newPoint = null;
-			addedVertex = false;
-			for (int i = 0; i < points.size(); i++) {
-				
-				// Construct the line AB
-				Point2D nextPoint = points.get(i);
-				if (currPoint == nextPoint) continue;
-				Line line = new Line(currPoint, nextPoint);
-				
-				// Test remaining points w.r.t. this line 
-				boolean allLeft = true;
-				for (int j = 0; j < points.size(); j++) {
-					Point2D testPoint = points.get(j);
-					if (testPoint == currPoint || testPoint == nextPoint) continue;
-					if (line.relativeCCW(testPoint) == -1) {
-						allLeft = false;
-						break;
+		hullCount = 0;
+		if (count == 0) return;
+		
+		// Drop the points inside the quadrilateral of the extreme points (Akl-Toussaint)
+		if (count > 16) discardInterior();
+		
+		// Sort the points by x, then y
+		sort(xs, ys, count);
+		
+		// Lower hull from left to right, then upper hull from right to left
+		if (hullX.length < count + 1) {
+			hullX = new double[count + 1];
+			hullY = new double[count + 1];
+		}
+		int k = 0;
+		for (int i = 0; i < count; i++) {
+			while (k >= 2 && orientation(hullX[k - 2], hullY[k - 2], hullX[k - 1], hullY[k - 1], xs[i], ys[i]) <= 0) k--;
+			hullX[k] = xs[i]; hullY[k] = ys[i]; k++;
+		}
+		for (int i = count - 2, lower = k + 1; i >= 0; i--) {
+			while (k >= lower && orientation(hullX[k - 2], hullY[k - 2], hullX[k - 1], hullY[k - 1], xs[i], ys[i]) <= 0) k--;
+			hullX[k] = xs[i]; hullY[k] = ys[i]; k++;
+		}
+		
+		// The last point is the first one again; a single distinct point stays
+		hullCount = k > 1 ? k - 1 : k;
+	}
+
+	/**
+	 * Removes the points that lie strictly inside the quadrilateral spanned
+	 * by the points of minimum and maximum x and y; they cannot be on the hull.
+	 */
+	private void discardInterior() {
+		int left = 0, bottom = 0, right = 0, top = 0;
+		for (int i = 1; i < count; i++) {
+			if (xs[i] < xs[left]) left = i;
+			if (xs[i] > xs[right]) right = i;
+			if (ys[i] < ys[bottom]) bottom = i;
+			if (ys[i] > ys[top]) top = i;
+		}
+		double[] qx = { xs[left], xs[bottom], xs[right], xs[top] };
+		double[] qy = { ys[left], ys[bottom], ys[right], ys[top] };
+		int kept = 0;
+		for (int i = 0; i < count; i++) {
+			boolean inside = true;
+			for (int e = 0; e < 4 && inside; e++) {
+				int f = (e + 1) & 3;
+				inside = orientation(qx[e], qy[e], qx[f], qy[f], xs[i], ys[i]) > 0;
+			}
+			if (!inside) {
+				xs[kept] = xs[i];
+				ys[kept] = ys[i];
+				kept++;
+			}
+		}
+		count = kept;
+	}
+
+	/**
+	 * Returns the orientation of the triangle (a, b, c): 1 if it is counter-clockwise
+	 * (for a y axis pointing up), -1 if it is clockwise, and 0 if the points are collinear.
+	 */
+	public static int orientation(double ax, double ay, double bx, double by, double cx, double cy) {
+		double detLeft = (bx - ax) * (cy - ay);
+		double detRight = (by - ay) * (cx - ax);
+		double det = detLeft - detRight;
+		double bound = ORIENTATION_BOUND * (Math.abs(detLeft) + Math.abs(detRight));
+		if (det > bound) return 1;
+		if (-det > bound) return -1;
+		
+		// Too close to call in floating point: evaluate exactly
+		BigDecimal bax = new BigDecimal(bx).subtract(new BigDecimal(ax));
+		BigDecimal bay = new BigDecimal(by).subtract(new BigDecimal(ay));
+		BigDecimal cax = new BigDecimal(cx).subtract(new BigDecimal(ax));
+		BigDecimal cay = new BigDecimal(cy).subtract(new BigDecimal(ay));
+		return bax.multiply(cay).subtract(bay.multiply(cax)).signum();
+	}
+
+	/**
+	 * Sorts the first <code>n</code> points by x, then y (merge sort on
+	 * the coordinate arrays, O(n log n) also with many equal keys).
+	 */
+	private static void sort(double[] xs, double[] ys, int n) {
+		double[] tmpX = new double[n], tmpY = new double[n];
+		for (int width = 1; width < n; width *= 2) {
+			for (int lo = 0; lo < n - width; lo += 2 * width) {
+				int mid = lo + width, hi = Math.min(lo + 2 * width, n);
+				int i = lo, j = mid, k = lo;
+				while (i < mid && j < hi) {
+					if (xs[j] < xs[i] || (xs[j] == xs[i] && ys[j] < ys[i])) {
+						tmpX[k] = xs[j]; tmpY[k++] = ys[j++];
+					} else {
+						tmpX[k] = xs[i]; tmpY[k++] = ys[i++];
 					}
 				}
-				
-				// Did they all fall to the left of the point?						
-				if (allLeft) {
-					newPoint = nextPoint;
-					break;
-				}
-			}
-			
-			// Store the new point
-			if (newPoint != null) {
-				if (hull.contains(newPoint)) break;
-				hull.add(newPoint);
-				addedVertex = true;
+				while (i < mid) { tmpX[k] = xs[i]; tmpY[k++] = ys[i++]; }
+				while (j < hi) { tmpX[k] = xs[j]; tmpY[k++] = ys[j++]; }
+				System.arraycopy(tmpX, lo, xs, lo, hi - lo);
+				System.arraycopy(tmpY, lo, ys, lo, hi - lo);
 			}
 		}
 	}
+
+	private static double[] grow(double[] array, int length) {
+		double[] result = new double[length];
+		System.arraycopy(array, 0, result, 0, array.length);
+		return result;
+	}
 }
@@ -0,0 +1,125 @@
+/* ------------------------------------------------------------------
+ * LabelCache.java
+ *
+ * Cache of label strings rendered to images, per string and scale.
+ * ------------------------------------------------------------------
+ */
+package edu.purdue.nodelink.visualization;
+
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.umd.cs.piccolo.util.PPaintContext;
+
+/**
+ * Draws labels from images rendered once per string and zoom level, since
+ * blitting a small image is much cheaper than laying out and rasterizing
+ * the glyphs of a string on every paint.  Level <code>l</code> holds images
+ * at scale <code>2^l</code>, the power of two at or above the drawing
+ * scale, so they are only ever scaled down.  All labels use one font and
+ * paint; the cache must be cleared when they change.  It may be used from
+ * several threads.
+ */
+class LabelCache {
+
+	/** Number of images kept. */
+	private static final int MAX_IMAGES = 4096;
+
+	/** Largest font size, in pixels, that is cached; larger labels are drawn as text. */
+	private static final double MAX_PIXEL_SIZE = 48.0;
+
+	/** Image of a label and the position of its corner relative to the baseline start. */
+	private static class Entry {
+		final BufferedImage image;
+		final double x, y;
+		Entry(BufferedImage image, double x, double y) {
+			this.image = image;
+			this.x = x;
+			this.y = y;
+		}
+	}
+
+	private Font font;
+	private Paint paint;
+	private LinkedHashMap<String, Entry> images = new LinkedHashMap<String, Entry>(256, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			return size() > MAX_IMAGES;
+		}
+	};
+
+	public LabelCache(Font font, Paint paint) {
+		this.font = font;
+		this.paint = paint;
+	}
+
+	/**
+	 * Drops all images and sets the font and paint of later ones.
+	 */
+	public synchronized void clear(Font font, Paint paint) {
+		this.font = font;
+		this.paint = paint;
+		images.clear();
+	}
+
+	/**
+	 * Draws a label with its baseline starting at a point.
+	 * @param scale the scale of the graphics transform, in pixels per unit.
+	 */
+	public void drawLabel(Graphics2D g2, String label, float left, float baseline, double scale) {
+		if (font.getSize2D() * scale > MAX_PIXEL_SIZE) {
+			g2.setFont(font);
+			g2.setPaint(paint);
+			g2.drawString(label, left, baseline);
+			return;
+		}
+		int level = (int) Math.ceil(Math.log(scale) / Math.log(2.0) - 1e-6);
+		double imageScale = Math.pow(2.0, level);
+		Entry entry = getEntry(label, level, imageScale);
+		if (entry == null) return;
+		AffineTransform transform = AffineTransform.getTranslateInstance(left + entry.x, baseline + entry.y);
+		transform.scale(1 / imageScale, 1 / imageScale);
+		g2.drawImage(entry.image, transform, null);
+	}
+
+	private Entry getEntry(String label, int level, double imageScale) {
+		String key = level + ":" + label;
+		Font font;
+		Paint paint;
+		synchronized (this) {
+			Entry entry = images.get(key);
+			if (entry != null) return entry;
+			font = this.font;
+			paint = this.paint;
+		}
+
+		// Render outside the lock; a label rendered twice at once is harmless
+		Rectangle2D bounds = font.getStringBounds(label, PPaintContext.RENDER_QUALITY_HIGH_FRC);
+		if (bounds.isEmpty()) return null;
+		int width = (int) Math.ceil(bounds.getWidth() * imageScale) + 2;
+		int height = (int) Math.ceil(bounds.getHeight() * imageScale) + 2;
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+		Graphics2D g = image.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		g.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+		g.translate(1, 1);
+		g.scale(imageScale, imageScale);
+		g.translate(-bounds.getX(), -bounds.getY());
+		g.setFont(font);
+		g.setPaint(paint);
+		g.drawString(label, 0.0f, 0.0f);
+		g.dispose();
+		Entry entry = new Entry(image, bounds.getX() - 1 / imageScale, bounds.getY() - 1 / imageScale);
+		synchronized (this) {
+			images.put(key, entry);
+		}
+		return entry;
+	}
+}
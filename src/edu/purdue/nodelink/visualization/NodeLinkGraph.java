@@ -2,8 +2,8 @@ package edu.purdue.nodelink.visualization;
 
 import java.awt.Color;
 import java.awt.event.MouseEvent;
+import java.awt.geom.Dimension2D;
 import java.awt.geom.Point2D;
-import java.util.ArrayList;
 
 import edu.purdue.pivotlib.data.IntColumn;
 import edu.purdue.pivotlib.data.RealColumn;
@@ -13,48 +13,75 @@ import edu.purdue.pivotlib.graph.Graph;
 import edu.umd.cs.piccolo.PNode;
 import edu.umd.cs.piccolo.event.PDragEventHandler;
 import edu.umd.cs.piccolo.event.PInputEvent;
-import edu.umd.cs.piccolo.nodes.PPath;
-import edu.umd.cs.piccolo.nodes.PText;
 
 public class NodeLinkGraph {
 	
 	public static final String X_COLUMN = "#X";
 	public static final String Y_COLUMN = "#Y";
 	
+	/// Diameter of a node glyph; the position columns hold the top left corner
+	public static final double NODE_SIZE = 20.0;
+	
 	private Graph graph;
-	private PNode nodeRoot = new PNode(), edgeRoot = new PNode();
+	private BatchedGlyphNode nodeRoot = new BatchedGlyphNode();
+	private BatchedEdgeNode edgeRoot = new BatchedEdgeNode();
+	/// From and to node of each edge, indexed by edge slot
+	private int[] edgeEnds;
+	/// Edges of node i in nodeEdges[nodeEdgeStart[i]..nodeEdgeStart[i + 1]]
+	private int[] nodeEdgeStart, nodeEdges;
 	private DragEventHandler dragEventHandler = new DragEventHandler();
 	
+	/**
+	 * Highlights the node under the mouse and drags nodes, looking the node
+	 * up in the glyph layer instead of relying on Piccolo picking.
+	 */
 	private class DragEventHandler extends PDragEventHandler {
-        public void mouseEntered(PInputEvent e) {
-            super.mouseEntered(e);
-            if (e.getButton() == MouseEvent.NOBUTTON) {
-                e.getPickedNode().setPaint(Color.RED);
-            }
+		private int hover = -1, dragged = -1;
+		
+        public void mouseMoved(PInputEvent e) {
+            super.mouseMoved(e);
+            setHover(pickNode(e));
         }
         
         public void mouseExited(PInputEvent e) {
             super.mouseExited(e);
             if (e.getButton() == MouseEvent.NOBUTTON) {
-                e.getPickedNode().setPaint(Color.WHITE);
+                setHover(-1);
             }
         }
         
+        private void setHover(int node) {
+        	if (node == hover) return;
+        	if (hover != -1) nodeRoot.setColor(hover, Color.WHITE);
+        	if (node != -1) nodeRoot.setColor(node, Color.RED);
+        	hover = node;
+        }
+        
         protected void startDrag(PInputEvent e) {
             super.startDrag(e);
+            dragged = pickNode(e);
             e.setHandled(true);
-            e.getPickedNode().moveToFront();
         }
         
-		@SuppressWarnings("unchecked")
 		protected void drag(PInputEvent e) {
-            super.drag(e);
-            
-            ArrayList<PPath> edges = (ArrayList<PPath>) e.getPickedNode().getAttribute("edges");
-            for (int i = 0; i < edges.size(); i++) {
-                updateEdge((PPath) edges.get(i));
+			if (dragged == -1) return;
+			Dimension2D delta = e.getDeltaRelativeTo(nodeRoot);
+			nodeRoot.setPosition(dragged, nodeRoot.getX(dragged) + delta.getWidth(), nodeRoot.getY(dragged) + delta.getHeight());
+            for (int i = nodeEdgeStart[dragged]; i < nodeEdgeStart[dragged + 1]; i++) {
+                updateEdge(nodeEdges[i]);
             }
         }	
+		
+		protected void endDrag(PInputEvent e) {
+			super.endDrag(e);
+			if (dragged != -1) nodeRoot.updateLabels();
+			dragged = -1;
+		}
+		
+		private int pickNode(PInputEvent e) {
+			Point2D p = e.getPositionRelativeTo(nodeRoot);
+			return nodeRoot.pickGlyph(p.getX(), p.getY());
+		}
 	}
 	
 	public NodeLinkGraph(Graph graph) {
@@ -76,11 +103,25 @@ public class NodeLinkGraph {
 		Table edgeTable = graph.getEdgeTable();
 		IntColumn fromColumn = (IntColumn) edgeTable.getColumn("from");
 		IntColumn toColumn = (IntColumn) edgeTable.getColumn("to");
+		edgeEnds = new int[2 * edgeTable.getRowCount()];
 		for (int i = 0; i < edgeTable.getRowCount(); i++) {
 			int from = fromColumn.getIntValueAt(i); 
 			int to = toColumn.getIntValueAt(i);
 			addEdge(from, to);
 		}
+		
+		// Incident edges of each node
+		nodeEdgeStart = new int[graph.getVertexCount() + 1];
+		nodeEdges = new int[edgeEnds.length];
+		for (int i = 0; i < edgeEnds.length; i++) nodeEdgeStart[edgeEnds[i] + 1]++;
+		for (int i = 0; i < graph.getVertexCount(); i++) nodeEdgeStart[i + 1] += nodeEdgeStart[i];
+		int[] next = nodeEdgeStart.clone();
+		for (int i = 0; i < edgeEnds.length; i++) nodeEdges[next[edgeEnds[i]]++] = i / 2;
+
+		// Labels of well-connected nodes win where labels overlap
+		for (int i = 0; i < graph.getVertexCount(); i++) {
+			nodeRoot.setLabelPriority(i, nodeEdgeStart[i + 1] - nodeEdgeStart[i]);
+		}
 	} 
 	
 	public PDragEventHandler getDragEventHandler() { 
@@ -100,8 +141,8 @@ public class NodeLinkGraph {
 	}
 	
 	public void clear() { 
-		nodeRoot.removeAllChildren();
-		edgeRoot.removeAllChildren();
+		nodeRoot.removeAllGlyphs();
+		edgeRoot.removeAllEdges();
 	}
 	
 	public void update() { 
@@ -114,51 +155,49 @@ public class NodeLinkGraph {
 		for (int i = 0; i < graph.getVertexCount(); i++) {
 			double x = xCol.getRealValueAt(i);
 			double y = yCol.getRealValueAt(i);
-			nodeRoot.getChild(i).setOffset(x, y);
+			setNodePosition(i, x, y);
 		}
 		
 		// Update edge positions
-		for (int i = 0; i < graph.getEdgeCount(); i++) {
-			PNode edge = edgeRoot.getChild(i);
-			updateEdge((PPath) edge);
+		for (int i = 0; i < edgeRoot.getEdgeCount(); i++) {
+			updateEdge(i);
 		}		
+		nodeRoot.updateLabels();
+	}
+	
+	/**
+	 * Moves the nodes to the given positions without storing them in the
+	 * position columns; used to show intermediate layouts.
+	 */
+	public void setPositions(double[] x, double[] y) { 
+		for (int i = 0; i < x.length && i < nodeRoot.getGlyphCount(); i++) {
+			setNodePosition(i, x[i], y[i]);
+		}
+		for (int i = 0; i < edgeRoot.getEdgeCount(); i++) {
+			updateEdge(i);
+		}
 	}
 	
-	private PPath addNode(String name) {
-		PPath node = PPath.createEllipse(0, 0, 20, 20);
-        node.addAttribute("edges", new ArrayList<PPath>());
-        node.addAttribute("name", name);
-        PText text = new PText(name);
-        text.translate(0, -15);
-        node.addChild(text);
-        node.setChildrenPickable(false);
-        nodeRoot.addChild(node);
+	private int addNode(String name) {
+		int node = nodeRoot.addGlyph(NODE_SIZE / 2, NODE_SIZE / 2, NODE_SIZE, null);
+		nodeRoot.setLabel(node, name);
         return node;
 	}
 	
-	@SuppressWarnings("unchecked")
+	private void setNodePosition(int node, double x, double y) {
+		nodeRoot.setPosition(node, x + NODE_SIZE / 2, y + NODE_SIZE / 2);
+	}
+	
 	private void addEdge(int n1, int n2) {
-		PNode node1 = nodeRoot.getChild(n1);
-        PNode node2 = nodeRoot.getChild(n2);
-
-        PPath edge = new PPath();
-        ((ArrayList<PPath>) node1.getAttribute("edges")).add(edge);
-        ((ArrayList<PPath>) node2.getAttribute("edges")).add(edge);
-        edge.addAttribute("nodes", new ArrayList<PNode>());
-        ((ArrayList<PNode>) edge.getAttribute("nodes")).add(node1);
-        ((ArrayList<PNode>) edge.getAttribute("nodes")).add(node2);
-        edgeRoot.addChild(edge);
+        int edge = edgeRoot.addEdge(0, 0, 0, 0);
+        edgeEnds[2 * edge] = n1;
+        edgeEnds[2 * edge + 1] = n2;
         updateEdge(edge);    
 	}
     
-    @SuppressWarnings("unchecked")
-	private void updateEdge(PPath edge) {
-        PNode node1 = (PNode) ((ArrayList<PNode>) edge.getAttribute("nodes")).get(0);
-        PNode node2 = (PNode) ((ArrayList<PNode>) edge.getAttribute("nodes")).get(1);
-        Point2D start = node1.getFullBoundsReference().getCenter2D();
-        Point2D end = node2.getFullBoundsReference().getCenter2D();
-        edge.reset();
-        edge.moveTo((float) start.getX(), (float) start.getY());
-        edge.lineTo((float) end.getX(), (float) end.getY());
+	private void updateEdge(int edge) {
+        int node1 = edgeEnds[2 * edge];
+        int node2 = edgeEnds[2 * edge + 1];
+        edgeRoot.setEdge(edge, nodeRoot.getX(node1), nodeRoot.getY(node1), nodeRoot.getX(node2), nodeRoot.getY(node2));
     }
 }
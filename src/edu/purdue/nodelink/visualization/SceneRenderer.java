@@ -0,0 +1,355 @@
+/* ------------------------------------------------------------------
+ * SceneRenderer.java
+ *
+ * Renders a Piccolo scene to PNG or SVG without a canvas.
+ * ------------------------------------------------------------------
+ */
+package edu.purdue.nodelink.visualization;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.RenderingHints;
+import java.awt.Stroke;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.PathIterator;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import edu.umd.cs.piccolo.PLayer;
+import edu.umd.cs.piccolo.PNode;
+import edu.umd.cs.piccolo.PRoot;
+import edu.umd.cs.piccolo.nodes.PPath;
+import edu.umd.cs.piccolo.util.PBounds;
+import edu.umd.cs.piccolo.util.PPaintContext;
+
+/**
+ * Draws the nodes of a graph view into an image or an SVG document, fitted
+ * to the requested size, without a <code>PCanvas</code> or any other Swing
+ * component, so it works with <code>java.awt.headless=true</code>.
+ *
+ * Images are split into square tiles that are painted in parallel straight
+ * into the image; the batched nodes and paths may be painted from several
+ * threads at once.  SVG is written to a stream node by node, with the edges
+ * of a <code>BatchedEdgeNode</code> in batches of one path each, so large
+ * graphs need no document in memory.  SVG knows paths, batched edges and
+ * batched glyphs; other nodes only contribute their children.  Like the
+ * image, the SVG document only contains the labels that are drawn at its
+ * scale.
+ *
+ * The nodes are moved into a root of the renderer's own, so they must not
+ * be shown in a canvas at the same time.
+ */
+public class SceneRenderer {
+
+	/** Default width and height of an image tile, in pixels. */
+	public static final int TILE_SIZE = 1024;
+
+	/** Number of edges written as one SVG path. */
+	private static final int SVG_BATCH_SIZE = 4096;
+
+	private PRoot root = new PRoot();
+	private PLayer layer = new PLayer();
+	private Color background = Color.WHITE;
+	private int margin = 10;
+	private int tileSize = TILE_SIZE;
+	private int threadCount = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * @param nodes the roots to draw, bottom first.
+	 */
+	public SceneRenderer(PNode... nodes) {
+		root.addChild(layer);
+		for (PNode node : nodes) {
+			layer.addChild(node);
+		}
+	}
+
+	public Color getBackground() {
+		return background;
+	}
+
+	/**
+	 * @param background the background color, or <code>null</code> for transparent.
+	 */
+	public void setBackground(Color background) {
+		this.background = background;
+	}
+
+	public int getMargin() {
+		return margin;
+	}
+
+	/**
+	 * @param margin empty border around the scene, in pixels.
+	 */
+	public void setMargin(int margin) {
+		this.margin = margin;
+	}
+
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	public void setTileSize(int tileSize) {
+		this.tileSize = tileSize;
+	}
+
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	public void setThreadCount(int threadCount) {
+		this.threadCount = threadCount;
+	}
+
+	/**
+	 * Returns the transform from scene to output coordinates that fits the
+	 * scene into the output with the margin, preserving its aspect ratio.
+	 */
+	public AffineTransform getFitTransform(int width, int height) {
+		root.processInputs();
+		PBounds bounds = layer.getFullBoundsReference();
+		AffineTransform transform = new AffineTransform();
+		if (bounds.isEmpty()) return transform;
+		double scale = Math.min((width - 2.0 * margin) / bounds.getWidth(), (height - 2.0 * margin) / bounds.getHeight());
+		transform.translate(width / 2.0, height / 2.0);
+		transform.scale(scale, scale);
+		transform.translate(-bounds.getCenterX(), -bounds.getCenterY());
+		return transform;
+	}
+
+	/**
+	 * Renders the scene into a new image.
+	 */
+	public BufferedImage renderImage(int width, int height) throws IOException {
+		final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		final AffineTransform transform = getFitTransform(width, height);
+
+		// Every tile paints into its own part of the image
+		ArrayList<Callable<Object>> tiles = new ArrayList<Callable<Object>>();
+		for (int y = 0; y < height; y += tileSize) {
+			for (int x = 0; x < width; x += tileSize) {
+				final int tileX = x, tileY = y;
+				final int tileWidth = Math.min(tileSize, width - x), tileHeight = Math.min(tileSize, height - y);
+				tiles.add(new Callable<Object>() {
+					public Object call() {
+						paintTile(image.getSubimage(tileX, tileY, tileWidth, tileHeight), tileX, tileY, transform);
+						return null;
+					}
+				});
+			}
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threadCount, tiles.size())));
+		try {
+			for (Future<Object> result : executor.invokeAll(tiles)) {
+				result.get();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Rendering was interrupted");
+		}
+		catch (ExecutionException e) {
+			IOException error = new IOException("Rendering failed: " + e.getCause());
+			error.initCause(e.getCause());
+			throw error;
+		}
+		finally {
+			executor.shutdown();
+		}
+		return image;
+	}
+
+	private void paintTile(BufferedImage tile, int tileX, int tileY, AffineTransform transform) {
+		Graphics2D g2 = tile.createGraphics();
+		if (background != null) {
+			g2.setColor(background);
+			g2.fillRect(0, 0, tile.getWidth(), tile.getHeight());
+		}
+		g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+		g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		g2.translate(-tileX, -tileY);
+		g2.clipRect(tileX, tileY, tile.getWidth(), tile.getHeight());
+		g2.transform(transform);
+		PPaintContext paintContext = new PPaintContext(g2);
+		paintContext.setRenderQuality(PPaintContext.HIGH_QUALITY_RENDERING);
+		layer.fullPaint(paintContext);
+		g2.dispose();
+	}
+
+	public void writePNG(File file, int width, int height) throws IOException {
+		if (!ImageIO.write(renderImage(width, height), "png", file)) {
+			throw new IOException("No PNG writer available");
+		}
+	}
+
+	/**
+	 * Streams the scene as an SVG document.  The writer is not closed.
+	 */
+	public void writeSVG(Writer out, int width, int height) throws IOException {
+		AffineTransform transform = getFitTransform(width, height);
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		out.write("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + width + "\" height=\"" + height
+				+ "\" viewBox=\"0 0 " + width + " " + height + "\">\n");
+		if (background != null) {
+			out.write("<rect width=\"100%\" height=\"100%\"" + paintAttributes("fill", background) + "/>\n");
+		}
+		out.write("<g transform=\"" + matrix(transform) + "\">\n");
+		writeNode(out, layer, getScale(transform));
+		out.write("</g>\n</svg>\n");
+		out.flush();
+	}
+
+	/**
+	 * Writes a node and its children.
+	 * @param scale the scale of the output, in pixels per unit of the parent of the node.
+	 */
+	private void writeNode(Writer out, PNode node, double scale) throws IOException {
+		if (!node.getVisible()) return;
+		scale *= getScale(node.getTransformReference(true));
+		boolean group = !node.getTransformReference(true).isIdentity() || node.getTransparency() < 1.0f;
+		if (group) {
+			out.write("<g");
+			if (!node.getTransformReference(true).isIdentity()) out.write(" transform=\"" + matrix(node.getTransformReference(true)) + "\"");
+			if (node.getTransparency() < 1.0f) out.write(" opacity=\"" + node.getTransparency() + "\"");
+			out.write(">\n");
+		}
+		if (node instanceof PPath) {
+			writePath(out, (PPath) node);
+		}
+		else if (node instanceof BatchedEdgeNode) {
+			writeEdges(out, (BatchedEdgeNode) node);
+		}
+		else if (node instanceof BatchedGlyphNode) {
+			writeGlyphs(out, (BatchedGlyphNode) node, scale);
+		}
+		for (int i = 0; i < node.getChildrenCount(); i++) {
+			writeNode(out, node.getChild(i), scale);
+		}
+		if (group) out.write("</g>\n");
+	}
+
+	private void writePath(Writer out, PPath path) throws IOException {
+		StringBuffer data = new StringBuffer();
+		double[] coords = new double[6];
+		for (PathIterator i = path.getPathReference().getPathIterator(null); !i.isDone(); i.next()) {
+			switch (i.currentSegment(coords)) {
+			case PathIterator.SEG_MOVETO:
+				data.append("M").append(coords[0]).append(' ').append(coords[1]);
+				break;
+			case PathIterator.SEG_LINETO:
+				data.append("L").append(coords[0]).append(' ').append(coords[1]);
+				break;
+			case PathIterator.SEG_QUADTO:
+				data.append("Q").append(coords[0]).append(' ').append(coords[1]).append(' ')
+					.append(coords[2]).append(' ').append(coords[3]);
+				break;
+			case PathIterator.SEG_CUBICTO:
+				data.append("C").append(coords[0]).append(' ').append(coords[1]).append(' ')
+					.append(coords[2]).append(' ').append(coords[3]).append(' ')
+					.append(coords[4]).append(' ').append(coords[5]);
+				break;
+			case PathIterator.SEG_CLOSE:
+				data.append("Z");
+				break;
+			}
+		}
+		out.write("<path d=\"" + data + "\"" + paintAttributes("fill", path.getPaint())
+				+ strokeAttributes(path.getStrokePaint(), path.getStroke()) + "/>\n");
+	}
+
+	private void writeEdges(Writer out, BatchedEdgeNode edges) throws IOException {
+		String attributes = " fill=\"none\"" + strokeAttributes(edges.getStrokePaint(), edges.getStroke());
+		StringBuffer data = new StringBuffer();
+		double[] coords = new double[4];
+		int batch = 0;
+		for (int i = 0; i < edges.getSlotCount(); i++) {
+			if (!edges.getEdge(i, coords)) continue;
+			data.append("M").append((float) coords[0]).append(' ').append((float) coords[1])
+				.append("L").append((float) coords[2]).append(' ').append((float) coords[3]);
+			if (++batch == SVG_BATCH_SIZE) {
+				out.write("<path d=\"" + data + "\"" + attributes + "/>\n");
+				data.setLength(0);
+				batch = 0;
+			}
+		}
+		if (batch > 0) out.write("<path d=\"" + data + "\"" + attributes + "/>\n");
+	}
+
+	private void writeGlyphs(Writer out, BatchedGlyphNode glyphs, double scale) throws IOException {
+		out.write("<g" + strokeAttributes(glyphs.getStrokePaint(), glyphs.getStroke()) + ">\n");
+		for (int i = 0; i < glyphs.getSlotCount(); i++) {
+			if (glyphs.isFree(i)) continue;
+			out.write("<circle cx=\"" + (float) glyphs.getX(i) + "\" cy=\"" + (float) glyphs.getY(i)
+					+ "\" r=\"" + (float) (glyphs.getSize(i) / 2) + "\"" + paintAttributes("fill", glyphs.getColor(i)) + "/>\n");
+		}
+		out.write("</g>\n");
+
+		// Labels on top of all glyphs, the same ones as in paint
+		Font font = glyphs.getLabelFont();
+		BitSet shown = glyphs.getShownLabels(scale);
+		boolean first = true;
+		for (int i = shown.nextSetBit(0); i >= 0; i = shown.nextSetBit(i + 1)) {
+			String label = glyphs.getLabel(i);
+			if (first) {
+				out.write("<g font-family=\"" + escape(font.getFamily()) + "\" font-size=\"" + font.getSize2D() + "\""
+						+ paintAttributes("fill", glyphs.getStrokePaint()) + ">\n");
+				first = false;
+			}
+			double radius = glyphs.getSize(i) / 2;
+			out.write("<text x=\"" + (float) (glyphs.getX(i) - radius) + "\" y=\"" + (float) (glyphs.getY(i) - radius - BatchedGlyphNode.LABEL_OFFSET)
+					+ "\">" + escape(label) + "</text>\n");
+		}
+		if (!first) out.write("</g>\n");
+	}
+
+	private static double getScale(AffineTransform transform) {
+		return Math.sqrt(Math.abs(transform.getDeterminant()));
+	}
+
+	private static String strokeAttributes(Paint paint, Stroke stroke) {
+		String attributes = paintAttributes("stroke", paint);
+		if (paint != null && stroke instanceof BasicStroke) {
+			attributes += " stroke-width=\"" + ((BasicStroke) stroke).getLineWidth() + "\"";
+		}
+		return attributes;
+	}
+
+	/**
+	 * Returns the SVG attributes for a fill or stroke paint; only colors are
+	 * supported, other paints are drawn black.
+	 */
+	private static String paintAttributes(String property, Paint paint) {
+		if (paint == null) return " " + property + "=\"none\"";
+		Color color = paint instanceof Color ? (Color) paint : Color.BLACK;
+		String attributes = " " + property + "=\"#" + Integer.toHexString(0x1000000 | (color.getRGB() & 0xffffff)).substring(1) + "\"";
+		if (color.getAlpha() < 255) {
+			attributes += " " + property + "-opacity=\"" + color.getAlpha() / 255.0f + "\"";
+		}
+		return attributes;
+	}
+
+	private static String matrix(AffineTransform transform) {
+		return "matrix(" + transform.getScaleX() + " " + transform.getShearY() + " " + transform.getShearX() + " "
+			+ transform.getScaleY() + " " + transform.getTranslateX() + " " + transform.getTranslateY() + ")";
+	}
+
+	private static String escape(String text) {
+		return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+	}
+}
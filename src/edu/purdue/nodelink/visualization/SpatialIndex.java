@@ -0,0 +1,148 @@
+/* ------------------------------------------------------------------
+ * SpatialIndex.java
+ *
+ * Hierarchical grid over axis-aligned boxes for window queries.
+ * ------------------------------------------------------------------
+ */
+package edu.purdue.nodelink.visualization;
+
+/**
+ * Static index over the bounding boxes of a set of slots, for finding the
+ * slots that meet a query rectangle.  A box is given by two corners
+ * <code>(a, b)</code> and <code>(c, d)</code> in a float array with four
+ * entries per slot, in any order, so edge coordinates can be indexed
+ * directly; slots whose first entry is NaN are free and not indexed.
+ *
+ * The index is a loose hierarchical grid: level <code>l</code> has cells of
+ * width <code>cellSize * 2^l</code>, and every box is stored once, in the
+ * cell of its center on the finest level whose cells are at least as wide
+ * as the box.  A query visits, on each level, the cells whose centers may
+ * hold a box meeting the rectangle, so long edges do not make the index
+ * larger and short ones are found without scanning the long ones.
+ */
+class SpatialIndex {
+
+	/** Boxes, four entries per slot; not copied. */
+	private float[] boxes;
+	private double originX, originY, cellSize;
+	private int levelCount;
+	/** Grid width and height of each level, and offset of its cells. */
+	private int[] gridWidth, gridHeight, levelOffset;
+	/** Slots of each cell in <code>cellItems[cellStart[c]..cellStart[c+1]]</code>. */
+	private int[] cellStart, cellItems;
+
+	/**
+	 * Rebuilds the index.
+	 * @param boxes     corners of the boxes, four entries per slot.  Is not
+	 *   copied; the index must be rebuilt after the boxes change.
+	 * @param slotCount number of slots, including free ones.
+	 */
+	public void build(float[] boxes, int slotCount) {
+		this.boxes = boxes;
+
+		// Extent of all boxes and mean box size
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		int count = 0;
+		for (int k = 0; k < 4 * slotCount; k += 4) {
+			if (Float.isNaN(boxes[k])) continue;
+			minX = Math.min(minX, Math.min(boxes[k], boxes[k + 2]));
+			maxX = Math.max(maxX, Math.max(boxes[k], boxes[k + 2]));
+			minY = Math.min(minY, Math.min(boxes[k + 1], boxes[k + 3]));
+			maxY = Math.max(maxY, Math.max(boxes[k + 1], boxes[k + 3]));
+			count++;
+		}
+		if (count == 0) {
+			levelCount = 0;
+			cellStart = new int[1];
+			cellItems = new int[0];
+			return;
+		}
+
+		// Finest cells hold about two boxes if the boxes were spread evenly
+		double extent = Math.max(maxX - minX, maxY - minY);
+		cellSize = Math.max(Math.sqrt(2.0 * (maxX - minX) * (maxY - minY) / count), extent / 4096.0);
+		if (cellSize == 0.0) cellSize = 1.0;
+		originX = minX;
+		originY = minY;
+		levelCount = 1;
+		while (cellSize * (1L << (levelCount - 1)) < extent && levelCount < 31) levelCount++;
+		gridWidth = new int[levelCount];
+		gridHeight = new int[levelCount];
+		levelOffset = new int[levelCount + 1];
+		for (int l = 0; l < levelCount; l++) {
+			double size = cellSize * (1L << l);
+			gridWidth[l] = (int) ((maxX - minX) / size) + 1;
+			gridHeight[l] = (int) ((maxY - minY) / size) + 1;
+			levelOffset[l + 1] = levelOffset[l] + gridWidth[l] * gridHeight[l];
+		}
+
+		// Counting sort of the slots by cell
+		int cellCount = levelOffset[levelCount];
+		cellStart = new int[cellCount + 1];
+		int[] cells = new int[slotCount];
+		for (int i = 0; i < slotCount; i++) {
+			if (Float.isNaN(boxes[4 * i])) continue;
+			cells[i] = cellOf(i);
+			cellStart[cells[i] + 1]++;
+		}
+		for (int c = 0; c < cellCount; c++) {
+			cellStart[c + 1] += cellStart[c];
+		}
+		int[] next = new int[cellCount];
+		System.arraycopy(cellStart, 0, next, 0, cellCount);
+		cellItems = new int[count];
+		for (int i = 0; i < slotCount; i++) {
+			if (!Float.isNaN(boxes[4 * i])) cellItems[next[cells[i]]++] = i;
+		}
+	}
+
+	private int cellOf(int slot) {
+		int k = 4 * slot;
+		double width = Math.abs(boxes[k + 2] - boxes[k]), height = Math.abs(boxes[k + 3] - boxes[k + 1]);
+		double size = Math.max(width, height);
+		int level = 0;
+		while (level < levelCount - 1 && cellSize * (1L << level) < size) level++;
+		double levelSize = cellSize * (1L << level);
+		double cx = (boxes[k] + boxes[k + 2]) / 2.0, cy = (boxes[k + 1] + boxes[k + 3]) / 2.0;
+		int col = Math.min(gridWidth[level] - 1, (int) ((cx - originX) / levelSize));
+		int row = Math.min(gridHeight[level] - 1, (int) ((cy - originY) / levelSize));
+		return levelOffset[level] + row * gridWidth[level] + col;
+	}
+
+	/**
+	 * Finds the slots whose boxes meet a rectangle.  Queries do not modify
+	 * the index, so several threads may query it at once.
+	 * @return the slots found, unordered.
+	 */
+	public int[] query(double minX, double minY, double maxX, double maxY) {
+		int[] results = new int[16];
+		int resultCount = 0;
+		for (int l = 0; l < levelCount; l++) {
+			double size = cellSize * (1L << l);
+
+			// A box on this level extends at most half a cell beyond its cell
+			int c0 = Math.max(0, (int) Math.floor((minX - size / 2 - originX) / size));
+			int c1 = Math.min(gridWidth[l] - 1, (int) Math.floor((maxX + size / 2 - originX) / size));
+			int r0 = Math.max(0, (int) Math.floor((minY - size / 2 - originY) / size));
+			int r1 = Math.min(gridHeight[l] - 1, (int) Math.floor((maxY + size / 2 - originY) / size));
+			for (int row = r0; row <= r1; row++) {
+				int cell = levelOffset[l] + row * gridWidth[l];
+				for (int k = cellStart[cell + c0]; k < cellStart[cell + c1 + 1]; k++) {
+					int i = cellItems[k], b = 4 * i;
+					if (Math.max(boxes[b], boxes[b + 2]) < minX || Math.min(boxes[b], boxes[b + 2]) > maxX) continue;
+					if (Math.max(boxes[b + 1], boxes[b + 3]) < minY || Math.min(boxes[b + 1], boxes[b + 3]) > maxY) continue;
+					if (resultCount == results.length) {
+						int[] grown = new int[2 * resultCount];
+						System.arraycopy(results, 0, grown, 0, resultCount);
+						results = grown;
+					}
+					results[resultCount++] = i;
+				}
+			}
+		}
+		int[] found = new int[resultCount];
+		System.arraycopy(results, 0, found, 0, resultCount);
+		return found;
+	}
+}
@@ -0,0 +1,355 @@
+/* ------------------------------------------------------------------
+ * TiledLayer.java
+ *
+ * Piccolo layer that paints its children from cached image tiles.
+ * ------------------------------------------------------------------
+ */
+package edu.purdue.nodelink.visualization;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.swing.SwingUtilities;
+
+import edu.umd.cs.piccolo.PLayer;
+import edu.umd.cs.piccolo.PNode;
+import edu.umd.cs.piccolo.util.PBounds;
+import edu.umd.cs.piccolo.util.PPaintContext;
+
+/**
+ * Layer that paints its children into image tiles once and then draws the
+ * tiles, so that panning and zooming a scene that does not change costs a
+ * few image copies per frame instead of a traversal of the scene.
+ *
+ * Tiles are <code>TILE_SIZE</code> pixels square and rendered at the power
+ * of two scale at or above the camera scale, so one set of tiles serves all
+ * camera scales up to half of it.  Missing tiles are rendered by a shared
+ * pool of worker threads and drawn once they are done; until then the
+ * layer draws the covering tile of the next coarser level or the four
+ * tiles of the next finer level if they are cached, and paints its
+ * children directly otherwise.  Any repaint coming from a child, which is
+ * how Piccolo reports that a node changed, drops the tiles it touches and
+ * cancels or discards the renders of those tiles still queued or running.
+ * A tile whose render failed is not requested again for
+ * <code>RETRY_MILLIS</code>, so a failing scene does not keep the workers busy.
+ *
+ * The workers hold the read lock of the scene lock while they paint the
+ * children.  Code that changes the children must hold its write lock (see
+ * <code>getSceneLock</code>); the layer takes it itself while the bounds
+ * of the children are validated.  The event thread then waits for the
+ * renders running at that moment, at most one tile per worker.
+ */
+public class TiledLayer extends PLayer {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Width and height of a tile, in pixels. */
+	public static final int TILE_SIZE = 256;
+
+	/** Number of tiles kept, about 64 MB. */
+	private static final int MAX_TILES = 256;
+
+	/** Time before a tile whose render failed is requested again, in milliseconds. */
+	private static final long RETRY_MILLIS = 1000;
+
+	/** Workers shared by all tiled layers. */
+	private static ThreadPoolExecutor workers = null;
+
+	/** Position of a tile: tile column and row at a zoom level. */
+	private static class TileKey {
+		final int level, col, row;
+		TileKey(int level, int col, int row) {
+			this.level = level;
+			this.col = col;
+			this.row = row;
+		}
+		public boolean equals(Object o) {
+			if (!(o instanceof TileKey)) return false;
+			TileKey other = (TileKey) o;
+			return level == other.level && col == other.col && row == other.row;
+		}
+		public int hashCode() {
+			return (level * 31 + col) * 31 + row;
+		}
+		/** Width and height of the tile in layer coordinates. */
+		double getSpan() {
+			return TILE_SIZE / Math.pow(2.0, level);
+		}
+		Rectangle2D getBounds() {
+			double span = getSpan();
+			return new Rectangle2D.Double(col * span, row * span, span, span);
+		}
+	}
+
+	/** Rendered tiles, least recently drawn first; only used on the event thread. */
+	private LinkedHashMap<TileKey, BufferedImage> tiles = new LinkedHashMap<TileKey, BufferedImage>(64, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		protected boolean removeEldestEntry(Map.Entry<TileKey, BufferedImage> eldest) {
+			return size() > MAX_TILES;
+		}
+	};
+	/**
+	 * Renders queued or running, by tile.  A render only delivers its image
+	 * while it is still the entry of its tile, so dropping the entry
+	 * discards the result of a render that is already running.
+	 */
+	private HashMap<TileKey, Runnable> pending = new HashMap<TileKey, Runnable>();
+	/** Time from which each tile whose render failed may be requested again. */
+	private HashMap<TileKey, Long> failed = new HashMap<TileKey, Long>();
+	/** Read by the workers while they paint, written while the children change. */
+	private final ReentrantReadWriteLock sceneLock = new ReentrantReadWriteLock(true);
+	private boolean cacheEnabled = true;
+
+	public boolean isCacheEnabled() {
+		return cacheEnabled;
+	}
+
+	/**
+	 * Turns the tile cache on or off; when off, the layer paints like a
+	 * plain <code>PLayer</code>.
+	 */
+	public void setCacheEnabled(boolean cacheEnabled) {
+		this.cacheEnabled = cacheEnabled;
+		invalidateTiles(null);
+		repaint();
+	}
+
+	/**
+	 * Returns the lock of the children.  Code that changes the children,
+	 * their descendants or their geometry on the event thread must hold the
+	 * write lock meanwhile, so that the workers never paint a scene in the
+	 * middle of a change.
+	 */
+	public ReadWriteLock getSceneLock() {
+		return sceneLock;
+	}
+
+	/**
+	 * Drops the tiles that meet a rectangle, and the renders of such tiles
+	 * that are in progress.
+	 * @param bounds rectangle in layer coordinates, or <code>null</code> for all tiles.
+	 */
+	public void invalidateTiles(Rectangle2D bounds) {
+		for (Iterator<Map.Entry<TileKey, Runnable>> i = pending.entrySet().iterator(); i.hasNext(); ) {
+			Map.Entry<TileKey, Runnable> entry = i.next();
+			if (bounds == null || entry.getKey().getBounds().intersects(bounds)) {
+				getWorkers().remove(entry.getValue());
+				i.remove();
+			}
+		}
+		for (Iterator<TileKey> i = tiles.keySet().iterator(); i.hasNext(); ) {
+			TileKey key = i.next();
+			if (bounds == null || key.getBounds().intersects(bounds)) i.remove();
+		}
+		for (Iterator<TileKey> i = failed.keySet().iterator(); i.hasNext(); ) {
+			TileKey key = i.next();
+			if (bounds == null || key.getBounds().intersects(bounds)) i.remove();
+		}
+	}
+
+	protected boolean validateFullBounds() {
+		if (!getFullBoundsInvalid() && !getChildBoundsInvalid()) return super.validateFullBounds();
+
+		// Validating the bounds writes to the children
+		Lock lock = sceneLock.writeLock();
+		lock.lock();
+		try {
+			return super.validateFullBounds();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	public void repaintFrom(PBounds localBounds, PNode childOrThis) {
+		// Only repaints of the children mean that the scene changed
+		if (childOrThis != this && (!tiles.isEmpty() || !pending.isEmpty() || !failed.isEmpty())) {
+			invalidateTiles(localBounds);
+		}
+		super.repaintFrom(localBounds, childOrThis);
+	}
+
+	public void fullPaint(PPaintContext paintContext) {
+		if (!cacheEnabled || !getVisible() || !getTransformReference(true).isIdentity()) {
+			super.fullPaint(paintContext);
+			return;
+		}
+		Rectangle2D area = paintContext.getLocalClip().createIntersection(getFullBoundsReference());
+		if (area.isEmpty()) return;
+
+		// Smallest level that has at least one tile pixel per screen pixel
+		int level = (int) Math.ceil(Math.log(paintContext.getScale()) / Math.log(2.0) - 1e-6);
+		double span = TILE_SIZE / Math.pow(2.0, level);
+		int col0 = (int) Math.floor(area.getMinX() / span), col1 = (int) Math.floor(area.getMaxX() / span);
+		int row0 = (int) Math.floor(area.getMinY() / span), row1 = (int) Math.floor(area.getMaxY() / span);
+
+		Graphics2D g2 = paintContext.getGraphics();
+		RenderingHints hints = g2.getRenderingHints();
+		g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, paintContext.getRenderQuality() == PPaintContext.HIGH_QUALITY_RENDERING
+				? RenderingHints.VALUE_INTERPOLATION_BILINEAR : RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+		Rectangle2D missing = null;
+		for (int row = row0; row <= row1; row++) {
+			for (int col = col0; col <= col1; col++) {
+				TileKey key = new TileKey(level, col, row);
+				BufferedImage image = tiles.get(key);
+				if (image != null) {
+					drawTile(g2, key, image);
+					continue;
+				}
+				requestTile(key);
+				if (drawFallback(paintContext, key)) continue;
+				if (missing == null) missing = key.getBounds();
+				else missing.add(key.getBounds());
+			}
+		}
+		g2.setRenderingHints(hints);
+
+		// Paint what no tile covers yet directly
+		if (missing != null) {
+			paintContext.pushClip(missing);
+			super.fullPaint(paintContext);
+			paintContext.popClip(missing);
+		}
+	}
+
+	private void drawTile(Graphics2D g2, TileKey key, BufferedImage image) {
+		double span = key.getSpan();
+		AffineTransform transform = AffineTransform.getTranslateInstance(key.col * span, key.row * span);
+		transform.scale(span / TILE_SIZE, span / TILE_SIZE);
+		g2.drawImage(image, transform, null);
+	}
+
+	/**
+	 * Draws the area of a missing tile from the cached tiles of the
+	 * neighboring levels.
+	 * @return whether the area could be drawn.
+	 */
+	private boolean drawFallback(PPaintContext paintContext, TileKey key) {
+		Graphics2D g2 = paintContext.getGraphics();
+		Rectangle2D bounds = key.getBounds();
+
+		// Covering tile of the coarser level
+		TileKey parent = new TileKey(key.level - 1, key.col >> 1, key.row >> 1);
+		BufferedImage image = tiles.get(parent);
+		if (image != null) {
+			paintContext.pushClip(bounds);
+			drawTile(g2, parent, image);
+			paintContext.popClip(bounds);
+			return true;
+		}
+
+		// Four tiles of the finer level
+		BufferedImage[] children = new BufferedImage[4];
+		for (int k = 0; k < 4; k++) {
+			children[k] = tiles.get(new TileKey(key.level + 1, 2 * key.col + (k & 1), 2 * key.row + (k >> 1)));
+			if (children[k] == null) return false;
+		}
+		for (int k = 0; k < 4; k++) {
+			drawTile(g2, new TileKey(key.level + 1, 2 * key.col + (k & 1), 2 * key.row + (k >> 1)), children[k]);
+		}
+		return true;
+	}
+
+	/**
+	 * Queues the rendering of a tile unless it is already queued or its
+	 * last render failed less than <code>RETRY_MILLIS</code> ago.
+	 */
+	private void requestTile(final TileKey key) {
+		if (pending.containsKey(key)) return;
+		Long retry = failed.get(key);
+		if (retry != null) {
+			if (System.currentTimeMillis() < retry.longValue()) return;
+			failed.remove(key);
+		}
+		Runnable render = new Runnable() {
+			public void run() {
+				BufferedImage image;
+				try {
+					image = renderTile(key);
+				}
+				catch (RuntimeException e) {
+					System.err.println("Failed to render tile " + key.getBounds() + ": " + e);
+					image = null;
+				}
+				final BufferedImage result = image;
+				final Runnable request = this;
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						// Discard the image if the tile was dropped since it was requested
+						if (pending.get(key) != request) return;
+						pending.remove(key);
+						if (result == null) {
+							failed.put(key, System.currentTimeMillis() + RETRY_MILLIS);
+							return;
+						}
+						tiles.put(key, result);
+						repaintFrom(new PBounds(key.getBounds()), TiledLayer.this);
+					}
+				});
+			}
+		};
+		pending.put(key, render);
+		getWorkers().execute(render);
+	}
+
+	/**
+	 * Paints the children into the image of a tile; called on a worker thread.
+	 */
+	private BufferedImage renderTile(TileKey key) {
+		BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB_PRE);
+		Graphics2D g = image.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+		g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		double scale = TILE_SIZE / key.getSpan();
+		Rectangle2D bounds = key.getBounds();
+		g.scale(scale, scale);
+		g.translate(-bounds.getX(), -bounds.getY());
+		g.setClip(bounds);
+		PPaintContext paintContext = new PPaintContext(g);
+		paintContext.setRenderQuality(PPaintContext.HIGH_QUALITY_RENDERING);
+		Lock lock = sceneLock.readLock();
+		lock.lock();
+		try {
+			paintChildren(paintContext);
+		}
+		finally {
+			lock.unlock();
+			g.dispose();
+		}
+		return image;
+	}
+
+	private void paintChildren(PPaintContext paintContext) {
+		super.fullPaint(paintContext);
+	}
+
+	private static synchronized ThreadPoolExecutor getWorkers() {
+		if (workers == null) {
+			int count = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+			workers = new ThreadPoolExecutor(count, count, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "TiledLayer");
+					thread.setDaemon(true);
+					thread.setPriority(Thread.NORM_PRIORITY - 1);
+					return thread;
+				}
+			});
+		}
+		return workers;
+	}
+}